@@ -7,6 +7,8 @@ import static org.junit.Assert.*;
 
 import com.datastax.driver.core.Cluster;
 import com.datastax.driver.core.Session;
+import com.datastax.driver.core.policies.DCAwareRoundRobinPolicy;
+import com.datastax.driver.core.policies.TokenAwarePolicy;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -22,25 +24,30 @@ public class AppIT {
   private static final Logger LOG = LoggerFactory.getLogger(AppIT.class);
   @Test
   public void simpleTest() {
-    // Load properties file from classpath.
+    // Load the cluster descriptor written by the plugin's start goal.
     Properties prop = new Properties();
     InputStream input = null;
 
     try {
-      input =
-          this.getClass().getClassLoader().getResourceAsStream("cassandra-maven-plugin.properties");
+      input = new FileInputStream(System.getProperty("cassandra.descriptor"));
 
       // load a properties file
       prop.load(input);
 
       input.close();
 
+      // Route requests straight to the replicas, as the descriptor recommends.
       Cluster cluster = Cluster.builder()
-          .addContactPoint(prop.getProperty("cassandra.initialIp"))
+          .addContactPoints(prop.getProperty("cassandra.contactPoints").split(","))
           .withPort(Integer.parseInt(prop.getProperty("cassandra.nativePort")))
+          .withLoadBalancingPolicy(new TokenAwarePolicy(
+              new DCAwareRoundRobinPolicy(prop.getProperty("cassandra.localDatacenter"))))
           .build();
       Session session = cluster.connect();
       LOG.info("Opened connection to cluster!");
+      assertEquals(
+          prop.getProperty("cassandra.contactPoints").split(",").length,
+          cluster.getMetadata().getAllHosts().size());
       System.out.println("Running test");
       session.close();
       cluster.close();
@@ -0,0 +1,713 @@
+package org.kiji.maven.plugins;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.datastax.driver.core.exceptions.DriverException;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.PluginExecution;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.descriptor.PluginDescriptor;
+import org.apache.maven.plugins.annotations.Component;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.DependencyResolutionException;
+
+/**
+ * Base class for goals that start a Cassandra cluster.  Holds all of the user-configurable
+ * Cassandra settings.
+ */
+public abstract class AbstractCassandraClusterMojo extends AbstractMojo {
+  /** Name of the project property holding the module's keyspace prefix. */
+  public static final String KEYSPACE_PREFIX_PROPERTY = "cassandra.keyspacePrefix";
+
+  /** Name of the property that makes modules share one cluster across the reactor build. */
+  private static final String SHARE_PROPERTY = "cassandra.shareAcrossReactor";
+
+  /** Longest generated keyspace prefix, leaving room in Cassandra's 48 character limit. */
+  private static final int MAX_KEYSPACE_PREFIX_LENGTH = 32;
+
+  /** Number of nodes in the Cassandra cluster. */
+  @Parameter(defaultValue = "1", alias = "numnodes")
+  private int mNumNodes;
+
+  /** Number of vnodes per Cassandra node. */
+  @Parameter(property = "cassandra.numVirtualNodes", defaultValue = "256")
+  private int mNumVirtualNodes;
+
+  /**
+   * How nodes pick their tokens: random (num_tokens random tokens each) or balanced (evenly spaced
+   * initial_tokens, so every node owns the same share of the ring).
+   */
+  @Parameter(
+      property = "cassandra.tokenAllocation",
+      alias = "tokenAllocation",
+      defaultValue = "random")
+  private String mTokenAllocation;
+
+  /**
+   * If true, start one cluster for the whole reactor build: modules that start it after the first
+   * one use the running cluster, and it is shut down once every module that shares it has stopped
+   * it.
+   */
+  @Parameter(
+      property = SHARE_PROPERTY,
+      alias = "shareAcrossReactor",
+      defaultValue = "false")
+  private boolean mShareAcrossReactor;
+
+  /**
+   * Prefix for the names of the module's keyspaces, published as the cassandra.keyspacePrefix
+   * project property.  By default, one is generated from the module's coordinates, so that modules
+   * sharing a cluster keep their data apart.
+   */
+  @Parameter(alias = "keyspacePrefix")
+  private String mKeyspacePrefix;
+
+  /** Directory into which to put all of the Cassandra stuff. */
+  @Parameter(property = "cassandraDir", defaultValue = "${project.build.directory}/cassandra-it")
+  private File mCassandraDir;
+
+  /** Dependencies for the plugin (needed for setting the classpath for Cassandra processes). */
+  @Parameter(defaultValue="${plugin.artifacts}", readonly = true)
+  private List<Artifact> pluginDependencies;
+
+  /** IP address for node 0 (add 1 for every additional node's address). */
+  @Parameter(property = "cassandra.initialIp", alias = "cassandra.initialIp", defaultValue = "127.0.0.1")
+  private String mInitialIpAddress;
+
+  // -----------------------------------------------------------------------------------------------
+  // Different port settings
+
+  /** Port to use for Cassandra native transport. */
+  @Parameter(property = "cassandra.nativePort", alias = "cassandra.nativePort", defaultValue = "9042")
+  private int mPortNativeTransport;
+
+  /** Storage port. */
+  @Parameter(property = "cassandra.storagePort", alias = "cassandra.storagePort", defaultValue = "7000")
+  private int mPortStorage;
+
+  /** SSL storage port. */
+  @Parameter(property = "cassandra.sslStoragePort", alias = "cassandra.sslStoragePort", defaultValue = "7001")
+  private int mPortSslStorage;
+
+  /** RPC port. */
+  @Parameter(property = "cassandra.rpcPort", alias = "cassandra.rpcPort", defaultValue = "9160")
+  private int mPortRpc;
+
+  /** Base JMX port (node N listens on this port plus N). */
+  @Parameter(property = "cassandra.jmxPort", alias = "cassandra.jmxPort", defaultValue = "7199")
+  private int mPortJmx;
+
+  /**
+   * Outbound streaming throughput cap per node, in megabits per second, used when nodes join or
+   * leave the cluster (0 keeps Cassandra's default).
+   */
+  @Parameter(property = "cassandra.streamThroughputMbps", defaultValue = "0")
+  private int mStreamThroughputMbps;
+
+  // -----------------------------------------------------------------------------------------------
+  // Disk layout
+
+  /**
+   * Directories (typically on separate devices) for the nodes' SSTables.  Each node uses a node-N
+   * subdirectory of them.  Empty keeps the data under the Cassandra directory.
+   */
+  @Parameter(alias = "dataDirectories")
+  private List<File> mDataDirectories = Collections.emptyList();
+
+  /** Directories for the nodes' commit logs, assigned to nodes round-robin. */
+  @Parameter(alias = "commitLogDirectories")
+  private List<File> mCommitLogDirectories = Collections.emptyList();
+
+  /** Directories for the nodes' saved caches, assigned to nodes round-robin. */
+  @Parameter(alias = "savedCachesDirectories")
+  private List<File> mSavedCachesDirectories = Collections.emptyList();
+
+  /**
+   * How data directories are assigned: perNode (every node spreads its SSTables over all of them,
+   * JBOD-style) or roundRobin (each node keeps its SSTables in one of them).
+   */
+  @Parameter(
+      property = "cassandra.dataDirectoryAssignment",
+      alias = "dataDirectoryAssignment",
+      defaultValue = "perNode")
+  private String mDataDirectoryAssignment;
+
+  // -----------------------------------------------------------------------------------------------
+  // Commit log
+
+  /** How the nodes sync their commit logs: periodic or batch (empty keeps Cassandra's default). */
+  @Parameter(property = "cassandra.commitLogSync", alias = "commitLogSync")
+  private String mCommitLogSync;
+
+  /** With periodic sync, time between syncs, in milliseconds (0 keeps Cassandra's default). */
+  @Parameter(
+      property = "cassandra.commitLogSyncPeriodMillis",
+      alias = "commitLogSyncPeriodMillis",
+      defaultValue = "0")
+  private int mCommitLogSyncPeriodMillis;
+
+  /** With batch sync, how long writes wait for other writes to sync with, in milliseconds. */
+  @Parameter(
+      property = "cassandra.commitLogSyncBatchWindowMillis",
+      alias = "commitLogSyncBatchWindowMillis",
+      defaultValue = "50")
+  private int mCommitLogSyncBatchWindowMillis;
+
+  /** Size of each commit log segment, in megabytes (0 keeps Cassandra's default). */
+  @Parameter(
+      property = "cassandra.commitLogSegmentSizeMb",
+      alias = "commitLogSegmentSizeMb",
+      defaultValue = "0")
+  private int mCommitLogSegmentSizeMb;
+
+  // -----------------------------------------------------------------------------------------------
+  // Node output
+
+  /** Number of recent lines of each node's output to keep, and dump when the node fails. */
+  @Parameter(property = "cassandra.logTailLines", alias = "logTailLines", defaultValue = "200")
+  private int mLogTailLines;
+
+  /**
+   * Maximum number of WARN/ERROR lines per second, per node, copied into the maven log (0 turns
+   * this off).  Lines beyond the limit are dropped, never queued up.
+   */
+  @Parameter(
+      property = "cassandra.logForwardLinesPerSecond",
+      alias = "logForwardLinesPerSecond",
+      defaultValue = "5")
+  private int mLogForwardLinesPerSecond;
+
+  /** How much the nodes log: quiet (WARN), default (INFO) or debug (DEBUG, with source lines). */
+  @Parameter(
+      property = "cassandra.loggingProfile",
+      alias = "loggingProfile",
+      defaultValue = "default")
+  private String mLoggingProfile;
+
+  /**
+   * Whether nodes also log to their console.  Turning this off saves a sink, but leaves only JVM
+   * output for the log tail.
+   */
+  @Parameter(property = "cassandra.logToConsole", alias = "logToConsole", defaultValue = "true")
+  private boolean mLogToConsole;
+
+  /** Number of log events each node buffers before it starts dropping (rather than blocking). */
+  @Parameter(property = "cassandra.logBufferSize", alias = "logBufferSize", defaultValue = "1024")
+  private int mLogBufferSize;
+
+  /** Log levels for particular loggers in the nodes, e.g. org.apache.cassandra.db = DEBUG. */
+  @Parameter(alias = "logLevels")
+  private Map<String, String> mLogLevels = Collections.emptyMap();
+
+  // -----------------------------------------------------------------------------------------------
+  // Startup diagnostics
+
+  /**
+   * Time budget of each startup phase of a node (jvm, commitlog, gossip, join, transport), in
+   * seconds.  A node that goes over it gets thread dumps taken into its directory (0: never).
+   */
+  @Parameter(
+      property = "cassandra.startupPhaseTimeoutSeconds",
+      alias = "startupPhaseTimeoutSeconds",
+      defaultValue = "60")
+  private long mStartupPhaseTimeoutSeconds;
+
+  /** Time budgets of particular startup phases, in seconds, e.g. join = 120. */
+  @Parameter(alias = "startupPhaseTimeouts")
+  private Map<String, String> mStartupPhaseTimeouts = Collections.emptyMap();
+
+  /** If true, also capture a heap histogram of a node that goes over a startup phase budget. */
+  @Parameter(
+      property = "cassandra.startupHeapHistogram",
+      alias = "startupHeapHistogram",
+      defaultValue = "false")
+  private boolean mStartupHeapHistogram;
+
+  // -----------------------------------------------------------------------------------------------
+  // Query tracing
+
+  /**
+   * Probability (0 to 1) with which the nodes trace each request, from when the cluster is ready.
+   * The traces are summarized into a report of the slowest statements at stop (0: no tracing).
+   */
+  @Parameter(
+      property = "cassandra.traceProbability",
+      alias = "traceProbability",
+      defaultValue = "0")
+  private double mTraceProbability;
+
+  /** Number of statements in the slow statement report. */
+  @Parameter(
+      property = "cassandra.slowQueryReportSize",
+      alias = "slowQueryReportSize",
+      defaultValue = "20")
+  private int mSlowQueryReportSize;
+
+  // -----------------------------------------------------------------------------------------------
+  // Node control endpoint
+
+  /**
+   * If true, serve a loopback HTTP endpoint for stopping, killing, pausing and restarting nodes.
+   */
+  @Parameter(property = "cassandra.control.enabled", defaultValue = "false")
+  private boolean mControlEnabled;
+
+  /** Port for the node control endpoint (0 picks a free port). */
+  @Parameter(property = "cassandra.control.port", defaultValue = "0")
+  private int mPortControl;
+
+  /**
+   * How often to sample each node's RSS, CPU time, threads, file descriptors and disk I/O from
+   * /proc, in milliseconds (0 turns sampling off).
+   */
+  @Parameter(
+      property = "cassandra.resourceSampleIntervalMillis",
+      alias = "resourceSampleIntervalMillis",
+      defaultValue = "1000")
+  private long mResourceSampleIntervalMillis;
+
+  // -----------------------------------------------------------------------------------------------
+  // Node profiling
+
+  /**
+   * Profiler to record each node with while it runs: none, jfr, async (async-profiler) or auto
+   * (async-profiler if installed, else jfr).
+   */
+  @Parameter(property = "cassandra.profiler", alias = "profiler", defaultValue = "none")
+  private String mProfiler;
+
+  /**
+   * JFR settings (a profile name such as "default" or "profile", or a .jfc file), or the
+   * async-profiler event (cpu, alloc, lock, wall...).  Defaults to "profile" and "cpu".
+   */
+  @Parameter(property = "cassandra.profilerSettings", alias = "profilerSettings")
+  private String mProfilerSettings;
+
+  /** Path to libasyncProfiler.so, if it is not in one of the usual places. */
+  @Parameter(property = "cassandra.asyncProfilerPath", alias = "asyncProfilerPath")
+  private String mAsyncProfilerPath;
+
+  /**
+   * The jfr tool to summarize JFR recordings with (or the home of the JDK holding it), if the JVM
+   * running maven has none; it comes with JDK 11 and later.
+   */
+  @Parameter(property = "cassandra.jfrTool", alias = "jfrTool")
+  private String mJfrTool;
+
+  /** Number of hot methods and allocation sites listed for each node. */
+  @Parameter(
+      property = "cassandra.profileSummaryTopN",
+      alias = "profileSummaryTopN",
+      defaultValue = "10")
+  private int mProfileSummaryTopN;
+
+  // -----------------------------------------------------------------------------------------------
+  // Garbage collection
+
+  /** Garbage collector for the nodes: default (the JVM's choice), g1 or cms. */
+  @Parameter(property = "cassandra.gc.collector", alias = "gcCollector", defaultValue = "default")
+  private String mGcCollector;
+
+  /** If true, each node logs its collections to node-N/gc.log, summarized at stop. */
+  @Parameter(property = "cassandra.gc.logging", alias = "gcLogging", defaultValue = "true")
+  private boolean mGcLogging;
+
+  /** Fail the stop goal if any node paused for longer than this many milliseconds (0: never). */
+  @Parameter(
+      property = "cassandra.gc.maxPauseMillis",
+      alias = "gcMaxPauseMillis",
+      defaultValue = "0")
+  private double mGcMaxPauseMillis;
+
+  // -----------------------------------------------------------------------------------------------
+  // Schema, fixtures and the snapshot cache
+
+  /**
+   * CQL scripts creating the schema, run in order once the cluster is up.  Scripts may refer to
+   * the module's keyspace prefix as ${cassandra.keyspacePrefix}.
+   */
+  @Parameter(alias = "schemaFiles")
+  private List<File> mSchemaFiles = Collections.emptyList();
+
+  /** CQL scripts loading fixture data, run in order after the schema scripts. */
+  @Parameter(alias = "fixtureFiles")
+  private List<File> mFixtureFiles = Collections.emptyList();
+
+  /**
+   * If true (and there are schema or fixture scripts), cache the nodes' data once loaded and
+   * restore it instead of running the scripts on later builds with the same inputs.
+   */
+  @Parameter(
+      property = "cassandra.snapshotCache.enabled",
+      alias = "snapshotCacheEnabled",
+      defaultValue = "true")
+  private boolean mSnapshotCacheEnabled;
+
+  /** Directory of the snapshot cache. */
+  @Parameter(
+      property = "cassandra.snapshotCache.dir",
+      alias = "snapshotCacheDir",
+      defaultValue = "${user.home}/.cassandra-maven-plugin/snapshots")
+  private File mSnapshotCacheDir;
+
+  /** Maximum size of the snapshot cache, in megabytes; least recently used entries go first. */
+  @Parameter(
+      property = "cassandra.snapshotCache.maxSizeMb",
+      alias = "snapshotCacheMaxSizeMb",
+      defaultValue = "2048")
+  private long mSnapshotCacheMaxSizeMb;
+
+  // -----------------------------------------------------------------------------------------------
+  // CPU isolation
+
+  /**
+   * How to confine each node to its own CPUs: none, taskset, cgroup (a systemd scope) or auto
+   * (cgroup if possible, else taskset).
+   */
+  @Parameter(property = "cassandra.cpuIsolation", alias = "cpuIsolation", defaultValue = "none")
+  private String mCpuIsolation;
+
+  /**
+   * Number of CPUs kept for the maven JVM and the test JVMs it forks; the nodes split the rest.
+   * 0 gives the client an equal share.
+   */
+  @Parameter(property = "cassandra.clientCpus", alias = "clientCpus", defaultValue = "0")
+  private int mClientCpus;
+
+  int getPortNativeTransport() {
+    return mPortNativeTransport;
+  }
+
+  int getNumVnodes() {
+    return mNumVirtualNodes;
+  }
+
+  // -----------------------------------------------------------------------------------------------
+  // Cassandra version
+
+  /**
+   * Version of Cassandra to run on the nodes.  If not set, the nodes run the Cassandra version the
+   * plugin depends on.
+   */
+  @Parameter(property = "cassandra.version", alias = "cassandraVersion")
+  private String mCassandraVersion;
+
+  /** Maven's repository system, for resolving other Cassandra versions. */
+  @Component
+  private RepositorySystem mRepositorySystem;
+
+  /** The current repository session. */
+  @Parameter(defaultValue = "${repositorySystemSession}", readonly = true)
+  private RepositorySystemSession mRepositorySession;
+
+  /** Remote repositories of the current project. */
+  @Parameter(defaultValue = "${project.remoteProjectRepositories}", readonly = true)
+  private List<RemoteRepository> mRemoteRepositories;
+
+  /** The current project. */
+  @Parameter(defaultValue = "${project}", readonly = true)
+  private MavenProject mProject;
+
+  /** The current build, for counting the modules that share a cluster. */
+  @Parameter(defaultValue = "${session}", readonly = true)
+  private MavenSession mSession;
+
+  /** This plugin. */
+  @Parameter(defaultValue = "${plugin}", readonly = true)
+  private PluginDescriptor mPluginDescriptor;
+
+  /**
+   * Starts the cluster (or, when it is shared across the reactor and already running, attaches
+   * to it and runs the module's own scripts on it) and publishes the module's keyspace prefix.
+   *
+   * @param wait Whether to block until the cluster is ready.
+   * @throws MojoExecutionException if the parameters are not valid or the cluster fails to start.
+   */
+  protected void startCluster(boolean wait) throws MojoExecutionException {
+    final CassandraConfiguration config = createCassandraConfiguration();
+    final String keyspacePrefix = null != mKeyspacePrefix ? mKeyspacePrefix : getKeyspacePrefix();
+    mProject.getProperties().setProperty(KEYSPACE_PREFIX_PROPERTY, keyspacePrefix);
+    getLog().info("Keyspace prefix for this module: " + keyspacePrefix);
+    config.setKeyspacePrefix(keyspacePrefix);
+
+    boolean attached = false;
+    try {
+      if (mShareAcrossReactor) {
+        attached = !MiniCassandraClusterSingleton.INSTANCE.startShared(
+            getLog(), config, mProject.getId(), getSharingModules());
+      } else {
+        MiniCassandraClusterSingleton.INSTANCE.start(getLog(), config);
+      }
+    } catch (IllegalStateException ise) {
+      throw new MojoExecutionException("Unable to start Cassandra cluster.", ise);
+    }
+    // The shared cluster only ran the scripts of the module that started it.
+    final boolean loadOwnScripts =
+        attached && !(config.getSchemaFiles().isEmpty() && config.getFixtureFiles().isEmpty());
+    if (wait || loadOwnScripts) {
+      try {
+        MiniCassandraClusterSingleton.INSTANCE.awaitReady(getLog());
+      } catch (IOException ioe) {
+        throw new MojoExecutionException("Unable to start Cassandra cluster.", ioe);
+      }
+      publishDescriptor(mProject, mSession);
+    }
+    if (loadOwnScripts) {
+      try {
+        MiniCassandraClusterSingleton.INSTANCE.getRunningCluster()
+            .loadModuleFixtures(mProject.getId(), config);
+      } catch (IOException ioe) {
+        throw new MojoExecutionException("Unable to read this module's scripts.", ioe);
+      } catch (DriverException de) {
+        throw new MojoExecutionException(
+            "Unable to run this module's scripts on the shared Cassandra cluster.", de);
+      }
+    }
+  }
+
+  /**
+   * Publishes the connection details of the running cluster as project properties (for plugin
+   * configuration, e.g. failsafe's systemPropertyVariables) and as user properties (which
+   * surefire and failsafe pass on to the test JVMs as system properties).
+   *
+   * @param project The current project.
+   * @param session The current build.
+   */
+  static void publishDescriptor(MavenProject project, MavenSession session) {
+    final ClusterDescriptor descriptor =
+        MiniCassandraClusterSingleton.INSTANCE.getRunningCluster().getDescriptor();
+    if (null != descriptor) {
+      descriptor.publish(project.getProperties());
+      descriptor.publish(session.getUserProperties());
+    }
+  }
+
+  /**
+   * Generates a keyspace prefix from the module's coordinates: its artifact id made into a valid
+   * identifier, plus a hash of its group and artifact ids (e.g. "my_module_3f2a9c1b_").
+   *
+   * @return the keyspace prefix.
+   */
+  private String getKeyspacePrefix() {
+    final String coordinates = mProject.getGroupId() + ":" + mProject.getArtifactId();
+    final String hash =
+        Hashing.sha1().hashString(coordinates, Charsets.UTF_8).toString().substring(0, 8);
+    String name = mProject.getArtifactId().toLowerCase().replaceAll("[^a-z0-9_]", "_");
+    if (!Character.isLetter(name.charAt(0))) {
+      name = "m" + name;
+    }
+    final int maxNameLength = MAX_KEYSPACE_PREFIX_LENGTH - hash.length() - 2;
+    if (name.length() > maxNameLength) {
+      name = name.substring(0, maxNameLength);
+    }
+    return name + "_" + hash + "_";
+  }
+
+  /**
+   * @return the current project.
+   */
+  protected MavenProject getProject() {
+    return mProject;
+  }
+
+  /**
+   * @return the ids of the modules of the build that start a cluster with this plugin and set
+   *     shareAcrossReactor, this one included.
+   */
+  private Set<String> getSharingModules() {
+    Set<String> modules = Sets.newTreeSet();
+    modules.add(mProject.getId());
+    final boolean sharedByBuild =
+        Boolean.parseBoolean(mSession.getUserProperties().getProperty(SHARE_PROPERTY));
+    for (MavenProject project : mSession.getProjects()) {
+      for (Plugin plugin : project.getBuildPlugins()) {
+        if (!plugin.getGroupId().equals(mPluginDescriptor.getGroupId())
+            || !plugin.getArtifactId().equals(mPluginDescriptor.getArtifactId())) {
+          continue;
+        }
+        final boolean sharedByModule = sharedByBuild
+            || Boolean.parseBoolean(project.getProperties().getProperty(SHARE_PROPERTY))
+            || isShared(plugin.getConfiguration());
+        for (PluginExecution execution : plugin.getExecutions()) {
+          final List<String> goals = execution.getGoals();
+          if ((goals.contains("start") || goals.contains("start-async"))
+              && (sharedByModule || isShared(execution.getConfiguration()))) {
+            modules.add(project.getId());
+          }
+        }
+      }
+    }
+    return modules;
+  }
+
+  /**
+   * @param configuration Configuration of the plugin or of one of its executions (may be null).
+   * @return whether the configuration sets shareAcrossReactor.
+   */
+  private static boolean isShared(Object configuration) {
+    if (!(configuration instanceof Xpp3Dom)) {
+      return false;
+    }
+    final Xpp3Dom share = ((Xpp3Dom) configuration).getChild("shareAcrossReactor");
+    return null != share && null != share.getValue()
+        && Boolean.parseBoolean(share.getValue().trim());
+  }
+
+  /**
+   * Builds the cluster configuration from the goal's parameters.
+   *
+   * @return the configuration.
+   * @throws MojoExecutionException if the parameters are not valid.
+   */
+  protected CassandraConfiguration createCassandraConfiguration() throws MojoExecutionException {
+    CassandraConfiguration config = new CassandraConfiguration();
+    config.setCassandraDir(mCassandraDir);
+    config.setNumNodes(mNumNodes);
+    config.setNumVirtualNodes(mNumVirtualNodes);
+    try {
+      config.setTokenAllocation(TokenAllocation.fromName(mTokenAllocation));
+    } catch (IllegalArgumentException iae) {
+      throw new MojoExecutionException(iae.getMessage(), iae);
+    }
+    config.setPortNativeTransport(mPortNativeTransport);
+    config.setPluginDependencies(pluginDependencies);
+    config.setPortRpc(mPortRpc);
+    config.setPortSslStorage(mPortSslStorage);
+    config.setPortStorage(mPortStorage);
+    config.setInitialIpAddress(mInitialIpAddress);
+    config.setPortJmx(mPortJmx);
+    config.setControlEnabled(mControlEnabled);
+    config.setPortControl(mPortControl);
+    config.setStreamThroughputMbps(mStreamThroughputMbps);
+    config.setDataDirectories(mDataDirectories);
+    config.setCommitLogDirectories(mCommitLogDirectories);
+    config.setSavedCachesDirectories(mSavedCachesDirectories);
+    if ("roundRobin".equalsIgnoreCase(mDataDirectoryAssignment)) {
+      config.setDataDirectoriesRoundRobin(true);
+    } else if (!"perNode".equalsIgnoreCase(mDataDirectoryAssignment)) {
+      throw new MojoExecutionException("Unknown data directory assignment '"
+          + mDataDirectoryAssignment + "' (expected perNode or roundRobin).");
+    }
+    if (null != mCommitLogSync
+        && !"periodic".equals(mCommitLogSync) && !"batch".equals(mCommitLogSync)) {
+      throw new MojoExecutionException("Unknown commit log sync '" + mCommitLogSync
+          + "' (expected periodic or batch).");
+    }
+    if ("batch".equals(mCommitLogSync) && mCommitLogSyncPeriodMillis > 0) {
+      throw new MojoExecutionException(
+          "commitLogSyncPeriodMillis only applies to periodic sync, not to commitLogSync=batch.");
+    }
+    config.setCommitLogSync(mCommitLogSync);
+    config.setCommitLogSyncPeriodMillis(mCommitLogSyncPeriodMillis);
+    config.setCommitLogSyncBatchWindowMillis(mCommitLogSyncBatchWindowMillis);
+    config.setCommitLogSegmentSizeMb(mCommitLogSegmentSizeMb);
+    config.setLogTailLines(mLogTailLines);
+    config.setLogForwardLinesPerSecond(mLogForwardLinesPerSecond);
+    try {
+      config.setLoggingProfile(NodeLoggingProfile.fromName(mLoggingProfile));
+    } catch (IllegalArgumentException iae) {
+      throw new MojoExecutionException(iae.getMessage(), iae);
+    }
+    config.setLogToConsole(mLogToConsole);
+    config.setLogBufferSize(mLogBufferSize);
+    config.setLogLevels(mLogLevels);
+    config.setResourceSampleIntervalMillis(mResourceSampleIntervalMillis);
+    for (String phase : mStartupPhaseTimeouts.keySet()) {
+      if (!StartupWatchdog.PHASES.contains(phase)) {
+        throw new MojoExecutionException("Unknown startup phase '" + phase + "' in "
+            + "startupPhaseTimeouts (expected one of " + StartupWatchdog.PHASES + ").");
+      }
+    }
+    config.setStartupPhaseTimeoutSeconds(mStartupPhaseTimeoutSeconds);
+    config.setStartupPhaseTimeouts(mStartupPhaseTimeouts);
+    config.setStartupHeapHistogram(mStartupHeapHistogram);
+    if (mTraceProbability < 0 || mTraceProbability > 1) {
+      throw new MojoExecutionException(
+          "traceProbability must be between 0 and 1, not " + mTraceProbability + ".");
+    }
+    config.setTraceProbability(mTraceProbability);
+    config.setSlowQueryReportSize(mSlowQueryReportSize);
+    try {
+      config.setProfilerMode(NodeProfiler.Mode.fromName(mProfiler));
+    } catch (IllegalArgumentException iae) {
+      throw new MojoExecutionException(iae.getMessage(), iae);
+    }
+    config.setProfilerSettings(mProfilerSettings);
+    config.setAsyncProfilerPath(mAsyncProfilerPath);
+    config.setJfrToolPath(mJfrTool);
+    config.setProfileSummaryTopN(mProfileSummaryTopN);
+    try {
+      config.setGcCollector(NodeGcLog.Collector.fromName(mGcCollector));
+    } catch (IllegalArgumentException iae) {
+      throw new MojoExecutionException(iae.getMessage(), iae);
+    }
+    config.setGcLogging(mGcLogging);
+    config.setGcMaxPauseMillis(mGcMaxPauseMillis);
+    try {
+      config.setCpuIsolation(CpuIsolation.Mode.fromName(mCpuIsolation));
+    } catch (IllegalArgumentException iae) {
+      throw new MojoExecutionException(iae.getMessage(), iae);
+    }
+    config.setClientCpus(mClientCpus);
+    config.setSchemaFiles(mSchemaFiles);
+    config.setFixtureFiles(mFixtureFiles);
+    config.setSnapshotCacheEnabled(mSnapshotCacheEnabled);
+    config.setSnapshotCacheDir(mSnapshotCacheDir);
+    config.setSnapshotCacheMaxSizeMb(mSnapshotCacheMaxSizeMb);
+    if (null != mCassandraVersion) {
+      setCassandraVersion(config, mCassandraVersion);
+    }
+    return config;
+  }
+
+  /**
+   * Makes the nodes of a cluster run a particular version of Cassandra.
+   *
+   * @param config Configuration of the cluster.
+   * @param version The Cassandra version.
+   * @throws MojoExecutionException if the version cannot be resolved.
+   */
+  protected void setCassandraVersion(CassandraConfiguration config, String version)
+      throws MojoExecutionException {
+    CassandraVersionResolver resolver = new CassandraVersionResolver(
+        getLog(), mRepositorySystem, mRepositorySession, mRemoteRepositories);
+    try {
+      config.setCassandraClasspath(resolver.resolveClasspath(version));
+    } catch (DependencyResolutionException dre) {
+      throw new MojoExecutionException("Unable to resolve Cassandra " + version + ".", dre);
+    }
+    config.setCassandraVersion(version);
+  }
+}
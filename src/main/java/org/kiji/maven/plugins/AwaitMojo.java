@@ -0,0 +1,74 @@
+package org.kiji.maven.plugins;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+
+/**
+ * Maven goal to wait for a Cassandra cluster started by the start-async goal to be ready.  Fails
+ * if the cluster could not start.
+ */
+@Mojo(
+    name = "await",
+    defaultPhase = LifecyclePhase.PRE_INTEGRATION_TEST
+)
+public class AwaitMojo extends AbstractMojo {
+  /** If true, this goal should be a no-op. */
+  @Parameter(property = "cassandra.skip", defaultValue = "false")
+  private boolean mSkip;
+
+  /** The current project. */
+  @Parameter(defaultValue = "${project}", readonly = true)
+  private MavenProject mProject;
+
+  /** The current build. */
+  @Parameter(defaultValue = "${session}", readonly = true)
+  private MavenSession mSession;
+
+  @Override
+  public void execute() throws MojoExecutionException {
+    if (mSkip) {
+      getLog().info("Not waiting for a Cassandra cluster because skip=true.");
+      return;
+    }
+    final long waitedMillis;
+    try {
+      waitedMillis = MiniCassandraClusterSingleton.INSTANCE.awaitReady(getLog());
+    } catch (IllegalStateException ise) {
+      throw new MojoExecutionException("Cannot wait for the Cassandra cluster.", ise);
+    } catch (IOException ioe) {
+      throw new MojoExecutionException("Unable to start Cassandra cluster.", ioe);
+    }
+
+    AbstractCassandraClusterMojo.publishDescriptor(mProject, mSession);
+    final MiniCassandraCluster cluster = MiniCassandraClusterSingleton.INSTANCE.getRunningCluster();
+    final long startupMillis = cluster.getStartupMillis();
+    getLog().info(String.format("Waited %.1f s for the Cassandra cluster; %.1f s of its startup "
+        + "overlapped with the build.",
+        waitedMillis / 1000.0, Math.max(0, startupMillis - waitedMillis) / 1000.0));
+    cluster.getReport().add("Startup", String.format(
+        "started in the background; the build waited %.1f s for it", waitedMillis / 1000.0));
+  }
+}
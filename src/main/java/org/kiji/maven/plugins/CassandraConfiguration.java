@@ -1,7 +1,9 @@
 package org.kiji.maven.plugins;
 
 import java.io.File;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.maven.artifact.Artifact;
 
@@ -18,6 +20,49 @@ public class CassandraConfiguration {
   private int portRpc;
   private String initialIpAddress;
   private List<Artifact> pluginDependencies;
+  private int portJmx;
+  private boolean controlEnabled;
+  private int portControl;
+  private int streamThroughputMbps;
+  private int logTailLines;
+  private int logForwardLinesPerSecond;
+  private NodeLoggingProfile loggingProfile;
+  private boolean logToConsole;
+  private int logBufferSize;
+  private Map<String, String> logLevels;
+  private String cassandraVersion;
+  private List<File> cassandraClasspath;
+  private NodeProfiler.Mode profilerMode;
+  private String profilerSettings;
+  private String asyncProfilerPath;
+  private String jfrToolPath;
+  private int profileSummaryTopN;
+  private NodeGcLog.Collector gcCollector;
+  private boolean gcLogging;
+  private double gcMaxPauseMillis;
+  private TokenAllocation tokenAllocation;
+  private List<File> schemaFiles = Collections.emptyList();
+  private List<File> fixtureFiles = Collections.emptyList();
+  private String keyspacePrefix;
+  private boolean snapshotCacheEnabled;
+  private File snapshotCacheDir;
+  private long snapshotCacheMaxSizeMb;
+  private CpuIsolation.Mode cpuIsolation;
+  private int clientCpus;
+  private long resourceSampleIntervalMillis;
+  private List<File> dataDirectories = Collections.emptyList();
+  private List<File> commitLogDirectories = Collections.emptyList();
+  private List<File> savedCachesDirectories = Collections.emptyList();
+  private boolean dataDirectoriesRoundRobin;
+  private long startupPhaseTimeoutSeconds;
+  private Map<String, String> startupPhaseTimeouts = Collections.emptyMap();
+  private boolean startupHeapHistogram;
+  private double traceProbability;
+  private int slowQueryReportSize;
+  private String commitLogSync;
+  private int commitLogSyncPeriodMillis;
+  private int commitLogSyncBatchWindowMillis;
+  private int commitLogSegmentSizeMb;
 
   public int getPortStorage() {
     return portStorage;
@@ -90,5 +135,348 @@ public class CassandraConfiguration {
   public void setNumVirtualNodes(int numVirtualNodes) {
     this.numVirtualNodes = numVirtualNodes;
   }
-}
 
+  public int getPortJmx() {
+    return portJmx;
+  }
+
+  public void setPortJmx(int portJmx) {
+    this.portJmx = portJmx;
+  }
+
+  public boolean isControlEnabled() {
+    return controlEnabled;
+  }
+
+  public void setControlEnabled(boolean controlEnabled) {
+    this.controlEnabled = controlEnabled;
+  }
+
+  public int getPortControl() {
+    return portControl;
+  }
+
+  public void setPortControl(int portControl) {
+    this.portControl = portControl;
+  }
+
+  public int getStreamThroughputMbps() {
+    return streamThroughputMbps;
+  }
+
+  public void setStreamThroughputMbps(int streamThroughputMbps) {
+    this.streamThroughputMbps = streamThroughputMbps;
+  }
+
+  public int getLogTailLines() {
+    return logTailLines;
+  }
+
+  public void setLogTailLines(int logTailLines) {
+    this.logTailLines = logTailLines;
+  }
+
+  public int getLogForwardLinesPerSecond() {
+    return logForwardLinesPerSecond;
+  }
+
+  public void setLogForwardLinesPerSecond(int logForwardLinesPerSecond) {
+    this.logForwardLinesPerSecond = logForwardLinesPerSecond;
+  }
+
+  public NodeLoggingProfile getLoggingProfile() {
+    return loggingProfile;
+  }
+
+  public void setLoggingProfile(NodeLoggingProfile loggingProfile) {
+    this.loggingProfile = loggingProfile;
+  }
+
+  public boolean isLogToConsole() {
+    return logToConsole;
+  }
+
+  public void setLogToConsole(boolean logToConsole) {
+    this.logToConsole = logToConsole;
+  }
+
+  public int getLogBufferSize() {
+    return logBufferSize;
+  }
+
+  public void setLogBufferSize(int logBufferSize) {
+    this.logBufferSize = logBufferSize;
+  }
+
+  public Map<String, String> getLogLevels() {
+    return logLevels;
+  }
+
+  public void setLogLevels(Map<String, String> logLevels) {
+    this.logLevels = logLevels;
+  }
+
+  public String getCassandraVersion() {
+    return cassandraVersion;
+  }
+
+  public void setCassandraVersion(String cassandraVersion) {
+    this.cassandraVersion = cassandraVersion;
+  }
+
+  public List<File> getCassandraClasspath() {
+    return cassandraClasspath;
+  }
+
+  public void setCassandraClasspath(List<File> cassandraClasspath) {
+    this.cassandraClasspath = cassandraClasspath;
+  }
+
+  public NodeProfiler.Mode getProfilerMode() {
+    return profilerMode;
+  }
+
+  public void setProfilerMode(NodeProfiler.Mode profilerMode) {
+    this.profilerMode = profilerMode;
+  }
+
+  public String getProfilerSettings() {
+    return profilerSettings;
+  }
+
+  public void setProfilerSettings(String profilerSettings) {
+    this.profilerSettings = profilerSettings;
+  }
+
+  public String getAsyncProfilerPath() {
+    return asyncProfilerPath;
+  }
+
+  public void setAsyncProfilerPath(String asyncProfilerPath) {
+    this.asyncProfilerPath = asyncProfilerPath;
+  }
+
+  public String getJfrToolPath() {
+    return jfrToolPath;
+  }
+
+  public void setJfrToolPath(String jfrToolPath) {
+    this.jfrToolPath = jfrToolPath;
+  }
+
+  public int getProfileSummaryTopN() {
+    return profileSummaryTopN;
+  }
+
+  public void setProfileSummaryTopN(int profileSummaryTopN) {
+    this.profileSummaryTopN = profileSummaryTopN;
+  }
+
+  public NodeGcLog.Collector getGcCollector() {
+    return gcCollector;
+  }
+
+  public void setGcCollector(NodeGcLog.Collector gcCollector) {
+    this.gcCollector = gcCollector;
+  }
+
+  public boolean isGcLogging() {
+    return gcLogging;
+  }
+
+  public void setGcLogging(boolean gcLogging) {
+    this.gcLogging = gcLogging;
+  }
+
+  public double getGcMaxPauseMillis() {
+    return gcMaxPauseMillis;
+  }
+
+  public void setGcMaxPauseMillis(double gcMaxPauseMillis) {
+    this.gcMaxPauseMillis = gcMaxPauseMillis;
+  }
+
+  public TokenAllocation getTokenAllocation() {
+    return tokenAllocation;
+  }
+
+  public void setTokenAllocation(TokenAllocation tokenAllocation) {
+    this.tokenAllocation = tokenAllocation;
+  }
+
+  public List<File> getSchemaFiles() {
+    return schemaFiles;
+  }
+
+  public void setSchemaFiles(List<File> schemaFiles) {
+    this.schemaFiles = schemaFiles;
+  }
+
+  public List<File> getFixtureFiles() {
+    return fixtureFiles;
+  }
+
+  public void setFixtureFiles(List<File> fixtureFiles) {
+    this.fixtureFiles = fixtureFiles;
+  }
+
+  public String getKeyspacePrefix() {
+    return keyspacePrefix;
+  }
+
+  public void setKeyspacePrefix(String keyspacePrefix) {
+    this.keyspacePrefix = keyspacePrefix;
+  }
+
+  public boolean isSnapshotCacheEnabled() {
+    return snapshotCacheEnabled;
+  }
+
+  public void setSnapshotCacheEnabled(boolean snapshotCacheEnabled) {
+    this.snapshotCacheEnabled = snapshotCacheEnabled;
+  }
+
+  public File getSnapshotCacheDir() {
+    return snapshotCacheDir;
+  }
+
+  public void setSnapshotCacheDir(File snapshotCacheDir) {
+    this.snapshotCacheDir = snapshotCacheDir;
+  }
+
+  public long getSnapshotCacheMaxSizeMb() {
+    return snapshotCacheMaxSizeMb;
+  }
+
+  public void setSnapshotCacheMaxSizeMb(long snapshotCacheMaxSizeMb) {
+    this.snapshotCacheMaxSizeMb = snapshotCacheMaxSizeMb;
+  }
+
+  public CpuIsolation.Mode getCpuIsolation() {
+    return cpuIsolation;
+  }
+
+  public void setCpuIsolation(CpuIsolation.Mode cpuIsolation) {
+    this.cpuIsolation = cpuIsolation;
+  }
+
+  public int getClientCpus() {
+    return clientCpus;
+  }
+
+  public void setClientCpus(int clientCpus) {
+    this.clientCpus = clientCpus;
+  }
+
+  public long getResourceSampleIntervalMillis() {
+    return resourceSampleIntervalMillis;
+  }
+
+  public void setResourceSampleIntervalMillis(long resourceSampleIntervalMillis) {
+    this.resourceSampleIntervalMillis = resourceSampleIntervalMillis;
+  }
+
+  public List<File> getDataDirectories() {
+    return dataDirectories;
+  }
+
+  public void setDataDirectories(List<File> dataDirectories) {
+    this.dataDirectories = dataDirectories;
+  }
+
+  public List<File> getCommitLogDirectories() {
+    return commitLogDirectories;
+  }
+
+  public void setCommitLogDirectories(List<File> commitLogDirectories) {
+    this.commitLogDirectories = commitLogDirectories;
+  }
+
+  public List<File> getSavedCachesDirectories() {
+    return savedCachesDirectories;
+  }
+
+  public void setSavedCachesDirectories(List<File> savedCachesDirectories) {
+    this.savedCachesDirectories = savedCachesDirectories;
+  }
+
+  public boolean isDataDirectoriesRoundRobin() {
+    return dataDirectoriesRoundRobin;
+  }
+
+  public void setDataDirectoriesRoundRobin(boolean dataDirectoriesRoundRobin) {
+    this.dataDirectoriesRoundRobin = dataDirectoriesRoundRobin;
+  }
+
+  public long getStartupPhaseTimeoutSeconds() {
+    return startupPhaseTimeoutSeconds;
+  }
+
+  public void setStartupPhaseTimeoutSeconds(long startupPhaseTimeoutSeconds) {
+    this.startupPhaseTimeoutSeconds = startupPhaseTimeoutSeconds;
+  }
+
+  public Map<String, String> getStartupPhaseTimeouts() {
+    return startupPhaseTimeouts;
+  }
+
+  public void setStartupPhaseTimeouts(Map<String, String> startupPhaseTimeouts) {
+    this.startupPhaseTimeouts = startupPhaseTimeouts;
+  }
+
+  public boolean isStartupHeapHistogram() {
+    return startupHeapHistogram;
+  }
+
+  public void setStartupHeapHistogram(boolean startupHeapHistogram) {
+    this.startupHeapHistogram = startupHeapHistogram;
+  }
+
+  public double getTraceProbability() {
+    return traceProbability;
+  }
+
+  public void setTraceProbability(double traceProbability) {
+    this.traceProbability = traceProbability;
+  }
+
+  public int getSlowQueryReportSize() {
+    return slowQueryReportSize;
+  }
+
+  public void setSlowQueryReportSize(int slowQueryReportSize) {
+    this.slowQueryReportSize = slowQueryReportSize;
+  }
+
+  public String getCommitLogSync() {
+    return commitLogSync;
+  }
+
+  public void setCommitLogSync(String commitLogSync) {
+    this.commitLogSync = commitLogSync;
+  }
+
+  public int getCommitLogSyncPeriodMillis() {
+    return commitLogSyncPeriodMillis;
+  }
+
+  public void setCommitLogSyncPeriodMillis(int commitLogSyncPeriodMillis) {
+    this.commitLogSyncPeriodMillis = commitLogSyncPeriodMillis;
+  }
+
+  public int getCommitLogSyncBatchWindowMillis() {
+    return commitLogSyncBatchWindowMillis;
+  }
+
+  public void setCommitLogSyncBatchWindowMillis(int commitLogSyncBatchWindowMillis) {
+    this.commitLogSyncBatchWindowMillis = commitLogSyncBatchWindowMillis;
+  }
+
+  public int getCommitLogSegmentSizeMb() {
+    return commitLogSegmentSizeMb;
+  }
+
+  public void setCommitLogSegmentSizeMb(int commitLogSegmentSizeMb) {
+    this.commitLogSegmentSizeMb = commitLogSegmentSizeMb;
+  }
+}
@@ -0,0 +1,148 @@
+package org.kiji.maven.plugins;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import javax.management.JMException;
+import javax.management.JMX;
+import javax.management.MBeanServerConnection;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+
+import org.apache.cassandra.db.compaction.CompactionManagerMBean;
+import org.apache.cassandra.locator.EndpointSnitchInfoMBean;
+import org.apache.cassandra.service.StorageServiceMBean;
+
+/**
+ * A JMX connection to a single Cassandra node.
+ *
+ * Hands out proxies for the Cassandra MBeans that the plugin needs to drive a node (checking its
+ * operation mode, decommissioning it, flushing it, etc.).  Close the client when done with it.
+ */
+public class CassandraJmxClient implements Closeable {
+  /** Name of the StorageService MBean. */
+  private static final String STORAGE_SERVICE_MBEAN = "org.apache.cassandra.db:type=StorageService";
+
+  /** Name of the CompactionManager MBean. */
+  private static final String COMPACTION_MANAGER_MBEAN =
+      "org.apache.cassandra.db:type=CompactionManager";
+
+  /** Name of the EndpointSnitchInfo MBean. */
+  private static final String ENDPOINT_SNITCH_INFO_MBEAN =
+      "org.apache.cassandra.db:type=EndpointSnitchInfo";
+
+  /** Domain of the metrics MBeans. */
+  private static final String METRICS_DOMAIN = "org.apache.cassandra.metrics:";
+
+  /** The underlying JMX connector. */
+  private final JMXConnector mConnector;
+
+  /** Connection to the node's MBean server. */
+  private final MBeanServerConnection mConnection;
+
+  /**
+   * Opens a JMX connection to a Cassandra node.
+   *
+   * @param host Address of the node.
+   * @param port JMX port of the node.
+   * @throws IOException if the node cannot be reached.
+   */
+  public CassandraJmxClient(String host, int port) throws IOException {
+    JMXServiceURL url = new JMXServiceURL(
+        String.format("service:jmx:rmi:///jndi/rmi://%s:%d/jmxrmi", host, port));
+    mConnector = JMXConnectorFactory.connect(url, null);
+    mConnection = mConnector.getMBeanServerConnection();
+  }
+
+  /**
+   * @return the underlying connection, for reading MBeans that have no proxy method here.
+   */
+  public MBeanServerConnection getConnection() {
+    return mConnection;
+  }
+
+  /**
+   * @return a proxy for the node's StorageService MBean.
+   */
+  public StorageServiceMBean getStorageService() {
+    return newProxy(STORAGE_SERVICE_MBEAN, StorageServiceMBean.class);
+  }
+
+  /**
+   * @return a proxy for the node's CompactionManager MBean.
+   */
+  public CompactionManagerMBean getCompactionManager() {
+    return newProxy(COMPACTION_MANAGER_MBEAN, CompactionManagerMBean.class);
+  }
+
+  /**
+   * @return a proxy for the node's EndpointSnitchInfo MBean (data centers and racks of nodes).
+   */
+  public EndpointSnitchInfoMBean getEndpointSnitchInfo() {
+    return newProxy(ENDPOINT_SNITCH_INFO_MBEAN, EndpointSnitchInfoMBean.class);
+  }
+
+  /**
+   * Reads a gauge of the node's metrics (e.g., "type=Compaction,name=PendingTasks").  Prefer the
+   * metrics to the equivalent getters of the older MBeans, which are deprecated.
+   *
+   * @param properties Key properties of the metric's MBean.
+   * @return the current value of the gauge.
+   * @throws IOException if the metric cannot be read.
+   */
+  public Number getGauge(String properties) throws IOException {
+    return (Number) getMetricAttribute(properties, "Value");
+  }
+
+  /**
+   * Reads a counter or meter of the node's metrics (e.g., "type=Cache,scope=KeyCache,name=Hits").
+   *
+   * @param properties Key properties of the metric's MBean.
+   * @return the current count.
+   * @throws IOException if the metric cannot be read.
+   */
+  public long getCount(String properties) throws IOException {
+    return ((Number) getMetricAttribute(properties, "Count")).longValue();
+  }
+
+  /**
+   * Reads an attribute of a metrics MBean.
+   *
+   * @param properties Key properties of the metric's MBean.
+   * @param attribute Name of the attribute.
+   * @return the value of the attribute.
+   * @throws IOException if the attribute cannot be read.
+   */
+  private Object getMetricAttribute(String properties, String attribute) throws IOException {
+    try {
+      return mConnection.getAttribute(new ObjectName(METRICS_DOMAIN + properties), attribute);
+    } catch (JMException jme) {
+      throw new IOException("Unable to read metric " + properties + ": " + jme.getMessage(), jme);
+    }
+  }
+
+  /**
+   * Creates a proxy for an MBean on this node.
+   *
+   * @param name Object name of the MBean.
+   * @param mbeanInterface Interface implemented by the MBean.
+   * @param <T> Type of the MBean interface.
+   * @return a proxy for the MBean.
+   */
+  private <T> T newProxy(String name, Class<T> mbeanInterface) {
+    try {
+      return JMX.newMBeanProxy(mConnection, new ObjectName(name), mbeanInterface);
+    } catch (MalformedObjectNameException mone) {
+      throw new RuntimeException("Bad MBean name " + name, mone);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void close() throws IOException {
+    mConnector.close();
+  }
+}
@@ -0,0 +1,77 @@
+package org.kiji.maven.plugins;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Collects the measurements taken while the mini Cassandra cluster runs (scale-out timings, etc.)
+ * and writes them out as a plain-text report when the cluster shuts down.
+ *
+ * Entries are grouped into named sections, kept in the order in which they were first used.
+ */
+public class CassandraRunReport extends MavenLogged {
+  /** Name of the report file, written into the Cassandra directory. */
+  public static final String REPORT_FILE_NAME = "cassandra-run-report.txt";
+
+  /** Report entries, by section. */
+  private final Map<String, List<String>> mSections;
+
+  /**
+   * Creates an empty report.
+   *
+   * @param log The maven log.
+   */
+  public CassandraRunReport(Log log) {
+    super(log);
+    mSections = Maps.newLinkedHashMap();
+  }
+
+  /**
+   * Adds an entry to a section of the report and echoes it to the maven log.
+   *
+   * @param section Name of the section.
+   * @param entry The entry (a single line).
+   */
+  public synchronized void add(String section, String entry) {
+    List<String> entries = mSections.get(section);
+    if (null == entries) {
+      entries = Lists.newArrayList();
+      mSections.put(section, entries);
+    }
+    entries.add(entry);
+    getLog().info(section + ": " + entry);
+  }
+
+  /**
+   * @return whether anything has been recorded.
+   */
+  public synchronized boolean isEmpty() {
+    return mSections.isEmpty();
+  }
+
+  /**
+   * Writes the report to a file.
+   *
+   * @param reportFile The file to write.
+   * @throws IOException if the file cannot be written.
+   */
+  public synchronized void write(File reportFile) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<String, List<String>> section : mSections.entrySet()) {
+      sb.append("== ").append(section.getKey()).append(" ==\n");
+      for (String entry : section.getValue()) {
+        sb.append(entry).append("\n");
+      }
+      sb.append("\n");
+    }
+    FileUtils.fileWrite(reportFile.getAbsolutePath(), sb.toString());
+    getLog().info("Wrote Cassandra run report to " + reportFile);
+  }
+}
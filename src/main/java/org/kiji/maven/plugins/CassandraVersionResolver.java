@@ -0,0 +1,78 @@
+package org.kiji.maven.plugins;
+
+import java.io.File;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import org.apache.maven.plugin.logging.Log;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.collection.CollectRequest;
+import org.eclipse.aether.graph.Dependency;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.ArtifactResult;
+import org.eclipse.aether.resolution.DependencyRequest;
+import org.eclipse.aether.resolution.DependencyResolutionException;
+
+/**
+ * Resolves a particular version of Cassandra (cassandra-all and its runtime dependencies) into a
+ * classpath for the node processes, independently of the Cassandra version the plugin itself was
+ * built against.
+ */
+public class CassandraVersionResolver extends MavenLogged {
+  /** Coordinates of the Cassandra server artifact, without the version. */
+  private static final String CASSANDRA_ARTIFACT = "org.apache.cassandra:cassandra-all:";
+
+  /** Maven's repository system. */
+  private final RepositorySystem mRepositorySystem;
+
+  /** The current repository session (local repository, offline mode, mirrors, etc.). */
+  private final RepositorySystemSession mRepositorySession;
+
+  /** Remote repositories to resolve from. */
+  private final List<RemoteRepository> mRemoteRepositories;
+
+  /**
+   * Creates a resolver.
+   *
+   * @param log The maven log.
+   * @param repositorySystem Maven's repository system.
+   * @param repositorySession The current repository session.
+   * @param remoteRepositories Remote repositories to resolve from.
+   */
+  public CassandraVersionResolver(
+      Log log,
+      RepositorySystem repositorySystem,
+      RepositorySystemSession repositorySession,
+      List<RemoteRepository> remoteRepositories) {
+    super(log);
+    mRepositorySystem = repositorySystem;
+    mRepositorySession = repositorySession;
+    mRemoteRepositories = remoteRepositories;
+  }
+
+  /**
+   * Resolves a version of Cassandra and all of its runtime dependencies.
+   *
+   * @param version The Cassandra version, e.g. "2.0.9".
+   * @return the files making up the classpath.
+   * @throws DependencyResolutionException if the version cannot be resolved.
+   */
+  public List<File> resolveClasspath(String version) throws DependencyResolutionException {
+    getLog().info("Resolving Cassandra " + version + "...");
+    CollectRequest collectRequest = new CollectRequest(
+        new Dependency(new DefaultArtifact(CASSANDRA_ARTIFACT + version), "runtime"),
+        mRemoteRepositories);
+    List<ArtifactResult> results = mRepositorySystem
+        .resolveDependencies(mRepositorySession, new DependencyRequest(collectRequest, null))
+        .getArtifactResults();
+
+    List<File> classpath = Lists.newArrayList();
+    for (ArtifactResult result : results) {
+      getLog().debug("Cassandra " + version + " classpath entry: " + result.getArtifact());
+      classpath.add(result.getArtifact().getFile());
+    }
+    return classpath;
+  }
+}
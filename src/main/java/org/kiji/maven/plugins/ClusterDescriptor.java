@@ -0,0 +1,130 @@
+package org.kiji.maven.plugins;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import org.apache.cassandra.locator.EndpointSnitchInfoMBean;
+import org.apache.cassandra.service.StorageServiceMBean;
+
+/**
+ * Everything a test client needs to connect to the cluster, and to route requests straight to the
+ * replicas: every node's address, data center, rack and tokens, the native transport port and a
+ * recommended driver load balancing policy.
+ *
+ * <p>Written as a properties file into the Cassandra directory, and published as maven properties
+ * so that the integration tests can get them as system properties.  Each token of a node ends a
+ * token range of the ring, which starts after the previous token of the ring.</p>
+ */
+public class ClusterDescriptor {
+  /** Name of the descriptor file, in the Cassandra directory. */
+  public static final String DESCRIPTOR_FILE_NAME = "cassandra-cluster.properties";
+
+  /** Property holding the path of the descriptor file. */
+  public static final String DESCRIPTOR_PROPERTY = "cassandra.descriptor";
+
+  /** The properties. */
+  private final Properties mProperties;
+
+  /**
+   * Reads the topology of a running cluster.
+   *
+   * @param cluster The cluster.
+   * @return the descriptor of the cluster.
+   * @throws IOException if the nodes cannot be reached over JMX.
+   */
+  public static ClusterDescriptor describe(MiniCassandraCluster cluster) throws IOException {
+    final List<MiniCassandraClusterNode> nodes = cluster.getNodes();
+    Properties properties = new Properties();
+    CassandraJmxClient jmx = nodes.get(0).openJmxClient();
+    try {
+      StorageServiceMBean storageService = jmx.getStorageService();
+      EndpointSnitchInfoMBean snitch = jmx.getEndpointSnitchInfo();
+
+      ListMultimap<String, String> tokensByAddress = ArrayListMultimap.create();
+      for (Map.Entry<String, String> token : storageService.getTokenToEndpointMap().entrySet()) {
+        tokensByAddress.put(token.getValue(), token.getKey());
+      }
+
+      List<String> nodeIds = Lists.newArrayList();
+      String localDatacenter = null;
+      for (MiniCassandraClusterNode node : nodes) {
+        final String prefix = "cassandra.node." + node.getNodeId() + ".";
+        final String datacenter = snitch.getDatacenter(node.getAddress());
+        if (null == localDatacenter) {
+          localDatacenter = datacenter;
+        }
+        nodeIds.add(Integer.toString(node.getNodeId()));
+        properties.setProperty(prefix + "address", node.getAddress());
+        properties.setProperty(prefix + "datacenter", datacenter);
+        properties.setProperty(prefix + "rack", snitch.getRack(node.getAddress()));
+        properties.setProperty(prefix + "tokens",
+            Joiner.on(",").join(tokensByAddress.get(node.getAddress())));
+      }
+
+      properties.setProperty("cassandra.clusterName", storageService.getClusterName());
+      properties.setProperty("cassandra.partitioner", storageService.getPartitionerName());
+      properties.setProperty("cassandra.nodes", Joiner.on(",").join(nodeIds));
+      properties.setProperty("cassandra.contactPoints",
+          Joiner.on(",").join(cluster.getNodeAddresses()));
+      properties.setProperty("cassandra.nativePort",
+          Integer.toString(cluster.getConfiguration().getPortNativeTransport()));
+      properties.setProperty("cassandra.localDatacenter", localDatacenter);
+      properties.setProperty("cassandra.loadBalancingPolicy",
+          "TokenAwarePolicy(DCAwareRoundRobinPolicy(\"" + localDatacenter + "\"))");
+    } finally {
+      jmx.close();
+    }
+    return new ClusterDescriptor(properties);
+  }
+
+  /**
+   * @param properties The properties of the descriptor.
+   */
+  private ClusterDescriptor(Properties properties) {
+    mProperties = properties;
+  }
+
+  /**
+   * @return the properties of the descriptor.
+   */
+  public Properties getProperties() {
+    return mProperties;
+  }
+
+  /**
+   * Writes the descriptor into the Cassandra directory, and records its path in it.
+   *
+   * @param cassandraDir The Cassandra directory.
+   * @return the descriptor file.
+   * @throws IOException if the file cannot be written.
+   */
+  public File write(File cassandraDir) throws IOException {
+    final File file = new File(cassandraDir, DESCRIPTOR_FILE_NAME);
+    mProperties.setProperty(DESCRIPTOR_PROPERTY, file.getAbsolutePath());
+    OutputStream out = new FileOutputStream(file);
+    try {
+      mProperties.store(out, "Cassandra cluster started by the cassandra-maven-plugin");
+    } finally {
+      out.close();
+    }
+    return file;
+  }
+
+  /**
+   * Copies the properties of the descriptor into other properties (e.g., the project's).
+   *
+   * @param target The properties to copy into.
+   */
+  public void publish(Properties target) {
+    target.putAll(mProperties);
+  }
+}
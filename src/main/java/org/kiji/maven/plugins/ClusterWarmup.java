@@ -0,0 +1,361 @@
+package org.kiji.maven.plugins;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.ColumnMetadata;
+import com.datastax.driver.core.KeyspaceMetadata;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.TableMetadata;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import org.apache.cassandra.service.StorageServiceMBean;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Brings a freshly loaded cluster to a steady state before measurements: flushes the memtables of
+ * some keyspaces, compacts them, waits until no compactions are pending on any node, then reads
+ * the tables' partitions to fill the key (and, for tables that cache rows, row) caches.
+ *
+ * <p>When each node got there, and how full its caches are afterwards, goes into the run
+ * report.</p>
+ */
+public class ClusterWarmup extends MavenLogged {
+  /** Section of the run report. */
+  private static final String REPORT_SECTION = "Warmup";
+
+  /** How often pending compactions are polled, in milliseconds. */
+  private static final long POLL_INTERVAL_MILLIS = 500;
+
+  /** Metric of the number of compactions a node has yet to run. */
+  private static final String PENDING_COMPACTIONS = "type=Compaction,name=PendingTasks";
+
+  /** The cluster to warm up. */
+  private final MiniCassandraCluster mCluster;
+
+  /** Keyspaces to flush, compact and read (empty for every non-system keyspace). */
+  private final List<String> mKeyspaces;
+
+  /** Whether to run a major compaction of the keyspaces after flushing them. */
+  private final boolean mCompact;
+
+  /** Maximum number of partitions to read from each table (0 to skip the read sweep). */
+  private final long mReadPartitions;
+
+  /** How many times to read each partition. */
+  private final int mReadPasses;
+
+  /** Maximum number of reads in flight at once. */
+  private final int mConcurrency;
+
+  /** How long to wait for the cluster to settle, in milliseconds. */
+  private final long mTimeoutMillis;
+
+  /**
+   * Creates a warmup.
+   *
+   * @param log The maven log.
+   * @param cluster The cluster to warm up.
+   * @param keyspaces Keyspaces to warm up (empty for every non-system keyspace).
+   * @param compact Whether to run a major compaction of the keyspaces after flushing them.
+   * @param readPartitions Maximum number of partitions to read from each table (0 for none).
+   * @param readPasses How many times to read each partition.
+   * @param concurrency Maximum number of reads in flight at once.
+   * @param timeoutMillis How long to wait for the cluster to settle, in milliseconds.
+   */
+  public ClusterWarmup(
+      Log log,
+      MiniCassandraCluster cluster,
+      List<String> keyspaces,
+      boolean compact,
+      long readPartitions,
+      int readPasses,
+      int concurrency,
+      long timeoutMillis) {
+    super(log);
+    mCluster = cluster;
+    mKeyspaces = keyspaces;
+    mCompact = compact;
+    mReadPartitions = readPartitions;
+    mReadPasses = readPasses;
+    mConcurrency = concurrency;
+    mTimeoutMillis = timeoutMillis;
+  }
+
+  /**
+   * Warms up the cluster.  Blocks until every node has settled and the read sweep is done.
+   *
+   * @throws Exception if a node cannot be reached, or does not settle in time.
+   */
+  public void run() throws Exception {
+    final long startTime = System.currentTimeMillis();
+    final List<MiniCassandraClusterNode> nodes = Lists.newArrayList(mCluster.getNodes());
+    final List<String> keyspaces = getKeyspaces(nodes.get(0));
+    if (keyspaces.isEmpty()) {
+      getLog().info("No keyspaces to warm up.");
+      return;
+    }
+    mCluster.getReport().add(REPORT_SECTION, "keyspaces " + Joiner.on(", ").join(keyspaces));
+
+    // Flush and compact all nodes at once; the JMX operations block until done.
+    ExecutorService executor = Executors.newFixedThreadPool(nodes.size());
+    try {
+      Map<MiniCassandraClusterNode, Future<Long>> settled = Maps.newLinkedHashMap();
+      for (final MiniCassandraClusterNode node : nodes) {
+        settled.put(node, executor.submit(new Callable<Long>() {
+          @Override
+          public Long call() throws Exception {
+            return settle(node, keyspaces, startTime);
+          }
+        }));
+      }
+      for (Map.Entry<MiniCassandraClusterNode, Future<Long>> entry : settled.entrySet()) {
+        final long settledMillis;
+        try {
+          settledMillis = entry.getValue().get();
+        } catch (ExecutionException ee) {
+          throw new IOException("Unable to warm up " + entry.getKey(), ee.getCause());
+        }
+        getLog().info(String.format("Cassandra node %s reached a steady state after %.1f s.",
+            entry.getKey(), settledMillis / 1000.0));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    if (mReadPartitions > 0 && mReadPasses > 0) {
+      sweep(keyspaces);
+      for (MiniCassandraClusterNode node : nodes) {
+        recordCaches(node);
+      }
+    }
+    mCluster.getReport().add(REPORT_SECTION, String.format("done after %.1f s",
+        (System.currentTimeMillis() - startTime) / 1000.0));
+  }
+
+  /**
+   * Lists the keyspaces to warm up.
+   *
+   * @param node Node to ask for the keyspaces.
+   * @return the configured keyspaces, or every non-system keyspace.
+   * @throws IOException if the node cannot be reached over JMX.
+   */
+  private List<String> getKeyspaces(MiniCassandraClusterNode node) throws IOException {
+    if (!mKeyspaces.isEmpty()) {
+      return mKeyspaces;
+    }
+    List<String> keyspaces = Lists.newArrayList();
+    CassandraJmxClient jmx = node.openJmxClient();
+    try {
+      for (String keyspace : jmx.getStorageService().getKeyspaces()) {
+        if (!keyspace.equals("system") && !keyspace.startsWith("system_")) {
+          keyspaces.add(keyspace);
+        }
+      }
+    } finally {
+      jmx.close();
+    }
+    return keyspaces;
+  }
+
+  /**
+   * Flushes and compacts the keyspaces on one node, then waits until it has no pending
+   * compactions.
+   *
+   * @param node The node.
+   * @param keyspaces The keyspaces.
+   * @param startTime When the warmup started, in milliseconds.
+   * @return how long after the start of the warmup the node settled, in milliseconds.
+   * @throws Exception if the node cannot be reached, or does not settle in time.
+   */
+  private long settle(MiniCassandraClusterNode node, List<String> keyspaces, long startTime)
+      throws Exception {
+    CassandraJmxClient jmx = node.openJmxClient();
+    try {
+      StorageServiceMBean storageService = jmx.getStorageService();
+      for (String keyspace : keyspaces) {
+        storageService.forceKeyspaceFlush(keyspace);
+      }
+      final long flushedMillis = System.currentTimeMillis() - startTime;
+      if (mCompact) {
+        for (String keyspace : keyspaces) {
+          storageService.forceKeyspaceCompaction(keyspace);
+        }
+      }
+      final long compactedMillis = System.currentTimeMillis() - startTime;
+
+      // Flushes may have triggered minor compactions that are still queued.
+      final long deadline = startTime + mTimeoutMillis;
+      int pending;
+      while ((pending = jmx.getGauge(PENDING_COMPACTIONS).intValue()) > 0) {
+        if (System.currentTimeMillis() > deadline) {
+          throw new IOException(String.format(
+              "Node %s still has %d pending compactions after %d s.",
+              node, pending, TimeUnit.MILLISECONDS.toSeconds(mTimeoutMillis)));
+        }
+        Thread.sleep(POLL_INTERVAL_MILLIS);
+      }
+      final long settledMillis = System.currentTimeMillis() - startTime;
+      mCluster.getReport().add(REPORT_SECTION, String.format(
+          "%s: flushed at %.1f s, %s at %.1f s, no pending compactions at %.1f s",
+          node,
+          flushedMillis / 1000.0,
+          mCompact ? "compacted" : "not compacted",
+          compactedMillis / 1000.0,
+          settledMillis / 1000.0));
+      return settledMillis;
+    } finally {
+      jmx.close();
+    }
+  }
+
+  /**
+   * Reads the partitions of every table of the keyspaces, one request per partition, so that
+   * their keys (and rows, for tables that cache rows) end up in the nodes' caches.
+   *
+   * @param keyspaces The keyspaces.
+   * @throws InterruptedException if interrupted while reading.
+   */
+  private void sweep(List<String> keyspaces) throws InterruptedException {
+    final List<String> addresses = mCluster.getNodeAddresses();
+    Cluster cluster = Cluster.builder()
+        .addContactPoints(addresses.toArray(new String[addresses.size()]))
+        .withPort(mCluster.getConfiguration().getPortNativeTransport())
+        .build();
+    try {
+      Session session = cluster.connect();
+      for (String keyspace : keyspaces) {
+        KeyspaceMetadata metadata = cluster.getMetadata().getKeyspace(keyspace);
+        if (null == metadata) {
+          getLog().warn("No keyspace " + keyspace + " to read; skipping it.");
+          continue;
+        }
+        for (TableMetadata table : metadata.getTables()) {
+          final long startTime = System.currentTimeMillis();
+          final long reads = sweepTable(session, keyspace, table);
+          mCluster.getReport().add(REPORT_SECTION, String.format("read %s.%s: %d reads in %.1f s",
+              keyspace, table.getName(), reads, (System.currentTimeMillis() - startTime) / 1000.0));
+        }
+      }
+    } finally {
+      cluster.close();
+    }
+  }
+
+  /**
+   * Reads the partitions of a table.
+   *
+   * @param session Session to read with.
+   * @param keyspace Name of the keyspace.
+   * @param table The table.
+   * @return the number of successful reads.
+   * @throws InterruptedException if interrupted while reading.
+   */
+  private long sweepTable(Session session, String keyspace, TableMetadata table)
+      throws InterruptedException {
+    List<String> keyColumns = Lists.newArrayList();
+    List<String> keyConditions = Lists.newArrayList();
+    for (ColumnMetadata column : table.getPartitionKey()) {
+      keyColumns.add(column.getName());
+      keyConditions.add(column.getName() + " = ?");
+    }
+    final String name = keyspace + "." + table.getName();
+    final PreparedStatement select = session.prepare(String.format(
+        "SELECT * FROM %s WHERE %s", name, Joiner.on(" AND ").join(keyConditions)));
+
+    final AtomicLong reads = new AtomicLong();
+    final Semaphore inFlight = new Semaphore(mConcurrency);
+    for (int pass = 0; pass < mReadPasses; pass++) {
+      ResultSet keys = session.execute(new SimpleStatement(String.format(
+          "SELECT DISTINCT %s FROM %s LIMIT %d",
+          Joiner.on(", ").join(keyColumns), name, mReadPartitions)).setFetchSize(1000));
+      for (Row key : keys) {
+        BoundStatement read = select.bind();
+        for (int i = 0; i < keyColumns.size(); i++) {
+          read.setBytesUnsafe(i, key.getBytesUnsafe(i));
+        }
+        inFlight.acquire();
+        Futures.addCallback(session.executeAsync(read), new FutureCallback<ResultSet>() {
+          @Override
+          public void onSuccess(ResultSet rows) {
+            reads.incrementAndGet();
+            inFlight.release();
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            inFlight.release();
+          }
+        });
+      }
+      inFlight.acquire(mConcurrency);
+      inFlight.release(mConcurrency);
+    }
+    return reads.get();
+  }
+
+  /**
+   * Adds the contents and hit rates of a node's caches to the run report.
+   *
+   * @param node The node.
+   */
+  private void recordCaches(MiniCassandraClusterNode node) {
+    try {
+      CassandraJmxClient jmx = node.openJmxClient();
+      try {
+        mCluster.getReport().add(REPORT_SECTION, String.format(
+            "%s: key cache %s; row cache %s",
+            node,
+            describeCache(jmx, "KeyCache"),
+            describeCache(jmx, "RowCache")));
+      } finally {
+        jmx.close();
+      }
+    } catch (IOException ioe) {
+      getLog().warn("Unable to read the caches of " + node + " over JMX: " + ioe.getMessage());
+    }
+  }
+
+  /**
+   * Describes the contents and hit rate of one of a node's caches.
+   *
+   * @param jmx JMX connection to the node.
+   * @param cache Name of the cache: KeyCache or RowCache.
+   * @return the description, e.g. "12 entries (0.1 MB), hit rate 0.50".
+   * @throws IOException if the cache's metrics cannot be read.
+   */
+  private static String describeCache(CassandraJmxClient jmx, String cache) throws IOException {
+    final String metric = "type=Cache,scope=" + cache + ",name=";
+    return String.format("%d entries (%.1f MB), hit rate %.2f",
+        jmx.getGauge(metric + "Entries").longValue(),
+        jmx.getGauge(metric + "Size").longValue() / 1048576.0,
+        getHitRate(jmx.getCount(metric + "Hits"), jmx.getCount(metric + "Requests")));
+  }
+
+  /**
+   * @param hits Number of cache hits.
+   * @param requests Number of cache requests.
+   * @return the hit rate, or 0 if there were no requests.
+   */
+  private static double getHitRate(long hits, long requests) {
+    return requests > 0 ? (double) hits / requests : 0.0;
+  }
+}
@@ -0,0 +1,325 @@
+package org.kiji.maven.plugins;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Maven goal that runs the same workload against the workload table created with different table
+ * options (compaction, compression, caching) on the running cluster, and writes a side-by-side
+ * report.
+ *
+ * <p>The variants are either listed explicitly under tableVariants, or are every combination of
+ * the listed compaction strategies, compressors, chunk lengths and caching modes.  For each
+ * variant, the table is recreated, written, flushed (waiting for compactions to finish) and read;
+ * besides the workload's throughput and latencies, the report gives the table's size on disk and
+ * the bytes compacted on the nodes while it was written.</p>
+ */
+@Mojo(name = "compare-table-options")
+public class CompareTableOptionsMojo extends AbstractMojo {
+  /** Keyspace created for the workload. */
+  private static final String KEYSPACE = "cassandra_maven_plugin_table_options";
+
+  /** Table created for the workload. */
+  private static final String TABLE = "workload";
+
+  /** How long to wait for a variant's compactions to finish. */
+  private static final long COMPACTION_TIMEOUT_SECONDS = 600;
+
+  /** How often pending compactions are polled, in milliseconds. */
+  private static final long POLL_INTERVAL_MILLIS = 500;
+
+  /** Metrics of the workload table. */
+  private static final String TABLE_METRICS =
+      "type=ColumnFamily,keyspace=" + KEYSPACE + ",scope=" + TABLE + ",name=";
+
+  /** If true, this goal should be a no-op. */
+  @Parameter(property = "cassandra.skip", defaultValue = "false")
+  private boolean mSkip;
+
+  /**
+   * Variants to compare, by name: the options of each (the part of CREATE TABLE after WITH).  If
+   * empty, the variants are every combination of the compaction strategies, compressors, chunk
+   * lengths and caching modes below.
+   */
+  @Parameter(alias = "tableVariants")
+  private Map<String, String> mTableVariants = Collections.emptyMap();
+
+  /** Compaction strategies to compare. */
+  @Parameter(alias = "compactionStrategies")
+  private List<String> mCompactionStrategies =
+      Lists.newArrayList("SizeTieredCompactionStrategy", "LeveledCompactionStrategy");
+
+  /** SSTable compressors to compare ("none" for no compression). */
+  @Parameter(alias = "compressors")
+  private List<String> mCompressors =
+      Lists.newArrayList("LZ4Compressor", "SnappyCompressor", "none");
+
+  /** Compression chunk lengths to compare, in kilobytes. */
+  @Parameter(alias = "chunkLengthsKb")
+  private List<Integer> mChunkLengthsKb = Lists.newArrayList(64);
+
+  /** Caching modes to compare (all, keys_only, rows_only or none). */
+  @Parameter(alias = "cachingModes")
+  private List<String> mCachingModes = Lists.newArrayList("keys_only");
+
+  /** Number of rows to write, then read. */
+  @Parameter(property = "cassandra.workload.rows", alias = "workloadRows", defaultValue = "100000")
+  private long mWorkloadRows;
+
+  /** Size of each row's value, in bytes. */
+  @Parameter(
+      property = "cassandra.workload.valueSize",
+      alias = "workloadValueSize",
+      defaultValue = "256")
+  private int mWorkloadValueSize;
+
+  /** Maximum number of requests in flight at once. */
+  @Parameter(
+      property = "cassandra.workload.concurrency",
+      alias = "workloadConcurrency",
+      defaultValue = "32")
+  private int mWorkloadConcurrency;
+
+  /** Replication factor of the workload keyspace. */
+  @Parameter(
+      property = "cassandra.workload.replicationFactor",
+      alias = "workloadReplicationFactor",
+      defaultValue = "1")
+  private int mWorkloadReplicationFactor;
+
+  /** Where to write the comparison. */
+  @Parameter(
+      property = "cassandra.compareTableOptionsReportFile",
+      alias = "reportFile",
+      defaultValue = "${project.build.directory}/cassandra-table-options-comparison.txt")
+  private File mReportFile;
+
+  @Override
+  public void execute() throws MojoExecutionException {
+    if (mSkip) {
+      getLog().info("Not comparing table options because skip=true.");
+      return;
+    }
+    final MiniCassandraCluster cluster;
+    try {
+      cluster = MiniCassandraClusterSingleton.INSTANCE.getRunningCluster();
+    } catch (IllegalStateException ise) {
+      throw new MojoExecutionException("Cannot compare table options.", ise);
+    }
+
+    ComparisonTable table = new ComparisonTable();
+    CqlWorkload workload = new CqlWorkload(
+        getLog(),
+        cluster.getNodeAddresses(),
+        cluster.getConfiguration().getPortNativeTransport(),
+        mWorkloadConcurrency);
+    try {
+      for (Map.Entry<String, String> variant : getVariants().entrySet()) {
+        getLog().info("Measuring table options " + variant.getKey() + ": " + variant.getValue());
+        table.addColumn(variant.getKey(), measure(cluster, workload, variant.getValue()));
+      }
+      workload.getSession().execute(String.format("DROP TABLE IF EXISTS %s.%s", KEYSPACE, TABLE));
+    } catch (Exception e) {
+      throw new MojoExecutionException("Unable to compare table options.", e);
+    } finally {
+      workload.close();
+    }
+
+    final String report = table.toString();
+    getLog().info("Table options comparison:\n" + report);
+    try {
+      FileUtils.fileWrite(mReportFile.getAbsolutePath(), report);
+    } catch (IOException ioe) {
+      throw new MojoExecutionException("Unable to write " + mReportFile, ioe);
+    }
+  }
+
+  /**
+   * @return the table options of each variant, by name.
+   */
+  private Map<String, String> getVariants() {
+    if (!mTableVariants.isEmpty()) {
+      // Maven does not keep the order of a map parameter, so go by name.
+      Map<String, String> variants = Maps.newTreeMap();
+      variants.putAll(mTableVariants);
+      return variants;
+    }
+    Map<String, String> variants = Maps.newLinkedHashMap();
+    for (String compaction : mCompactionStrategies) {
+      for (String compressor : mCompressors) {
+        final boolean compressed = !"none".equalsIgnoreCase(compressor);
+        // Without compression there are no chunks, so one chunk length is enough.
+        for (int chunkLengthKb : compressed ? mChunkLengthsKb : mChunkLengthsKb.subList(0, 1)) {
+          for (String caching : mCachingModes) {
+            final String name = getAbbreviation(compaction) + "-"
+                + (compressed ? compressor.replace("Compressor", "").toLowerCase()
+                    + "-" + chunkLengthKb + "k" : "none")
+                + "-" + caching;
+            final String compression = compressed
+                ? String.format("{'sstable_compression': '%s', 'chunk_length_kb': %d}",
+                    compressor, chunkLengthKb)
+                : "{'sstable_compression': ''}";
+            variants.put(name, String.format(
+                "compaction = {'class': '%s'} AND compression = %s AND caching = '%s'",
+                compaction, compression, caching));
+          }
+        }
+      }
+    }
+    return variants;
+  }
+
+  /**
+   * @param compaction Name of a compaction strategy, e.g. LeveledCompactionStrategy.
+   * @return a short name for it, e.g. lcs.
+   */
+  private static String getAbbreviation(String compaction) {
+    final String simpleName = compaction.substring(compaction.lastIndexOf('.') + 1);
+    StringBuilder abbreviation = new StringBuilder();
+    for (char c : simpleName.toCharArray()) {
+      if (Character.isUpperCase(c)) {
+        abbreviation.append(Character.toLowerCase(c));
+      }
+    }
+    return abbreviation.toString();
+  }
+
+  /**
+   * Recreates the workload table with some options, and runs the workload against it.
+   *
+   * @param cluster The running cluster.
+   * @param workload The workload.
+   * @param tableOptions Options for the table.
+   * @return the measurements, by metric name.
+   * @throws Exception if the workload fails or the nodes cannot be reached.
+   */
+  private Map<String, String> measure(
+      MiniCassandraCluster cluster,
+      CqlWorkload workload,
+      String tableOptions) throws Exception {
+    Map<String, String> measurements = Maps.newLinkedHashMap();
+    workload.createTable(KEYSPACE, mWorkloadReplicationFactor, TABLE, tableOptions);
+    final long bytesCompactedBefore = getBytesCompacted(cluster);
+
+    addMeasurements(measurements, workload.write(
+        KEYSPACE, TABLE, mWorkloadRows, mWorkloadValueSize, 0));
+    final long settleStart = System.currentTimeMillis();
+    flushAndSettle(cluster);
+    measurements.put("flush+compact (s)",
+        String.format("%.1f", (System.currentTimeMillis() - settleStart) / 1000.0));
+
+    long diskBytes = 0;
+    int numSSTables = 0;
+    double compressionRatio = 0;
+    for (MiniCassandraClusterNode node : cluster.getNodes()) {
+      CassandraJmxClient jmx = node.openJmxClient();
+      try {
+        diskBytes += jmx.getCount(TABLE_METRICS + "LiveDiskSpaceUsed");
+        numSSTables += jmx.getGauge(TABLE_METRICS + "LiveSSTableCount").intValue();
+        compressionRatio = Math.max(compressionRatio,
+            jmx.getGauge(TABLE_METRICS + "CompressionRatio").doubleValue());
+      } finally {
+        jmx.close();
+      }
+    }
+    measurements.put("disk (MB)", String.format("%.1f", diskBytes / 1048576.0));
+    measurements.put("sstables", Integer.toString(numSSTables));
+    measurements.put("compression ratio",
+        compressionRatio > 0 ? String.format("%.2f", compressionRatio) : "-");
+    measurements.put("compacted (MB)", String.format("%.1f",
+        (getBytesCompacted(cluster) - bytesCompactedBefore) / 1048576.0));
+
+    addMeasurements(measurements, workload.read(KEYSPACE, TABLE, mWorkloadRows));
+    return measurements;
+  }
+
+  /**
+   * Flushes the workload table on every node, and waits until no node has pending compactions.
+   *
+   * @param cluster The running cluster.
+   * @throws Exception if a node cannot be reached or does not settle in time.
+   */
+  private void flushAndSettle(MiniCassandraCluster cluster) throws Exception {
+    for (MiniCassandraClusterNode node : cluster.getNodes()) {
+      CassandraJmxClient jmx = node.openJmxClient();
+      try {
+        jmx.getStorageService().forceKeyspaceFlush(KEYSPACE, TABLE);
+      } finally {
+        jmx.close();
+      }
+    }
+    final long deadline =
+        System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(COMPACTION_TIMEOUT_SECONDS);
+    for (MiniCassandraClusterNode node : cluster.getNodes()) {
+      CassandraJmxClient jmx = node.openJmxClient();
+      try {
+        while (jmx.getGauge("type=Compaction,name=PendingTasks").intValue() > 0) {
+          if (System.currentTimeMillis() > deadline) {
+            throw new IOException("Compactions on " + node + " did not finish within "
+                + COMPACTION_TIMEOUT_SECONDS + " seconds.");
+          }
+          Thread.sleep(POLL_INTERVAL_MILLIS);
+        }
+      } finally {
+        jmx.close();
+      }
+    }
+  }
+
+  /**
+   * @param cluster The running cluster.
+   * @return the number of bytes compacted so far, over all nodes.
+   * @throws IOException if a node cannot be reached over JMX.
+   */
+  private static long getBytesCompacted(MiniCassandraCluster cluster) throws IOException {
+    long total = 0;
+    for (MiniCassandraClusterNode node : cluster.getNodes()) {
+      CassandraJmxClient jmx = node.openJmxClient();
+      try {
+        total += jmx.getCount("type=Compaction,name=BytesCompacted");
+      } finally {
+        jmx.close();
+      }
+    }
+    return total;
+  }
+
+  /**
+   * Logs the outcome of a workload pass and adds it to a set of measurements.
+   *
+   * @param measurements The measurements, by metric name.
+   * @param result Outcome of the workload pass.
+   */
+  private void addMeasurements(Map<String, String> measurements, CqlWorkload.Result result) {
+    getLog().info(result.toString());
+    ComparisonTable.addMeasurements(measurements, result);
+  }
+}
@@ -0,0 +1,165 @@
+package org.kiji.maven.plugins;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Maven goal that runs the same startup and workload measurements against several Cassandra
+ * versions, one after another, and writes a side-by-side report.
+ *
+ * <p>Each version gets a fresh cluster configured by the usual cluster parameters, in its own
+ * directory next to the Cassandra directory.</p>
+ */
+@Mojo(name = "compare-versions")
+public class CompareVersionsMojo extends AbstractCassandraClusterMojo {
+  /** Keyspace created for the workload. */
+  private static final String KEYSPACE = "cassandra_maven_plugin_compare";
+
+  /** Table created for the workload. */
+  private static final String TABLE = "workload";
+
+  /** If true, this goal should be a no-op. */
+  @Parameter(property = "cassandra.skip", defaultValue = "false")
+  private boolean mSkip;
+
+  /** Cassandra versions to compare, e.g. 2.0.9 and 2.1.0. */
+  @Parameter(alias = "versions", required = true)
+  private List<String> mVersions = Collections.emptyList();
+
+  /** Number of rows to write, then read. */
+  @Parameter(property = "cassandra.workload.rows", alias = "workloadRows", defaultValue = "100000")
+  private long mWorkloadRows;
+
+  /** Size of each row's value, in bytes. */
+  @Parameter(
+      property = "cassandra.workload.valueSize",
+      alias = "workloadValueSize",
+      defaultValue = "256")
+  private int mWorkloadValueSize;
+
+  /** Maximum number of requests in flight at once. */
+  @Parameter(
+      property = "cassandra.workload.concurrency",
+      alias = "workloadConcurrency",
+      defaultValue = "32")
+  private int mWorkloadConcurrency;
+
+  /** Replication factor of the workload keyspace. */
+  @Parameter(
+      property = "cassandra.workload.replicationFactor",
+      alias = "workloadReplicationFactor",
+      defaultValue = "1")
+  private int mWorkloadReplicationFactor;
+
+  /** Where to write the comparison. */
+  @Parameter(
+      property = "cassandra.compareReportFile",
+      alias = "reportFile",
+      defaultValue = "${project.build.directory}/cassandra-version-comparison.txt")
+  private File mReportFile;
+
+  @Override
+  public void execute() throws MojoExecutionException {
+    if (mSkip) {
+      getLog().info("Not comparing Cassandra versions because skip=true.");
+      return;
+    }
+
+    ComparisonTable table = new ComparisonTable();
+    for (String version : mVersions) {
+      getLog().info("Measuring Cassandra " + version + "...");
+      table.addColumn(version, measure(version));
+    }
+
+    final String report = table.toString();
+    getLog().info("Cassandra version comparison:\n" + report);
+    try {
+      FileUtils.fileWrite(mReportFile.getAbsolutePath(), report);
+    } catch (IOException ioe) {
+      throw new MojoExecutionException("Unable to write " + mReportFile, ioe);
+    }
+  }
+
+  /**
+   * Starts a cluster running one Cassandra version, runs the workload against it and stops it.
+   *
+   * @param version The Cassandra version.
+   * @return the measurements, by metric name.
+   * @throws MojoExecutionException if the cluster cannot be started or the workload fails.
+   */
+  private Map<String, String> measure(String version) throws MojoExecutionException {
+    CassandraConfiguration config = createCassandraConfiguration();
+    setCassandraVersion(config, version);
+    final File baseDir = config.getCassandraDir();
+    config.setCassandraDir(new File(baseDir.getParentFile(), baseDir.getName() + "-" + version));
+
+    Map<String, String> measurements = Maps.newLinkedHashMap();
+    MiniCassandraCluster cluster = new MiniCassandraCluster(getLog(), config);
+    try {
+      cluster.startup();
+      measurements.put("startup (s)", String.format("%.1f", cluster.getStartupMillis() / 1000.0));
+
+      CqlWorkload workload = new CqlWorkload(
+          getLog(),
+          cluster.getNodeAddresses(),
+          config.getPortNativeTransport(),
+          mWorkloadConcurrency);
+      try {
+        workload.createTable(KEYSPACE, mWorkloadReplicationFactor, TABLE, null);
+        addMeasurements(measurements, workload.write(
+            KEYSPACE, TABLE, mWorkloadRows, mWorkloadValueSize, 0));
+        addMeasurements(measurements, workload.read(KEYSPACE, TABLE, mWorkloadRows));
+        addMeasurements(measurements, workload.scan(KEYSPACE, TABLE, cluster.getRingTokens()));
+      } finally {
+        workload.close();
+      }
+    } catch (Exception e) {
+      throw new MojoExecutionException("Measuring Cassandra " + version + " failed.", e);
+    } finally {
+      try {
+        if (cluster.isRunning()) {
+          cluster.shutdown();
+        }
+      } catch (Exception e) {
+        getLog().error("Unable to stop the Cassandra " + version + " cluster.", e);
+      }
+    }
+    return measurements;
+  }
+
+  /**
+   * Logs the outcome of a workload pass and adds it to a set of measurements.
+   *
+   * @param measurements The measurements, by metric name.
+   * @param result Outcome of the workload pass.
+   */
+  private void addMeasurements(Map<String, String> measurements, CqlWorkload.Result result) {
+    getLog().info(result.toString());
+    ComparisonTable.addMeasurements(measurements, result);
+  }
+}
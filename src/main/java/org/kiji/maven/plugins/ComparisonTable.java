@@ -0,0 +1,95 @@
+package org.kiji.maven.plugins;
+
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * A side-by-side table of measurements: one row per metric, one column per configuration that was
+ * measured (e.g., per Cassandra version).
+ */
+public class ComparisonTable {
+  /** Minimum width of a column. */
+  private static final int MIN_COLUMN_WIDTH = 14;
+
+  /** Width of the metric names. */
+  private static final int METRIC_WIDTH = 22;
+
+  /** Names of the columns. */
+  private final List<String> mColumns = Lists.newArrayList();
+
+  /** Metric name -> one value per column. */
+  private final Map<String, List<String>> mRows = Maps.newLinkedHashMap();
+
+  /**
+   * Adds a column.
+   *
+   * @param name Name of the column.
+   * @param measurements The measurements, by metric name.
+   */
+  public void addColumn(String name, Map<String, String> measurements) {
+    for (Map.Entry<String, String> measurement : measurements.entrySet()) {
+      List<String> row = mRows.get(measurement.getKey());
+      if (null == row) {
+        row = Lists.newArrayList();
+        // Metrics that earlier columns did not have are left blank there.
+        for (int i = 0; i < mColumns.size(); i++) {
+          row.add("");
+        }
+        mRows.put(measurement.getKey(), row);
+      }
+      row.add(measurement.getValue());
+    }
+    mColumns.add(name);
+    for (List<String> row : mRows.values()) {
+      while (row.size() < mColumns.size()) {
+        row.add("");
+      }
+    }
+  }
+
+  /**
+   * Adds the throughput and latencies of a workload pass to a set of measurements.
+   *
+   * @param measurements The measurements, by metric name.
+   * @param result Outcome of the workload pass.
+   */
+  public static void addMeasurements(Map<String, String> measurements, CqlWorkload.Result result) {
+    final String name = result.getName();
+    final LatencyRecorder latencies = result.getLatencyMicros();
+    measurements.put(name + " ops/s", String.format("%.0f", result.getOpsPerSecond()));
+    measurements.put(name + " p50 (ms)",
+        String.format("%.2f", latencies.getPercentile(50) / 1000.0));
+    measurements.put(name + " p99 (ms)",
+        String.format("%.2f", latencies.getPercentile(99) / 1000.0));
+    measurements.put(name + " max (ms)", String.format("%.2f", latencies.getMax() / 1000.0));
+    measurements.put(name + " time (s)", String.format("%.1f", result.getElapsedNanos() / 1.0e9));
+    measurements.put(name + " errors", Long.toString(result.getNumErrors()));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    List<String> formats = Lists.newArrayList();
+    for (String column : mColumns) {
+      formats.add(" %" + Math.max(MIN_COLUMN_WIDTH, column.length()) + "s");
+    }
+
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format("%-" + METRIC_WIDTH + "s", "metric"));
+    for (int i = 0; i < mColumns.size(); i++) {
+      sb.append(String.format(formats.get(i), mColumns.get(i)));
+    }
+    sb.append("\n");
+    for (Map.Entry<String, List<String>> row : mRows.entrySet()) {
+      sb.append(String.format("%-" + METRIC_WIDTH + "s", row.getKey()));
+      for (int i = 0; i < mColumns.size(); i++) {
+        sb.append(String.format(formats.get(i), row.getValue().get(i)));
+      }
+      sb.append("\n");
+    }
+    return sb.toString();
+  }
+}
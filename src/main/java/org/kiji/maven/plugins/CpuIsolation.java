@@ -0,0 +1,311 @@
+package org.kiji.maven.plugins;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Partitions the CPUs available to the build among the client (the maven JVM, and the test JVMs it
+ * forks) and the Cassandra nodes, and confines each node process to its share.
+ *
+ * <p>Nodes are confined with <code>taskset</code>, or with a transient systemd scope (a cgroup v2
+ * cpuset) where one can be created and its CPUs are actually applied, which requires the cpuset
+ * controller to be delegated to the user's systemd instance.  Each node's thread pools and GC
+ * threads are sized to its share, since a confined JVM would otherwise still size them for the
+ * whole machine.</p>
+ */
+public class CpuIsolation extends MavenLogged {
+  /** How node processes are confined to their CPUs. */
+  public enum Mode {
+    /** Not at all. */
+    NONE,
+    /** With a cgroup if one confines processes to CPUs here, else with taskset. */
+    AUTO,
+    /** With taskset (sched_setaffinity). */
+    TASKSET,
+    /** With a transient systemd scope, i.e. a cgroup v2 cpuset (taskset if it is not applied). */
+    CGROUP;
+
+    /**
+     * Looks up a mode by (case-insensitive) name.
+     *
+     * @param name Name of the mode: none, auto, taskset or cgroup.
+     * @return the mode.
+     */
+    public static Mode fromName(String name) {
+      for (Mode mode : values()) {
+        if (mode.name().equalsIgnoreCase(name)) {
+          return mode;
+        }
+      }
+      throw new IllegalArgumentException(
+          "Unknown CPU isolation '" + name + "' (expected none, auto, taskset or cgroup).");
+    }
+  }
+
+  /** How long to wait for the probes and for taskset on the maven JVM. */
+  private static final long COMMAND_TIMEOUT_SECONDS = 10;
+
+  /** How node processes are confined (never AUTO). */
+  private final Mode mMode;
+
+  /** CPUs the maven JVM could run on before it was pinned to the client CPUs. */
+  private final List<Integer> mOriginalCpus;
+
+  /** Whether the maven JVM has been pinned to the client CPUs. */
+  private boolean mClientConfined;
+
+  /** CPUs for the client JVMs. */
+  private final List<Integer> mClientCpus;
+
+  /** CPU slices for the nodes; node N gets slice N modulo the number of slices. */
+  private final List<List<Integer>> mNodeSlices;
+
+  /**
+   * Partitions the available CPUs for a cluster.
+   *
+   * @param log The maven log.
+   * @param configuration Container object with all user-defined configuration for the cluster.
+   */
+  public CpuIsolation(Log log, CassandraConfiguration configuration) {
+    super(log);
+    Mode mode = null != configuration.getCpuIsolation()
+        ? configuration.getCpuIsolation()
+        : Mode.NONE;
+    final List<Integer> cpus = getAvailableCpus();
+    if (mode == Mode.AUTO || mode == Mode.CGROUP) {
+      if (isCpusetApplied(cpus)) {
+        mode = Mode.CGROUP;
+      } else if (mode == Mode.CGROUP) {
+        log.warn("systemd scopes do not confine processes to CPUs here (is the cpuset controller "
+            + "delegated to the user's systemd?); using taskset instead.");
+        mode = Mode.TASKSET;
+      } else if (canRun("taskset", "-c", "0", "true")) {
+        mode = Mode.TASKSET;
+      } else {
+        log.warn("Neither systemd-run nor taskset works here; nodes will not be pinned to CPUs.");
+        mode = Mode.NONE;
+      }
+    }
+    mMode = mode;
+
+    mOriginalCpus = cpus;
+    final int numNodes = configuration.getNumNodes();
+    int numClientCpus = configuration.getClientCpus() > 0
+        ? configuration.getClientCpus()
+        : Math.max(1, cpus.size() / (numNodes + 1));
+    if (cpus.size() - numClientCpus < numNodes) {
+      log.warn(String.format("Only %d CPUs for %d nodes and the client; the nodes will share CPUs.",
+          cpus.size(), numNodes));
+      numClientCpus = Math.min(numClientCpus, Math.max(0, cpus.size() - 1));
+    }
+    mClientCpus = Lists.newArrayList(cpus.subList(0, numClientCpus));
+
+    // Split the rest evenly (the first slices get one CPU more when it does not divide).
+    final List<Integer> nodeCpus = cpus.subList(numClientCpus, cpus.size());
+    final int numSlices = Math.min(numNodes, nodeCpus.size());
+    mNodeSlices = Lists.newArrayList();
+    int next = 0;
+    for (int slice = 0; slice < numSlices; slice++) {
+      final int size = nodeCpus.size() / numSlices + (slice < nodeCpus.size() % numSlices ? 1 : 0);
+      mNodeSlices.add(Lists.newArrayList(nodeCpus.subList(next, next + size)));
+      next += size;
+    }
+  }
+
+  /**
+   * @return whether node processes are confined to their CPUs.
+   */
+  public boolean isEnabled() {
+    return mMode != Mode.NONE;
+  }
+
+  /**
+   * @return the CPUs for the client JVMs.
+   */
+  public List<Integer> getClientCpus() {
+    return mClientCpus;
+  }
+
+  /**
+   * @param nodeId Id of the node.
+   * @return the CPUs for the node, or null if nodes are not confined.
+   */
+  public List<Integer> getNodeCpus(int nodeId) {
+    if (!isEnabled() || mNodeSlices.isEmpty()) {
+      return null;
+    }
+    return mNodeSlices.get(nodeId % mNodeSlices.size());
+  }
+
+  /**
+   * Prefixes a node's command line so that the process only runs on its CPUs.
+   *
+   * @param cpus The node's CPUs.
+   * @param command The command line.
+   * @return the prefixed command line.
+   */
+  public List<String> confine(List<Integer> cpus, List<String> command) {
+    List<String> confined = Lists.newArrayList();
+    switch (mMode) {
+      case CGROUP:
+        // --scope runs the command directly (so it stays our child) in a new cgroup.
+        confined.addAll(Lists.newArrayList(
+            "systemd-run", "--user", "--scope", "--quiet", "-p", "AllowedCPUs=" + format(cpus)));
+        confined.add("--");
+        break;
+      case TASKSET:
+        confined.addAll(Lists.newArrayList("taskset", "-c", format(cpus)));
+        break;
+      default:
+        break;
+    }
+    confined.addAll(command);
+    return confined;
+  }
+
+  /**
+   * Pins the maven JVM (all of its threads) to the client CPUs.  Test JVMs forked later inherit
+   * the affinity.
+   */
+  public void confineClient() {
+    if (!isEnabled() || mClientCpus.isEmpty()) {
+      return;
+    }
+    if (canRun("taskset", "-a", "-p", "-c", format(mClientCpus), getPid())) {
+      mClientConfined = true;
+    } else {
+      getLog().warn("Could not pin the maven JVM to CPUs " + format(mClientCpus));
+    }
+  }
+
+  /**
+   * Lets the maven JVM run on all the CPUs it could run on before {@link #confineClient()}, so
+   * that the rest of the build is not slowed down once the cluster has stopped.
+   */
+  public void releaseClient() {
+    if (!mClientConfined) {
+      return;
+    }
+    if (canRun("taskset", "-a", "-p", "-c", format(mOriginalCpus), getPid())) {
+      mClientConfined = false;
+    } else {
+      getLog().warn("Could not let the maven JVM run on CPUs " + format(mOriginalCpus) + " again");
+    }
+  }
+
+  /**
+   * Finds out whether a transient systemd scope confines its process to the CPUs it is given.
+   * Without a delegated cpuset controller, systemd ignores AllowedCPUs= and the scope still
+   * starts, so the probe checks the CPUs a process in such a scope may actually run on.
+   *
+   * @param cpus The CPUs available to the build.
+   * @return whether a scope given one of the CPUs runs on that CPU only.
+   */
+  private boolean isCpusetApplied(List<Integer> cpus) {
+    final String cpu = String.valueOf(cpus.get(cpus.size() - 1));
+    final String output = run("systemd-run", "--user", "--scope", "--quiet",
+        "-p", "AllowedCPUs=" + cpu, "--", "grep", "Cpus_allowed_list", "/proc/self/status");
+    return null != output && cpu.equals(output.substring(output.indexOf(':') + 1).trim());
+  }
+
+  /**
+   * @return the process id of the maven JVM.
+   */
+  private static String getPid() {
+    final String jvmName = ManagementFactory.getRuntimeMXBean().getName();
+    return jvmName.substring(0, jvmName.indexOf('@'));
+  }
+
+  /**
+   * @param cpus Some CPUs.
+   * @return the CPUs as a list for taskset or cpuset (e.g. "2,3").
+   */
+  public static String format(List<Integer> cpus) {
+    return Joiner.on(",").join(cpus);
+  }
+
+  /**
+   * @return the CPUs this process may run on.
+   */
+  private List<Integer> getAvailableCpus() {
+    List<Integer> cpus = Lists.newArrayList();
+    try {
+      final File status = new File("/proc/self/status");
+      for (String line : Files.readAllLines(status.toPath(), Charsets.UTF_8)) {
+        if (line.startsWith("Cpus_allowed_list:")) {
+          for (String range : Splitter.on(',').trimResults().omitEmptyStrings()
+              .split(line.substring(line.indexOf(':') + 1))) {
+            final int dash = range.indexOf('-');
+            final int first = Integer.parseInt(dash < 0 ? range : range.substring(0, dash));
+            final int last = dash < 0 ? first : Integer.parseInt(range.substring(dash + 1));
+            for (int cpu = first; cpu <= last; cpu++) {
+              cpus.add(cpu);
+            }
+          }
+        }
+      }
+    } catch (IOException ioe) {
+      getLog().debug("Could not read /proc/self/status: " + ioe.getMessage());
+    }
+    if (cpus.isEmpty()) {
+      for (int cpu = 0; cpu < Runtime.getRuntime().availableProcessors(); cpu++) {
+        cpus.add(cpu);
+      }
+    }
+    return cpus;
+  }
+
+  /**
+   * Runs a short command.
+   *
+   * @param command The command line.
+   * @return whether the command exited successfully.
+   */
+  private boolean canRun(String... command) {
+    return null != run(command);
+  }
+
+  /**
+   * Runs a short command, whose output must fit in the pipe's buffer.
+   *
+   * @param command The command line.
+   * @return the output of the command, or null if it did not exit successfully.
+   */
+  private String run(String... command) {
+    try {
+      Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+      process.getOutputStream().close();
+      final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(COMMAND_TIMEOUT_SECONDS);
+      while (true) {
+        try {
+          final int exitValue = process.exitValue();
+          final String output = new String(
+              ByteStreams.toByteArray(process.getInputStream()), Charsets.UTF_8);
+          return 0 == exitValue ? output : null;
+        } catch (IllegalThreadStateException itse) {
+          if (System.nanoTime() > deadline) {
+            process.destroy();
+            return null;
+          }
+          Thread.sleep(50);
+        }
+      }
+    } catch (IOException ioe) {
+      return null;
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+  }
+}
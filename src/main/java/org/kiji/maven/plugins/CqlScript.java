@@ -0,0 +1,106 @@
+package org.kiji.maven.plugins;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.datastax.driver.core.Session;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * A file of CQL statements, separated by semicolons at the end of a line.  Lines starting with
+ * "--" or "//" are comments.  References to variables, e.g. ${cassandra.keyspacePrefix}, are
+ * replaced with their values.
+ */
+public class CqlScript {
+  /** The file. */
+  private final File mFile;
+
+  /** Values of the variables the script may refer to, by name. */
+  private final Map<String, String> mVariables;
+
+  /**
+   * Creates a script that refers to no variables.
+   *
+   * @param file The file holding the script.
+   */
+  public CqlScript(File file) {
+    this(file, Collections.<String, String>emptyMap());
+  }
+
+  /**
+   * Creates a script.
+   *
+   * @param file The file holding the script.
+   * @param variables Values of the variables the script may refer to, by name.
+   */
+  public CqlScript(File file, Map<String, String> variables) {
+    mFile = file;
+    mVariables = variables;
+  }
+
+  /**
+   * @param config Configuration of the cluster, or of a module attaching to it.
+   * @return the variables the module's scripts may refer to, by name.
+   */
+  public static Map<String, String> getVariables(CassandraConfiguration config) {
+    Map<String, String> variables = Maps.newHashMap();
+    if (null != config.getKeyspacePrefix()) {
+      variables.put(
+          AbstractCassandraClusterMojo.KEYSPACE_PREFIX_PROPERTY, config.getKeyspacePrefix());
+    }
+    return variables;
+  }
+
+  /**
+   * Reads the statements of the script.
+   *
+   * @return the statements, without their terminating semicolons.
+   * @throws IOException if the file cannot be read.
+   */
+  public List<String> getStatements() throws IOException {
+    List<String> statements = Lists.newArrayList();
+    StringBuilder statement = new StringBuilder();
+    for (String line : Files.readAllLines(mFile.toPath(), Charsets.UTF_8)) {
+      for (Map.Entry<String, String> variable : mVariables.entrySet()) {
+        line = line.replace("${" + variable.getKey() + "}", variable.getValue());
+      }
+      final String trimmed = line.trim();
+      if (trimmed.isEmpty() || trimmed.startsWith("--") || trimmed.startsWith("//")) {
+        continue;
+      }
+      statement.append(line).append("\n");
+      if (trimmed.endsWith(";")) {
+        statements.add(statement.substring(0, statement.lastIndexOf(";")).trim());
+        statement.setLength(0);
+      }
+    }
+    if (statement.toString().trim().length() > 0) {
+      statements.add(statement.toString().trim());
+    }
+    return statements;
+  }
+
+  /**
+   * Runs every statement of the script, in order.
+   *
+   * @param session Session to run the statements in.
+   * @throws IOException if the file cannot be read.
+   */
+  public void execute(Session session) throws IOException {
+    for (String statement : getStatements()) {
+      session.execute(statement);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    return mFile.toString();
+  }
+}
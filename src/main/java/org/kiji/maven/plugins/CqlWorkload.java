@@ -0,0 +1,317 @@
+package org.kiji.maven.plugins;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.RateLimiter;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * A simple, repeatable CQL workload used to take measurements against a mini Cassandra cluster.
+ *
+ * <p>Writes and reads rows of a table with the schema <code>(id bigint PRIMARY KEY, value
+ * blob)</code>, keeping a bounded number of requests in flight and recording the latency of every
+ * request.  Close the workload when done to release its connection to the cluster.</p>
+ */
+public class CqlWorkload extends MavenLogged implements Closeable {
+  /** Connection to the cluster. */
+  private final Cluster mCluster;
+
+  /** Session for running statements. */
+  private final Session mSession;
+
+  /** Maximum number of requests in flight at once. */
+  private final int mConcurrency;
+
+  /**
+   * Connects a workload to a cluster.
+   *
+   * @param log The maven log.
+   * @param contactPoints Addresses of the nodes.
+   * @param port Native transport port.
+   * @param concurrency Maximum number of requests in flight at once.
+   */
+  public CqlWorkload(Log log, List<String> contactPoints, int port, int concurrency) {
+    super(log);
+    mCluster = Cluster.builder()
+        .addContactPoints(contactPoints.toArray(new String[contactPoints.size()]))
+        .withPort(port)
+        .build();
+    mSession = mCluster.connect();
+    mConcurrency = concurrency;
+  }
+
+  /**
+   * @return the session used by this workload, for running other statements.
+   */
+  public Session getSession() {
+    return mSession;
+  }
+
+  /**
+   * Creates a keyspace (if necessary) and (re-)creates the workload table in it.
+   *
+   * @param keyspace Name of the keyspace.
+   * @param replicationFactor Replication factor for the keyspace.
+   * @param table Name of the table.
+   * @param tableOptions Options for the table (the part after WITH), or null for the defaults.
+   */
+  public void createTable(
+      String keyspace,
+      int replicationFactor,
+      String table,
+      String tableOptions) {
+    mSession.execute(String.format(
+        "CREATE KEYSPACE IF NOT EXISTS %s WITH replication = "
+            + "{'class': 'SimpleStrategy', 'replication_factor': %d}",
+        keyspace, replicationFactor));
+    mSession.execute(String.format("DROP TABLE IF EXISTS %s.%s", keyspace, table));
+    mSession.execute(String.format(
+        "CREATE TABLE %s.%s (id bigint PRIMARY KEY, value blob)%s",
+        keyspace, table, null == tableOptions ? "" : " WITH " + tableOptions));
+  }
+
+  /**
+   * Writes rows 0 to numRows - 1, each with a random value.
+   *
+   * @param keyspace Name of the keyspace.
+   * @param table Name of the table.
+   * @param numRows Number of rows to write.
+   * @param valueSize Size of each value, in bytes.
+   * @param maxRowsPerSecond Maximum write rate, or 0 for as fast as possible.
+   * @return the measurements.
+   * @throws InterruptedException if interrupted while writing.
+   */
+  public Result write(
+      String keyspace,
+      String table,
+      long numRows,
+      int valueSize,
+      double maxRowsPerSecond) throws InterruptedException {
+    final PreparedStatement insert = mSession.prepare(
+        String.format("INSERT INTO %s.%s (id, value) VALUES (?, ?)", keyspace, table));
+    final RateLimiter rateLimiter =
+        maxRowsPerSecond > 0 ? RateLimiter.create(maxRowsPerSecond) : null;
+    final Random random = new Random(numRows);
+    final byte[] value = new byte[valueSize];
+
+    final Result result = new Result("write");
+    final Semaphore inFlight = new Semaphore(mConcurrency);
+    final long startTime = System.nanoTime();
+    for (long id = 0; id < numRows; id++) {
+      if (null != rateLimiter) {
+        rateLimiter.acquire();
+      }
+      random.nextBytes(value);
+      submit(insert.bind(id, ByteBuffer.wrap(value.clone())), inFlight, result);
+    }
+    inFlight.acquire(mConcurrency);
+    result.setElapsedNanos(System.nanoTime() - startTime);
+    return result;
+  }
+
+  /**
+   * Reads rows 0 to numRows - 1, one request per row.
+   *
+   * @param keyspace Name of the keyspace.
+   * @param table Name of the table.
+   * @param numRows Number of rows to read.
+   * @return the measurements.
+   * @throws InterruptedException if interrupted while reading.
+   */
+  public Result read(String keyspace, String table, long numRows) throws InterruptedException {
+    final PreparedStatement select = mSession.prepare(
+        String.format("SELECT id, value FROM %s.%s WHERE id = ?", keyspace, table));
+
+    final Result result = new Result("read");
+    final Semaphore inFlight = new Semaphore(mConcurrency);
+    final long startTime = System.nanoTime();
+    for (long id = 0; id < numRows; id++) {
+      submit(select.bind(id), inFlight, result);
+    }
+    inFlight.acquire(mConcurrency);
+    result.setElapsedNanos(System.nanoTime() - startTime);
+    return result;
+  }
+
+  /**
+   * Scans the whole table the way Hadoop-style input formats do: one query per token range of the
+   * ring, fetching every row of the range at once.
+   *
+   * @param keyspace Name of the keyspace.
+   * @param table Name of the table.
+   * @param ringTokens All tokens of the ring, in ascending order.
+   * @return the measurements (one request per token range).
+   * @throws InterruptedException if interrupted while scanning.
+   */
+  public Result scan(String keyspace, String table, List<Long> ringTokens)
+      throws InterruptedException {
+    final PreparedStatement select = mSession.prepare(String.format(
+        "SELECT id, value FROM %s.%s WHERE token(id) > ? AND token(id) <= ?", keyspace, table));
+
+    // Range boundaries: the minimum token (which no key hashes to), the ring, the maximum token.
+    // Cassandra reads a range whose start equals its end as the whole ring, so every boundary
+    // must appear once.
+    SortedSet<Long> distinctBounds = Sets.newTreeSet(ringTokens);
+    distinctBounds.add(Long.MIN_VALUE);
+    distinctBounds.add(Long.MAX_VALUE);
+    List<Long> bounds = Lists.newArrayList(distinctBounds);
+
+    final Result result = new Result("scan");
+    final Semaphore inFlight = new Semaphore(mConcurrency);
+    final long startTime = System.nanoTime();
+    for (int i = 0; i + 1 < bounds.size(); i++) {
+      // Disable paging, so that the latency covers the entire range.
+      submit(select.bind(bounds.get(i), bounds.get(i + 1)).setFetchSize(Integer.MAX_VALUE),
+          inFlight, result);
+    }
+    inFlight.acquire(mConcurrency);
+    result.setElapsedNanos(System.nanoTime() - startTime);
+    return result;
+  }
+
+  /**
+   * Runs a statement asynchronously, recording its latency once it completes.
+   *
+   * @param statement The statement.
+   * @param inFlight Permits for requests in flight; one is taken here and released on completion.
+   * @param result Where to record the outcome.
+   * @throws InterruptedException if interrupted while waiting for a permit.
+   */
+  private void submit(
+      Statement statement,
+      final Semaphore inFlight,
+      final Result result) throws InterruptedException {
+    inFlight.acquire();
+    final long requestStart = System.nanoTime();
+    ResultSetFuture future = mSession.executeAsync(statement);
+    Futures.addCallback(future, new FutureCallback<ResultSet>() {
+      @Override
+      public void onSuccess(ResultSet rows) {
+        result.getLatencyMicros().record(
+            TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - requestStart));
+        inFlight.release();
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        result.recordError();
+        inFlight.release();
+      }
+    });
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void close() {
+    mSession.close();
+    mCluster.close();
+  }
+
+  /**
+   * Measurements from one pass of a workload.
+   */
+  public static class Result {
+    /** What the pass did (e.g., "write"). */
+    private final String mName;
+
+    /** Latency of every successful request, in microseconds. */
+    private final LatencyRecorder mLatencyMicros;
+
+    /** Number of failed requests. */
+    private long mNumErrors;
+
+    /** Wall-clock duration of the pass. */
+    private long mElapsedNanos;
+
+    /**
+     * Creates an empty result.
+     *
+     * @param name What the pass did.
+     */
+    public Result(String name) {
+      mName = name;
+      mLatencyMicros = new LatencyRecorder();
+    }
+
+    /**
+     * @return what the pass did.
+     */
+    public String getName() {
+      return mName;
+    }
+
+    /**
+     * @return the latency of every successful request, in microseconds.
+     */
+    public LatencyRecorder getLatencyMicros() {
+      return mLatencyMicros;
+    }
+
+    /**
+     * Counts a failed request.
+     */
+    public synchronized void recordError() {
+      mNumErrors++;
+    }
+
+    /**
+     * @return the number of failed requests.
+     */
+    public synchronized long getNumErrors() {
+      return mNumErrors;
+    }
+
+    /**
+     * @param elapsedNanos Wall-clock duration of the pass.
+     */
+    public void setElapsedNanos(long elapsedNanos) {
+      mElapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return the wall-clock duration of the pass, in nanoseconds.
+     */
+    public long getElapsedNanos() {
+      return mElapsedNanos;
+    }
+
+    /**
+     * @return successful requests per second.
+     */
+    public double getOpsPerSecond() {
+      return mElapsedNanos == 0
+          ? 0.0
+          : mLatencyMicros.getCount() / (mElapsedNanos / 1.0e9);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+      return String.format(
+          "%s: %d ops, %.0f ops/s, p50 %.2f ms, p99 %.2f ms, max %.2f ms, %d errors",
+          mName,
+          mLatencyMicros.getCount(),
+          getOpsPerSecond(),
+          mLatencyMicros.getPercentile(50) / 1000.0,
+          mLatencyMicros.getPercentile(99) / 1000.0,
+          mLatencyMicros.getMax() / 1000.0,
+          getNumErrors());
+    }
+  }
+}
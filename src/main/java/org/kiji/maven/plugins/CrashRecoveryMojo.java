@@ -0,0 +1,128 @@
+package org.kiji.maven.plugins;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+/**
+ * Maven goal that measures how long nodes take to recover from a crash: writes to the running
+ * cluster at a steady rate, kills some nodes uncleanly (SIGKILL), and starts them again with the
+ * same directories.
+ *
+ * <p>For each crashed node, the run report gives the size of its commit log when it died, how long
+ * it took to get back to NORMAL, and how many mutations it replayed from its commit log and how
+ * long that took.  The replay is only timed when the nodes log to the console.</p>
+ *
+ * <p>Only the Cassandra process dies: commit log writes it had not synced are still in the host's
+ * page cache, so they survive and are replayed.  This measures the cost of the replay (compare
+ * cassandra.commitLogSegmentSizeMb settings), not what the sync settings (cassandra.commitLogSync,
+ * cassandra.commitLogSyncPeriodMillis) would lose; only a crash of the host exercises those.</p>
+ */
+@Mojo(name = "crash-recovery")
+public class CrashRecoveryMojo extends AbstractMojo {
+  /** Keyspace created for the writes. */
+  private static final String KEYSPACE = "cassandra_maven_plugin_crash_recovery";
+
+  /** Table created for the writes. */
+  private static final String TABLE = "workload";
+
+  /** If true, this goal should be a no-op. */
+  @Parameter(property = "cassandra.skip", defaultValue = "false")
+  private boolean mSkip;
+
+  /** Ids of the nodes to crash. */
+  @Parameter(alias = "crashNodes")
+  private List<Integer> mCrashNodes = Lists.newArrayList(0);
+
+  /** Number of rows to write before the crash. */
+  @Parameter(property = "cassandra.workload.rows", alias = "workloadRows", defaultValue = "100000")
+  private long mWorkloadRows;
+
+  /** Rows written per second (0 for as fast as possible). */
+  @Parameter(
+      property = "cassandra.workload.rowsPerSecond",
+      alias = "workloadRowsPerSecond",
+      defaultValue = "10000")
+  private double mWorkloadRowsPerSecond;
+
+  /** Size of each row's value, in bytes. */
+  @Parameter(
+      property = "cassandra.workload.valueSize",
+      alias = "workloadValueSize",
+      defaultValue = "256")
+  private int mWorkloadValueSize;
+
+  /** Maximum number of requests in flight at once. */
+  @Parameter(
+      property = "cassandra.workload.concurrency",
+      alias = "workloadConcurrency",
+      defaultValue = "32")
+  private int mWorkloadConcurrency;
+
+  /** Replication factor of the workload keyspace. */
+  @Parameter(
+      property = "cassandra.workload.replicationFactor",
+      alias = "workloadReplicationFactor",
+      defaultValue = "1")
+  private int mWorkloadReplicationFactor;
+
+  @Override
+  public void execute() throws MojoExecutionException {
+    if (mSkip) {
+      getLog().info("Not crashing Cassandra nodes because skip=true.");
+      return;
+    }
+    final MiniCassandraCluster cluster;
+    try {
+      cluster = MiniCassandraClusterSingleton.INSTANCE.getRunningCluster();
+    } catch (IllegalStateException ise) {
+      throw new MojoExecutionException("Cannot crash Cassandra nodes.", ise);
+    }
+
+    CqlWorkload workload = new CqlWorkload(
+        getLog(),
+        cluster.getNodeAddresses(),
+        cluster.getConfiguration().getPortNativeTransport(),
+        mWorkloadConcurrency);
+    try {
+      workload.createTable(KEYSPACE, mWorkloadReplicationFactor, TABLE, null);
+      getLog().info(String.format("Writing %d rows at %.0f rows/s before crashing nodes %s...",
+          mWorkloadRows, mWorkloadRowsPerSecond, mCrashNodes));
+      final CqlWorkload.Result result = workload.write(
+          KEYSPACE, TABLE, mWorkloadRows, mWorkloadValueSize, mWorkloadRowsPerSecond);
+      getLog().info(result.toString());
+      cluster.getReport().add("Crash recovery", "before the crash: " + result);
+    } catch (Exception e) {
+      throw new MojoExecutionException("Unable to write to the Cassandra cluster.", e);
+    } finally {
+      // The crashed nodes would otherwise be marked down under the session, and reconnected to.
+      workload.close();
+    }
+
+    try {
+      cluster.crashAndRecover(mCrashNodes);
+    } catch (Exception e) {
+      throw new MojoExecutionException("Unable to crash and recover Cassandra nodes.", e);
+    }
+  }
+}
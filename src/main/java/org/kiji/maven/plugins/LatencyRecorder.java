@@ -0,0 +1,90 @@
+package org.kiji.maven.plugins;
+
+import java.util.Arrays;
+
+/**
+ * Records a series of durations (latencies, GC pauses, ...) and summarizes them.
+ *
+ * All values are kept, so percentiles are exact; the series the plugin records are at most a few
+ * million entries long.
+ */
+public class LatencyRecorder {
+  /** Recorded values, in the order recorded. */
+  private long[] mValues;
+
+  /** Number of values recorded. */
+  private int mCount;
+
+  /** Sum of all values recorded. */
+  private long mSum;
+
+  /**
+   * Creates an empty recorder.
+   */
+  public LatencyRecorder() {
+    mValues = new long[1024];
+    mCount = 0;
+    mSum = 0;
+  }
+
+  /**
+   * Records a value.
+   *
+   * @param value The value (in whatever unit the caller uses consistently).
+   */
+  public synchronized void record(long value) {
+    if (mCount == mValues.length) {
+      mValues = Arrays.copyOf(mValues, mValues.length * 2);
+    }
+    mValues[mCount++] = value;
+    mSum += value;
+  }
+
+  /**
+   * @return the number of values recorded.
+   */
+  public synchronized int getCount() {
+    return mCount;
+  }
+
+  /**
+   * @return the sum of all values recorded.
+   */
+  public synchronized long getSum() {
+    return mSum;
+  }
+
+  /**
+   * @return the mean of all values recorded, or 0 if there are none.
+   */
+  public synchronized double getMean() {
+    return mCount == 0 ? 0.0 : (double) mSum / mCount;
+  }
+
+  /**
+   * @return the largest value recorded, or 0 if there are none.
+   */
+  public synchronized long getMax() {
+    long max = 0;
+    for (int i = 0; i < mCount; i++) {
+      max = Math.max(max, mValues[i]);
+    }
+    return max;
+  }
+
+  /**
+   * Computes a percentile of the recorded values (nearest-rank method).
+   *
+   * @param percentile The percentile, between 0 and 100.
+   * @return the value at that percentile, or 0 if there are no values.
+   */
+  public synchronized long getPercentile(double percentile) {
+    if (mCount == 0) {
+      return 0;
+    }
+    long[] sorted = Arrays.copyOf(mValues, mCount);
+    Arrays.sort(sorted);
+    final int rank = (int) Math.ceil(percentile / 100.0 * mCount);
+    return sorted[Math.max(0, Math.min(mCount - 1, rank - 1))];
+  }
+}
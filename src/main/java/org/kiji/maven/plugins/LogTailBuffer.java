@@ -0,0 +1,61 @@
+package org.kiji.maven.plugins;
+
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * A fixed-size ring buffer holding the most recent lines of a log.
+ *
+ * Adding a line never allocates beyond the buffer and never blocks for longer than it takes to
+ * store one reference, so it is safe to call from a thread that must keep up with a process's
+ * output.
+ */
+public class LogTailBuffer {
+  /** The buffered lines; slot (mNumLines % capacity) is overwritten next. */
+  private final String[] mLines;
+
+  /** Total number of lines ever added. */
+  private long mNumLines;
+
+  /**
+   * Creates an empty buffer.
+   *
+   * @param capacity Maximum number of lines to keep.
+   */
+  public LogTailBuffer(int capacity) {
+    Preconditions.checkArgument(capacity > 0, "Log tail capacity must be positive.");
+    mLines = new String[capacity];
+    mNumLines = 0;
+  }
+
+  /**
+   * Adds a line, evicting the oldest one if the buffer is full.
+   *
+   * @param line The line to add.
+   */
+  public synchronized void add(String line) {
+    mLines[(int) (mNumLines % mLines.length)] = line;
+    mNumLines++;
+  }
+
+  /**
+   * @return the buffered lines, oldest first.
+   */
+  public synchronized List<String> getLines() {
+    final int size = (int) Math.min(mNumLines, mLines.length);
+    List<String> lines = Lists.newArrayListWithCapacity(size);
+    for (long i = mNumLines - size; i < mNumLines; i++) {
+      lines.add(mLines[(int) (i % mLines.length)]);
+    }
+    return lines;
+  }
+
+  /**
+   * @return the total number of lines ever added (including those since evicted).
+   */
+  public synchronized long getNumLinesAdded() {
+    return mNumLines;
+  }
+}
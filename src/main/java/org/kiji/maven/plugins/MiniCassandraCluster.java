@@ -1,42 +1,181 @@
 package org.kiji.maven.plugins;
 
 import java.io.File;
+import java.io.FileFilter;
 import java.io.IOException;
-import java.util.Collection;
+import java.net.InetAddress;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import com.datastax.driver.core.Cluster;
 import com.datastax.driver.core.Session;
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import org.apache.cassandra.io.util.FileUtils;
+import org.apache.cassandra.service.StorageServiceMBean;
 import org.apache.maven.plugin.logging.Log;
 
 /**
  * Represents the entire Cassandra cluster (possibly containing multiple nodes).
  */
 public class MiniCassandraCluster extends MavenLogged {
+  /** Maximum time to wait for a node to join or leave the ring. */
+  private static final long SCALE_TIMEOUT_SECONDS = 600;
+
+  /** Maximum time to wait for a node to shut down before killing it. */
+  private static final long SHUTDOWN_TIMEOUT_SECONDS = 60;
+
+  /** Suffix (before a timestamp) of Cassandra directories moved aside for deletion. */
+  private static final String TRASH_SUFFIX = ".trash-";
+
   /** Whether the cluster is running. */
   private boolean mIsRunning;
 
   private CassandraConfiguration mCassandraConfiguration;
 
-  private Collection<MiniCassandraClusterNode> mNodes;
+  private List<MiniCassandraClusterNode> mNodes;
+
+  /** Endpoint for controlling individual nodes, if enabled. */
+  private MiniCassandraClusterControlServer mControlServer;
+
+  /** Measurements taken while the cluster runs. */
+  private final CassandraRunReport mReport;
+
+  /** Id of the next node added to the running cluster. */
+  private int mNextNodeId;
+
+  /** How long the cluster took to start, in milliseconds. */
+  private long mStartupMillis;
+
+  /** Longest GC pause of any node, in milliseconds, known once the cluster has shut down. */
+  private double mMaxGcPauseMillis;
+
+  /** Partitioning of the CPUs among the client and the nodes. */
+  private CpuIsolation mCpuIsolation;
+
+  /** Samples the nodes' resource usage, or null. */
+  private NodeResourceSampler mResourceSampler;
+
+  /** Connection details of the cluster for clients, or null until it is up. */
+  private volatile ClusterDescriptor mDescriptor;
 
   public MiniCassandraCluster(Log log, CassandraConfiguration config) {
     super(log);
     mCassandraConfiguration = config;
     mIsRunning = false;
+    mReport = new CassandraRunReport(log);
   }
 
   public boolean isRunning() {
     return mIsRunning;
   }
 
+  /**
+   * @return the nodes in this cluster.
+   */
+  public List<MiniCassandraClusterNode> getNodes() {
+    return mNodes;
+  }
+
+  /**
+   * @return the configuration of this cluster.
+   */
+  public CassandraConfiguration getConfiguration() {
+    return mCassandraConfiguration;
+  }
+
+  /**
+   * @return how long the cluster took to start (until clients could connect), in milliseconds.
+   */
+  public long getStartupMillis() {
+    return mStartupMillis;
+  }
+
+  /**
+   * @return the longest GC pause of any node, in milliseconds (known once the cluster has stopped).
+   */
+  public double getMaxGcPauseMillis() {
+    return mMaxGcPauseMillis;
+  }
+
+  /**
+   * @return the IP addresses of the nodes currently in this cluster.
+   */
+  public List<String> getNodeAddresses() {
+    List<String> addresses = Lists.newArrayList();
+    for (MiniCassandraClusterNode node : mNodes) {
+      addresses.add(node.getAddress());
+    }
+    return addresses;
+  }
+
+  /**
+   * @return the report of measurements taken while the cluster runs.
+   */
+  public CassandraRunReport getReport() {
+    return mReport;
+  }
+
+  /**
+   * Looks up a node by its id.
+   *
+   * @param nodeId Id of the node.
+   * @return the node.
+   * @throws IllegalArgumentException if there is no such node.
+   */
+  public MiniCassandraClusterNode getNode(int nodeId) {
+    for (MiniCassandraClusterNode node : mNodes) {
+      if (node.getNodeId() == nodeId) {
+        return node;
+      }
+    }
+    throw new IllegalArgumentException("No Cassandra node with id " + nodeId + ".");
+  }
+
   private List<String> getSeeds() {
     List<String> seeds = Lists.newArrayList();
+    for (int nodeNum = 0; nodeNum < mCassandraConfiguration.getNumNodes(); nodeNum++) {
+      seeds.add(getAddress(nodeNum));
+    }
+    return seeds;
+  }
+
+  /**
+   * Gets the seeds for a node joining the running cluster: the nodes still running, since the
+   * initial nodes may have been decommissioned or removed since.
+   *
+   * @return the IP addresses of the running nodes, or of the initial nodes if none is running.
+   */
+  private List<String> getLiveSeeds() {
+    List<String> seeds = Lists.newArrayList();
+    for (MiniCassandraClusterNode node : mNodes) {
+      if (node.isRunning()) {
+        seeds.add(node.getAddress());
+      }
+    }
+    return seeds.isEmpty() ? getSeeds() : seeds;
+  }
 
+  /**
+   * Computes the IP address for a node: the initial IP address plus the node's number.
+   *
+   * @param nodeNum Number of the node.
+   * @return the IP address for the node.
+   */
+  private String getAddress(int nodeNum) {
     // Get the base of the IP address.
     List<String> ipComponents = Lists.newArrayList(
         Splitter.on(".").split(mCassandraConfiguration.getInitialIpAddress())
@@ -55,16 +194,17 @@ public class MiniCassandraCluster extends MavenLogged {
           mCassandraConfiguration.getInitialIpAddress() +
           " is not a legal IP address.");
     }
-
-    for (int nodeNum = 0; nodeNum < mCassandraConfiguration.getNumNodes(); nodeNum++) {
-      seeds.add(String.format("%s.%s.%s.%s",
-          ipComponents.get(0),
-          ipComponents.get(1),
-          ipComponents.get(2),
-          nodeNum + ipStart
-          ));
+    if (nodeNum + ipStart > 255) {
+      throw new IllegalArgumentException("No IP address left for node " + nodeNum + " after " +
+          mCassandraConfiguration.getInitialIpAddress() + ".");
     }
-    return seeds;
+
+    return String.format("%s.%s.%s.%s",
+        ipComponents.get(0),
+        ipComponents.get(1),
+        ipComponents.get(2),
+        nodeNum + ipStart
+        );
   }
 
   /**
@@ -117,18 +257,28 @@ public class MiniCassandraCluster extends MavenLogged {
   /**
    * Set up the Cassandra integration test directory, along with whatever per-node setup is
    * necessary.
+   *
+   * A directory left over from a previous run is renamed aside and deleted on a background thread,
+   * and the nodes are set up in parallel, so startup does not wait on the filesystem.
    */
-  private void initializeCassandraDirectories() {
+  private void initializeCassandraDirectories() throws Exception {
     final File cassandraRootDir = mCassandraConfiguration.getCassandraDir();
 
-    // Delete the existing directory, if it exists.
+    // Move the existing directory out of the way, if it exists.
     if (cassandraRootDir.exists()) {
-      try {
-        org.apache.commons.io.FileUtils.forceDelete(cassandraRootDir);
-      } catch (IOException ioe) {
-        throw new RuntimeException("Could not create root Cassandra dir " + cassandraRootDir);
+      final File trashDir = new File(cassandraRootDir.getParentFile(),
+          cassandraRootDir.getName() + TRASH_SUFFIX + System.currentTimeMillis());
+      if (!cassandraRootDir.renameTo(trashDir)) {
+        getLog().warn("Could not move " + cassandraRootDir + " aside; deleting it in place.");
+        try {
+          org.apache.commons.io.FileUtils.forceDelete(cassandraRootDir);
+        } catch (IOException ioe) {
+          throw new RuntimeException("Could not create root Cassandra dir " + cassandraRootDir);
+        }
       }
     }
+    // Also picks up directories that earlier builds did not get around to deleting.
+    deleteTrashInBackground(cassandraRootDir);
 
     // Create root directory.
     if (!cassandraRootDir.mkdir()) {
@@ -136,11 +286,69 @@ public class MiniCassandraCluster extends MavenLogged {
     }
 
     // Set up all of the different conf directories.
-    for (MiniCassandraClusterNode node : mNodes) {
-      node.setup();
+    final ExecutorService setupExecutor = Executors.newFixedThreadPool(
+        Math.min(mNodes.size(), Runtime.getRuntime().availableProcessors()));
+    try {
+      List<Future<?>> setups = Lists.newArrayList();
+      for (final MiniCassandraClusterNode node : mNodes) {
+        setups.add(setupExecutor.submit(new Runnable() {
+          @Override
+          public void run() {
+            node.setup();
+          }
+        }));
+      }
+      for (Future<?> setup : setups) {
+        try {
+          setup.get();
+        } catch (ExecutionException ee) {
+          Throwables.propagateIfPossible(ee.getCause(), Exception.class);
+          throw ee;
+        }
+      }
+    } finally {
+      setupExecutor.shutdownNow();
     }
   }
 
+  /**
+   * Deletes, on a background thread, every directory that was moved aside from the given
+   * Cassandra directory by this or an earlier build.
+   *
+   * @param cassandraRootDir The Cassandra directory.
+   */
+  private void deleteTrashInBackground(File cassandraRootDir) {
+    final String trashPrefix = cassandraRootDir.getName() + TRASH_SUFFIX;
+    final File[] trashDirs = cassandraRootDir.getParentFile().listFiles(new FileFilter() {
+      @Override
+      public boolean accept(File file) {
+        return file.isDirectory() && file.getName().startsWith(trashPrefix);
+      }
+    });
+    if (null == trashDirs || trashDirs.length == 0) {
+      return;
+    }
+    final Log log = getLog();
+    Thread deleter = new Thread("cassandra-dir-deleter") {
+      @Override
+      public void run() {
+        for (File trashDir : trashDirs) {
+          final long startTime = System.currentTimeMillis();
+          try {
+            org.apache.commons.io.FileUtils.deleteDirectory(trashDir);
+            log.debug(String.format("Deleted %s in %d ms.",
+                trashDir, System.currentTimeMillis() - startTime));
+          } catch (IOException ioe) {
+            log.warn("Could not delete old Cassandra dir " + trashDir + ": " + ioe.getMessage());
+          }
+        }
+      }
+    };
+    // If the build finishes first, whatever is left gets deleted by the next build.
+    deleter.setDaemon(true);
+    deleter.start();
+  }
+
   /**
    * Create the per-node `MiniCassandraClusterNode` objects for this `MiniCassandraCluster`.
    */
@@ -148,17 +356,20 @@ public class MiniCassandraCluster extends MavenLogged {
     // TODO: Check that the number of nodes is legal...
     List<String> seeds = getSeeds();
 
-    mNodes = Lists.newArrayList();
+    mNodes = new CopyOnWriteArrayList<MiniCassandraClusterNode>();
 
     // Create a separate object for each node in the cluster.
     for (int nodeNum = 0; nodeNum < mCassandraConfiguration.getNumNodes(); nodeNum++) {
-      mNodes.add(new MiniCassandraClusterNode(
+      MiniCassandraClusterNode node = new MiniCassandraClusterNode(
               getLog(),
               nodeNum,
               seeds.get(nodeNum),
               seeds,
-              mCassandraConfiguration));
+              mCassandraConfiguration);
+      node.setCpuIsolation(mCpuIsolation);
+      mNodes.add(node);
     }
+    mNextNodeId = mCassandraConfiguration.getNumNodes();
   }
 
   /**
@@ -171,12 +382,37 @@ public class MiniCassandraCluster extends MavenLogged {
       throw new RuntimeException("Cluster already running.");
     }
 
+    final long startTime = System.currentTimeMillis();
+
+    // Split the CPUs among the client and the nodes, if asked to.
+    mCpuIsolation = new CpuIsolation(getLog(), mCassandraConfiguration);
+    if (mCpuIsolation.isEnabled()) {
+      mCpuIsolation.confineClient();
+      mReport.add("CPUs", "client: " + CpuIsolation.format(mCpuIsolation.getClientCpus()));
+      for (int nodeNum = 0; nodeNum < mCassandraConfiguration.getNumNodes(); nodeNum++) {
+        mReport.add("CPUs", String.format(
+            "node-%d: %s", nodeNum, CpuIsolation.format(mCpuIsolation.getNodeCpus(nodeNum))));
+      }
+    }
+
     // Create the actual node objects (each has a different node ID, IP address, etc.)
     createNodeObjects();
 
     // Create Yaml, properties files, etc. for each node.
     initializeCassandraDirectories();
 
+    // Reuse the data of an earlier build that loaded the same schema and fixtures, if cached.
+    final SnapshotCache snapshotCache = createSnapshotCache();
+    final String snapshotKey =
+        null != snapshotCache ? SnapshotCache.computeKey(mCassandraConfiguration) : null;
+    final boolean restored = null != snapshotCache && snapshotCache.contains(snapshotKey);
+    if (restored) {
+      final long restoreStartTime = System.currentTimeMillis();
+      snapshotCache.restore(snapshotKey, mNodes);
+      mReport.add("Fixtures", String.format("restored snapshot %s in %.1f s",
+          snapshotKey, (System.currentTimeMillis() - restoreStartTime) / 1000.0));
+    }
+
     // We should not yet be able to connect to the cluster!
     if (ableToConnectToCluster()) {
       throw new RuntimeException("Failure during sanity check before starting Cassandra cluster.");
@@ -189,12 +425,20 @@ public class MiniCassandraCluster extends MavenLogged {
 
     mIsRunning = true;
 
+    // Sample resource usage from the start, so that startup is covered too.
+    if (mCassandraConfiguration.getResourceSampleIntervalMillis() > 0
+        && new File("/proc/self/status").isFile()) {
+      mResourceSampler = new NodeResourceSampler(
+          getLog(), this, mCassandraConfiguration.getResourceSampleIntervalMillis());
+      mResourceSampler.start();
+    }
+
     // Wait for the cluster to start running.
 
     // Allow a maximum of 5 minutes to start the entire cluster.
-    // Poll every 10 seconds.
-    final int maxNumTries = 30;
-    final int sleepTimeSeconds = 10;
+    // Poll every second, so that the startup time measured is accurate.
+    final int maxNumTries = 300;
+    final int sleepTimeSeconds = 1;
     boolean connected = false;
     boolean alive = false;
     for (int numTries = 0; numTries < maxNumTries; numTries++) {
@@ -212,10 +456,558 @@ public class MiniCassandraCluster extends MavenLogged {
       throw new RuntimeException("At least one of the Cassandra processes died during startup.");
     }
     if (!connected) {
-      throw new RuntimeException("Cassandra cluster should be up now, but cannot connect!");
+      List<String> stalled = Lists.newArrayList();
+      for (MiniCassandraClusterNode node : mNodes) {
+        node.dumpLogTail("Cannot connect to Cassandra cluster after startup");
+        final StartupWatchdog watchdog = node.getStartupWatchdog();
+        if (null != watchdog && !watchdog.isComplete()) {
+          stalled.add(String.format("%s stalled in phase '%s'", node, watchdog.getCurrentPhase()));
+        }
+      }
+      throw new RuntimeException("Cassandra cluster should be up now, but cannot connect!"
+          + (stalled.isEmpty() ? "" : " (" + Joiner.on("; ").join(stalled) + ")"));
     } else {
       getLog().info("Test connection to Cassandra successful -- cluster is up!");
     }
+    // The first node to accept connections may be alone: wait for every node to be NORMAL, and
+    // for the ring to list them all, before recording the startup and the tokens.
+    final long deadline = startTime + TimeUnit.SECONDS.toMillis(maxNumTries * sleepTimeSeconds);
+    for (MiniCassandraClusterNode node : mNodes) {
+      if (!node.waitUntilNormal(Math.max(1000, deadline - System.currentTimeMillis()))) {
+        throw new RuntimeException("Cassandra node " + node + " did not reach NORMAL on startup.");
+      }
+    }
+    while (!ringListsAllNodes()) {
+      if (System.currentTimeMillis() > deadline) {
+        throw new RuntimeException("The Cassandra ring does not list every node after startup.");
+      }
+      Thread.sleep(1000 * sleepTimeSeconds);
+    }
+    mStartupMillis = System.currentTimeMillis() - startTime;
+    mReport.add("Startup", String.format(
+        "%d node(s) ready in %.1f s", mNodes.size(), mStartupMillis / 1000.0));
+    for (MiniCassandraClusterNode node : mNodes) {
+      if (null != node.getStartupWatchdog()) {
+        mReport.add("Startup", node + ": " + node.getStartupWatchdog().getPhaseSummary());
+      }
+    }
+    recordTokens();
+    updateDescriptor();
+
+    if (!restored) {
+      loadFixtures(snapshotCache, snapshotKey);
+    }
+    for (MiniCassandraClusterNode node : mNodes) {
+      enableTracing(node);
+    }
+
+    if (mCassandraConfiguration.isControlEnabled()) {
+      mControlServer = new MiniCassandraClusterControlServer(
+          getLog(), this, mCassandraConfiguration);
+      mControlServer.start();
+    }
+  }
+
+  /**
+   * @return the snapshot cache, or null if there is nothing to cache or caching is turned off.
+   */
+  private SnapshotCache createSnapshotCache() {
+    if (!mCassandraConfiguration.isSnapshotCacheEnabled()
+        || (mCassandraConfiguration.getSchemaFiles().isEmpty()
+            && mCassandraConfiguration.getFixtureFiles().isEmpty())) {
+      return null;
+    }
+    return new SnapshotCache(
+        getLog(),
+        mCassandraConfiguration.getSnapshotCacheDir(),
+        mCassandraConfiguration.getSnapshotCacheMaxSizeMb() * 1024 * 1024);
+  }
+
+  /**
+   * Runs the schema and fixture scripts against the running cluster, and stores the result in
+   * the snapshot cache.
+   *
+   * @param snapshotCache The snapshot cache, or null to not cache the result.
+   * @param snapshotKey Cache key of the result.
+   * @throws IOException if a script cannot be read.
+   */
+  private void loadFixtures(SnapshotCache snapshotCache, String snapshotKey) throws IOException {
+    final long startTime = System.currentTimeMillis();
+    final int numScripts = runScripts(mCassandraConfiguration);
+    if (0 == numScripts) {
+      return;
+    }
+    mReport.add("Fixtures", String.format("ran %d script(s) in %.1f s",
+        numScripts, (System.currentTimeMillis() - startTime) / 1000.0));
+
+    if (null != snapshotCache) {
+      final long storeStartTime = System.currentTimeMillis();
+      try {
+        snapshotCache.store(snapshotKey, mNodes);
+        mReport.add("Fixtures", String.format("stored snapshot %s in %.1f s",
+            snapshotKey, (System.currentTimeMillis() - storeStartTime) / 1000.0));
+      } catch (IOException ioe) {
+        getLog().warn("Unable to store the loaded data in the snapshot cache: " + ioe.getMessage());
+      }
+    }
+  }
+  /**
+   * Runs the schema and fixture scripts of a module that attached to this cluster, which was
+   * started (and loaded) with another module's configuration.
+   *
+   * @param module Id of the module.
+   * @param config Configuration of the module, with its scripts and keyspace prefix.
+   * @throws IOException if a script cannot be read.
+   */
+  public synchronized void loadModuleFixtures(String module, CassandraConfiguration config)
+      throws IOException {
+    Preconditions.checkState(mIsRunning, "Cannot run scripts on a cluster that is not running.");
+    final long startTime = System.currentTimeMillis();
+    final int numScripts = runScripts(config);
+    if (numScripts > 0) {
+      mReport.add("Fixtures", String.format("%s: ran %d script(s) in %.1f s",
+          module, numScripts, (System.currentTimeMillis() - startTime) / 1000.0));
+    }
+  }
+
+  /**
+   * Runs the schema and fixture scripts of a configuration against the running cluster, with
+   * the configuration's keyspace prefix substituted into them.
+   *
+   * @param config Configuration holding the scripts.
+   * @return the number of scripts run.
+   * @throws IOException if a script cannot be read.
+   */
+  private int runScripts(CassandraConfiguration config) throws IOException {
+    List<File> scripts = Lists.newArrayList(config.getSchemaFiles());
+    scripts.addAll(config.getFixtureFiles());
+    if (scripts.isEmpty()) {
+      return 0;
+    }
+
+    final Map<String, String> variables = CqlScript.getVariables(config);
+    Cluster cluster = Cluster.builder()
+        .addContactPoints(getNodeAddresses().toArray(new String[mNodes.size()]))
+        .withPort(mCassandraConfiguration.getPortNativeTransport())
+        .build();
+    try {
+      Session session = cluster.connect();
+      for (File script : scripts) {
+        getLog().info("Running " + script);
+        new CqlScript(script, variables).execute(session);
+      }
+    } finally {
+      cluster.close();
+    }
+    return scripts.size();
+  }
+
+
+  /**
+   * Adds a new node to the running cluster, using the next free IP address and the running
+   * nodes as seeds, and blocks until it has bootstrapped and reports NORMAL.  A node that does not
+   * finish bootstrapping is killed and not added.
+   *
+   * @return the new node.
+   * @throws Exception if the node cannot be started or does not join the ring.
+   */
+  public synchronized MiniCassandraClusterNode addNode() throws Exception {
+    Preconditions.checkState(mIsRunning, "Cannot add a node to a cluster that is not running.");
+    final int nodeId = mNextNodeId++;
+    MiniCassandraClusterNode node = new MiniCassandraClusterNode(
+        getLog(),
+        nodeId,
+        getAddress(nodeId),
+        getLiveSeeds(),
+        mCassandraConfiguration);
+    node.setCpuIsolation(mCpuIsolation);
+    node.setup();
+
+    final long startTime = System.currentTimeMillis();
+    node.start();
+    if (!node.waitUntilNormal(TimeUnit.SECONDS.toMillis(SCALE_TIMEOUT_SECONDS))) {
+      // Do not leave a half-joined node running for clients and reports to pick up.
+      node.kill();
+      node.waitUntilStopped(TimeUnit.SECONDS.toMillis(SCALE_TIMEOUT_SECONDS));
+      throw new RuntimeException("New node " + node + " did not finish bootstrapping.");
+    }
+    mNodes.add(node);
+    final long elapsed = System.currentTimeMillis() - startTime;
+    recordStreaming("bootstrap", node, elapsed, node.getDataSize());
+    enableTracing(node);
+    updateDescriptor();
+    return node;
+  }
+
+  /**
+   * Decommissions a node, streaming its data to the rest of the cluster, then shuts it down and
+   * removes it from the cluster.  Blocks until done.
+   *
+   * @param nodeId Id of the node to decommission.
+   * @throws Exception if the decommission fails.
+   */
+  public synchronized void decommissionNode(int nodeId) throws Exception {
+    MiniCassandraClusterNode node = getNode(nodeId);
+    final long othersSizeBefore = getDataSizeExcluding(node);
+
+    final long startTime = System.currentTimeMillis();
+    CassandraJmxClient jmx = node.openJmxClient();
+    try {
+      jmx.getStorageService().decommission();
+    } finally {
+      jmx.close();
+    }
+    final long elapsed = System.currentTimeMillis() - startTime;
+
+    node.stop();
+    if (!node.waitUntilStopped(TimeUnit.SECONDS.toMillis(SCALE_TIMEOUT_SECONDS))) {
+      throw new RuntimeException("Decommissioned node " + node + " did not shut down.");
+    }
+    mNodes.remove(node);
+    recordStreaming("decommission", node, elapsed, getDataSizeExcluding(node) - othersSizeBefore);
+    updateDescriptor();
+  }
+
+  /**
+   * Kills a node and removes it from the ring (as with `nodetool removenode`), so that the rest of
+   * the cluster re-replicates its data.  Blocks until done.
+   *
+   * @param nodeId Id of the node to remove.
+   * @throws Exception if the removal fails.
+   */
+  public synchronized void removeNode(int nodeId) throws Exception {
+    MiniCassandraClusterNode node = getNode(nodeId);
+    MiniCassandraClusterNode coordinator = null;
+    for (MiniCassandraClusterNode other : mNodes) {
+      if (other != node && other.isNormal()) {
+        coordinator = other;
+        break;
+      }
+    }
+    if (null == coordinator) {
+      throw new IllegalStateException("No live node left to remove " + node + " from the ring.");
+    }
+
+    final long othersSizeBefore = getDataSizeExcluding(node);
+    CassandraJmxClient jmx = coordinator.openJmxClient();
+    try {
+      StorageServiceMBean storageService = jmx.getStorageService();
+      final String hostId = storageService.getHostIdMap().get(node.getAddress());
+      if (null == hostId) {
+        throw new IllegalStateException("Node " + node + " is not part of the ring.");
+      }
+      if (node.isRunning()) {
+        node.kill();
+        if (!node.waitUntilStopped(TimeUnit.SECONDS.toMillis(SCALE_TIMEOUT_SECONDS))) {
+          throw new RuntimeException("Node " + node + " did not die.");
+        }
+      }
+      mNodes.remove(node);
+
+      final long startTime = System.currentTimeMillis();
+      storageService.removeNode(hostId);
+      final long elapsed = System.currentTimeMillis() - startTime;
+      recordStreaming("removenode", node, elapsed, getDataSizeExcluding(node) - othersSizeBefore);
+    } finally {
+      jmx.close();
+    }
+    updateDescriptor();
+  }
+
+  /**
+   * Kills nodes uncleanly (SIGKILL, so that they must replay their commit logs), then starts them
+   * again with the same directories, and records in the run report how long each took to recover.
+   * Blocks until every node is back to NORMAL.
+   *
+   * <p>The host keeps running, so commit log writes still in the page cache survive the kill and
+   * nothing is lost, whatever the commit log sync settings.  Only a crash of the host itself loses
+   * the writes that were not synced.</p>
+   *
+   * @param nodeIds Ids of the nodes to crash.
+   * @throws Exception if a node does not die or does not recover.
+   */
+  public synchronized void crashAndRecover(List<Integer> nodeIds) throws Exception {
+    Preconditions.checkState(mIsRunning, "Cannot crash nodes of a cluster that is not running.");
+    final long timeoutMillis = TimeUnit.SECONDS.toMillis(SCALE_TIMEOUT_SECONDS);
+    List<MiniCassandraClusterNode> crashed = Lists.newArrayList();
+    for (int nodeId : nodeIds) {
+      crashed.add(getNode(nodeId));
+    }
+
+    // Kill them all before restarting any, as a power loss would.
+    List<Long> commitLogSizes = Lists.newArrayList();
+    for (MiniCassandraClusterNode node : crashed) {
+      node.kill();
+    }
+    for (MiniCassandraClusterNode node : crashed) {
+      if (!node.waitUntilStopped(timeoutMillis)) {
+        throw new RuntimeException("Node " + node + " did not die.");
+      }
+      commitLogSizes.add(node.getCommitLogSize());
+    }
+
+    final String section = "Crash recovery";
+    mReport.add(section, String.format("commit log sync %s, segments of %s",
+        describeCommitLogSync(),
+        mCassandraConfiguration.getCommitLogSegmentSizeMb() > 0
+            ? mCassandraConfiguration.getCommitLogSegmentSizeMb() + " MB"
+            : "the default size"));
+    for (int i = 0; i < crashed.size(); i++) {
+      final MiniCassandraClusterNode node = crashed.get(i);
+      final long startTime = System.currentTimeMillis();
+      node.start();
+      if (!node.waitUntilNormal(timeoutMillis)) {
+        throw new RuntimeException("Node " + node + " did not recover from the crash.");
+      }
+      final long elapsed = System.currentTimeMillis() - startTime;
+
+      final StartupWatchdog watchdog = node.getStartupWatchdog();
+      final long replayMillis = null != watchdog ? watchdog.getReplayMillis() : -1;
+      final long mutations = null != watchdog ? watchdog.getReplayedMutations() : -1;
+      final String entry = String.format("%s: %.1f MB of commit log, back to NORMAL in %.1f s, %s",
+          node,
+          commitLogSizes.get(i) / (1024.0 * 1024.0),
+          elapsed / 1000.0,
+          replayMillis >= 0 && mutations >= 0
+              ? String.format("replayed %d mutations in %.1f s", mutations, replayMillis / 1000.0)
+              : "commit log replay not timed (the node does not log to the console)");
+      getLog().info("Crash recovery of " + entry);
+      mReport.add(section, entry);
+      enableTracing(node);
+    }
+    updateDescriptor();
+  }
+
+  /**
+   * @return the commit log sync mode the nodes run with, as given to the run report.
+   */
+  private String describeCommitLogSync() {
+    if ("batch".equals(mCassandraConfiguration.getCommitLogSync())) {
+      return "batch (window " + mCassandraConfiguration.getCommitLogSyncBatchWindowMillis()
+          + " ms)";
+    }
+    return "periodic (every " + (mCassandraConfiguration.getCommitLogSyncPeriodMillis() > 0
+        ? mCassandraConfiguration.getCommitLogSyncPeriodMillis() + " ms"
+        : "10000 ms, the default") + ")";
+  }
+
+  /**
+   * Gets the tokens of the ring, as seen by the first node.
+   *
+   * @return all tokens in the ring, in ascending order.
+   * @throws IOException if the first node cannot be reached over JMX.
+   */
+  public List<Long> getRingTokens() throws IOException {
+    CassandraJmxClient jmx = mNodes.get(0).openJmxClient();
+    try {
+      List<Long> tokens = Lists.newArrayList();
+      for (String token : jmx.getStorageService().getTokenToEndpointMap().keySet()) {
+        tokens.add(Long.parseLong(token));
+      }
+      Collections.sort(tokens);
+      return tokens;
+    } finally {
+      jmx.close();
+    }
+  }
+
+  /**
+   * @return whether the ring, as seen by the first node, lists every node of the cluster.
+   */
+  private boolean ringListsAllNodes() {
+    try {
+      CassandraJmxClient jmx = mNodes.get(0).openJmxClient();
+      try {
+        final Set<String> endpoints =
+            Sets.newHashSet(jmx.getStorageService().getTokenToEndpointMap().values());
+        for (MiniCassandraClusterNode node : mNodes) {
+          if (!endpoints.contains(node.getAddress())) {
+            return false;
+          }
+        }
+        return true;
+      } finally {
+        jmx.close();
+      }
+    } catch (IOException ioe) {
+      return false;
+    }
+  }
+
+  /**
+   * Adds the number of tokens and the share of the ring owned by each node to the run report.
+   */
+  private void recordTokens() {
+    try {
+      CassandraJmxClient jmx = mNodes.get(0).openJmxClient();
+      try {
+        StorageServiceMBean storageService = jmx.getStorageService();
+        final TokenAllocation allocation = null != mCassandraConfiguration.getTokenAllocation()
+            ? mCassandraConfiguration.getTokenAllocation()
+            : TokenAllocation.RANDOM;
+        mReport.add("Tokens", String.format("%s allocation, %d token ranges in the ring",
+            allocation.name().toLowerCase(), storageService.getTokenToEndpointMap().size()));
+        for (Map.Entry<InetAddress, Float> ownership
+            : storageService.getOwnership().entrySet()) {
+          mReport.add("Tokens", String.format("%s owns %.2f%% of the ring",
+              ownership.getKey().getHostAddress(), 100.0 * ownership.getValue()));
+        }
+      } finally {
+        jmx.close();
+      }
+    } catch (IOException ioe) {
+      getLog().warn("Unable to read the token ring over JMX: " + ioe.getMessage());
+    }
+  }
+
+  /**
+   * @return the connection details of the cluster for clients, or null if it is not up yet.
+   */
+  public ClusterDescriptor getDescriptor() {
+    return mDescriptor;
+  }
+
+  /**
+   * Reads the topology of the cluster and writes the descriptor for clients.
+   */
+  private void updateDescriptor() {
+    try {
+      ClusterDescriptor descriptor = ClusterDescriptor.describe(this);
+      final File file = descriptor.write(mCassandraConfiguration.getCassandraDir());
+      getLog().info("Wrote the cluster descriptor for clients to " + file);
+      mDescriptor = descriptor;
+    } catch (IOException ioe) {
+      getLog().warn("Unable to write the cluster descriptor: " + ioe.getMessage());
+    }
+  }
+
+  /**
+   * Starts a stopped node again with the same directories, and blocks until it is back to NORMAL.
+   * The trace probability does not survive the node's JVM, so it is set again.
+   *
+   * @param node The node.
+   * @param timeoutMillis Maximum time to wait for the node to get back to NORMAL.
+   * @return whether the node got back to NORMAL within the timeout.
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  public boolean startNode(MiniCassandraClusterNode node, long timeoutMillis)
+      throws InterruptedException {
+    Preconditions.checkArgument(!node.isRunning(), "Node %s is already running.", node);
+    node.start();
+    return enableTracingIfNormal(node, node.waitUntilNormal(timeoutMillis));
+  }
+
+  /**
+   * Stops (or kills) a node and starts it again with the same directories, and blocks until it is
+   * back to NORMAL.  The trace probability does not survive the node's JVM, so it is set again.
+   *
+   * @param node The node.
+   * @param forcibly Whether to kill the process rather than shut it down gracefully.
+   * @param timeoutMillis Maximum time to wait for each of the shutdown and the restart.
+   * @return whether the node got back to NORMAL within the timeout.
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  public boolean restartNode(MiniCassandraClusterNode node, boolean forcibly, long timeoutMillis)
+      throws InterruptedException {
+    return enableTracingIfNormal(node, node.restart(forcibly, timeoutMillis));
+  }
+
+  /**
+   * @param node A node that was (re)started.
+   * @param normal Whether the node got back to NORMAL.
+   * @return whether the node got back to NORMAL.
+   */
+  private boolean enableTracingIfNormal(MiniCassandraClusterNode node, boolean normal) {
+    if (normal) {
+      enableTracing(node);
+    }
+    return normal;
+  }
+
+  /**
+   * Makes a node trace requests with the configured probability, if any.
+   *
+   * @param node The node.
+   */
+  private void enableTracing(MiniCassandraClusterNode node) {
+    final double probability = mCassandraConfiguration.getTraceProbability();
+    if (probability <= 0) {
+      return;
+    }
+    try {
+      CassandraJmxClient jmx = node.openJmxClient();
+      try {
+        jmx.getStorageService().setTraceProbability(probability);
+      } finally {
+        jmx.close();
+      }
+    } catch (IOException ioe) {
+      getLog().warn("Unable to turn on tracing on " + node + ": " + ioe.getMessage());
+    }
+  }
+
+  /**
+   * Reads the traces the nodes recorded and adds the slowest statements to the run report.
+   */
+  private void recordSlowQueries() {
+    if (mCassandraConfiguration.getTraceProbability() <= 0) {
+      return;
+    }
+    Cluster cluster = Cluster.builder()
+        .addContactPoints(getNodeAddresses().toArray(new String[mNodes.size()]))
+        .withPort(mCassandraConfiguration.getPortNativeTransport())
+        .build();
+    try {
+      QueryTraceReport traces = new QueryTraceReport(getLog());
+      traces.collect(cluster.connect());
+      getLog().info("Read " + traces.getNumTraces() + " query traces.");
+      traces.addToReport(mReport, mCassandraConfiguration.getSlowQueryReportSize());
+    } catch (RuntimeException re) {
+      // The driver throws unchecked exceptions; a missing report must not fail the shutdown.
+      getLog().warn("Unable to read the query traces: " + re);
+    } finally {
+      cluster.close();
+    }
+  }
+
+  /**
+   * Computes the total size of the data directories of all nodes but one.
+   *
+   * @param excluded The node to leave out.
+   * @return the total size, in bytes.
+   */
+  private long getDataSizeExcluding(MiniCassandraClusterNode excluded) {
+    long total = 0;
+    for (MiniCassandraClusterNode node : mNodes) {
+      if (node != excluded) {
+        total += node.getDataSize();
+      }
+    }
+    return total;
+  }
+
+  /**
+   * Adds the duration and streaming rate of a scaling operation to the run report.
+   *
+   * @param operation Name of the operation.
+   * @param node The node that joined or left.
+   * @param elapsedMillis How long the operation took.
+   * @param bytesStreamed Approximate number of bytes streamed (from on-disk data sizes).
+   */
+  private void recordStreaming(
+      String operation,
+      MiniCassandraClusterNode node,
+      long elapsedMillis,
+      long bytesStreamed) {
+    final double megabytes = Math.max(0, bytesStreamed) / (1024.0 * 1024.0);
+    final double seconds = elapsedMillis / 1000.0;
+    mReport.add("Scaling", String.format(
+        "%s %s: %.1f s, %.1f MB streamed, %.2f MB/s",
+        operation,
+        node,
+        seconds,
+        megabytes,
+        seconds > 0 ? megabytes / seconds : 0.0));
   }
 
   /**
@@ -229,9 +1021,38 @@ public class MiniCassandraCluster extends MavenLogged {
           "Attempting to shut down a cluster, but one was never started in this process.");
       return;
     }
+    if (null != mControlServer) {
+      mControlServer.stop();
+    }
+    recordSlowQueries();
+    if (null != mResourceSampler) {
+      mResourceSampler.stopSampling();
+      for (MiniCassandraClusterNode node : mNodes) {
+        node.getResourceUsage().addToReport(mReport, "Resources " + node);
+      }
+    }
     for (MiniCassandraClusterNode node : mNodes) {
       node.stop();
     }
+    for (MiniCassandraClusterNode node : mNodes) {
+      if (!node.waitUntilStopped(TimeUnit.SECONDS.toMillis(SHUTDOWN_TIMEOUT_SECONDS))) {
+        getLog().warn("Node " + node + " did not shut down within "
+            + SHUTDOWN_TIMEOUT_SECONDS + " seconds; killing it.");
+        node.kill();
+      }
+    }
+    if (null != mCpuIsolation) {
+      mCpuIsolation.releaseClient();
+    }
+    for (MiniCassandraClusterNode node : mNodes) {
+      mMaxGcPauseMillis = Math.max(mMaxGcPauseMillis, node.summarizeGc(mReport));
+      node.summarizeProfile(mReport);
+    }
+    mIsRunning = false;
+    if (!mReport.isEmpty()) {
+      mReport.write(new File(
+          mCassandraConfiguration.getCassandraDir(), CassandraRunReport.REPORT_FILE_NAME));
+    }
   }
 
 }
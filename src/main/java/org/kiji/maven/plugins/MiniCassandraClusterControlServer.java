@@ -0,0 +1,317 @@
+package org.kiji.maven.plugins;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * A small HTTP endpoint, bound to the loopback interface, that lets integration tests control
+ * individual nodes of a running mini Cassandra cluster.
+ *
+ * <p>The address of the endpoint is written to a properties file in the Cassandra directory so
+ * that tests can find it.  Supported requests (all POST, responses are plain text):</p>
+ *
+ * <ul>
+ *   <li><code>/nodes/N/stop</code> - SIGTERM, blocks until the process has exited.</li>
+ *   <li><code>/nodes/N/kill</code> - SIGKILL, blocks until the process has exited.</li>
+ *   <li><code>/nodes/N/pause</code> - SIGSTOP.</li>
+ *   <li><code>/nodes/N/resume</code> - SIGCONT, blocks until the node is NORMAL again.</li>
+ *   <li><code>/nodes/N/start</code> - starts a stopped node, blocks until it is NORMAL.</li>
+ *   <li><code>/nodes/N/restart</code> - SIGTERM and start, blocks until the node is NORMAL.</li>
+ *   <li><code>/nodes/N/decommission</code> - decommissions the node and shuts it down.</li>
+ *   <li><code>/nodes/N/remove</code> - kills the node and removes it from the ring.</li>
+ *   <li><code>/cluster/add</code> - adds a node, blocks until it has bootstrapped.</li>
+ * </ul>
+ *
+ * <p>A GET of <code>/nodes</code> lists every node and its state.  Every blocking request accepts
+ * a <code>timeoutSeconds</code> query parameter (default 300).</p>
+ */
+public class MiniCassandraClusterControlServer extends MavenLogged {
+  /** Name of the properties file that advertises the endpoint. */
+  public static final String PROPERTIES_FILE_NAME = "cassandra-control.properties";
+
+  /** Default time to wait for a node to change state. */
+  private static final long DEFAULT_TIMEOUT_SECONDS = 300;
+
+  /** The cluster whose nodes we control. */
+  private final MiniCassandraCluster mCluster;
+
+  /** Container class with all of the user-defined configuration for the Cassandra cluster. */
+  private final CassandraConfiguration mCassandraConfiguration;
+
+  /** The HTTP server, once started. */
+  private HttpServer mServer;
+
+  /** Threads serving requests (so one slow restart does not hold up the others). */
+  private ExecutorService mExecutor;
+
+  /**
+   * Creates a control server for a cluster.  Call {@link #start()} to start serving.
+   *
+   * @param log The maven log.
+   * @param cluster The cluster to control.
+   * @param configuration Container object with all user-defined configuration for the cluster.
+   */
+  public MiniCassandraClusterControlServer(
+      Log log,
+      MiniCassandraCluster cluster,
+      CassandraConfiguration configuration) {
+    super(log);
+    mCluster = cluster;
+    mCassandraConfiguration = configuration;
+  }
+
+  /**
+   * Starts serving requests and writes out the properties file with the endpoint's address.
+   *
+   * @throws IOException if the server cannot bind or the properties file cannot be written.
+   */
+  public void start() throws IOException {
+    final InetAddress loopback = InetAddress.getByName("127.0.0.1");
+    mServer = HttpServer.create(
+        new InetSocketAddress(loopback, mCassandraConfiguration.getPortControl()), 0);
+    mServer.createContext("/nodes", new NodesHandler());
+    mServer.createContext("/cluster", new ClusterHandler());
+    mExecutor = Executors.newCachedThreadPool();
+    mServer.setExecutor(mExecutor);
+    mServer.start();
+
+    final int port = mServer.getAddress().getPort();
+    final String url = String.format("http://%s:%d/", loopback.getHostAddress(), port);
+    StringBuilder sb = new StringBuilder();
+    sb.append("cassandra.control.host=").append(loopback.getHostAddress()).append("\n");
+    sb.append("cassandra.control.port=").append(port).append("\n");
+    sb.append("cassandra.control.url=").append(url).append("\n");
+    File propertiesFile = getPropertiesFile();
+    FileUtils.fileWrite(propertiesFile.getAbsolutePath(), sb.toString());
+    getLog().info("Node control endpoint listening at " + url + " (see " + propertiesFile + ")");
+  }
+
+  /**
+   * Stops serving requests.
+   */
+  public void stop() {
+    if (null == mServer) {
+      return;
+    }
+    mServer.stop(0);
+    mExecutor.shutdownNow();
+    mServer = null;
+    getLog().info("Node control endpoint stopped.");
+  }
+
+  /**
+   * @return the properties file that advertises the endpoint.
+   */
+  public File getPropertiesFile() {
+    return new File(mCassandraConfiguration.getCassandraDir(), PROPERTIES_FILE_NAME);
+  }
+
+  /**
+   * Handles requests under <code>/nodes</code>.
+   */
+  private class NodesHandler implements HttpHandler {
+    /** {@inheritDoc} */
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      int status;
+      String body;
+      try {
+        List<String> path = Lists.newArrayList(Splitter.on('/').omitEmptyStrings()
+            .split(exchange.getRequestURI().getPath()));
+        if (path.size() == 1 && "GET".equals(exchange.getRequestMethod())) {
+          status = 200;
+          body = describeNodes();
+        } else if (path.size() == 3 && "POST".equals(exchange.getRequestMethod())) {
+          long timeoutMillis = TimeUnit.SECONDS.toMillis(getTimeoutSeconds(exchange));
+          MiniCassandraClusterNode node = mCluster.getNode(Integer.parseInt(path.get(1)));
+          body = performAction(node, path.get(2), timeoutMillis);
+          status = 200;
+        } else {
+          status = 404;
+          body = "Unknown request " + exchange.getRequestMethod() + " "
+              + exchange.getRequestURI() + "\n";
+        }
+      } catch (NumberFormatException nfe) {
+        status = 400;
+        body = "Bad number in request: " + nfe.getMessage() + "\n";
+      } catch (IllegalArgumentException iae) {
+        status = 400;
+        body = iae.getMessage() + "\n";
+      } catch (Exception e) {
+        status = getErrorStatus(e);
+        body = e.toString() + "\n";
+      }
+      respond(exchange, status, body);
+    }
+  }
+
+  /**
+   * Handles requests under <code>/cluster</code>.
+   */
+  private class ClusterHandler implements HttpHandler {
+    /** {@inheritDoc} */
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      int status;
+      String body;
+      try {
+        if ("/cluster/add".equals(exchange.getRequestURI().getPath())
+            && "POST".equals(exchange.getRequestMethod())) {
+          final long startTime = System.currentTimeMillis();
+          MiniCassandraClusterNode node = mCluster.addNode();
+          status = 200;
+          body = String.format(
+              "OK add %s %d ms%n", node, System.currentTimeMillis() - startTime);
+        } else {
+          status = 404;
+          body = "Unknown request " + exchange.getRequestMethod() + " "
+              + exchange.getRequestURI() + "\n";
+        }
+      } catch (Exception e) {
+        status = getErrorStatus(e);
+        body = e.toString() + "\n";
+      }
+      respond(exchange, status, body);
+    }
+  }
+
+  /**
+   * Picks the HTTP status for a failed request (and logs unexpected failures).
+   *
+   * @param e What went wrong.
+   * @return the HTTP status code.
+   */
+  private int getErrorStatus(Exception e) {
+    if (e instanceof InterruptedException) {
+      Thread.currentThread().interrupt();
+      return 503;
+    }
+    getLog().warn("Node control request failed.", e);
+    return 500;
+  }
+
+  /**
+   * Sends a plain-text response.
+   *
+   * @param exchange The request.
+   * @param status HTTP status code.
+   * @param body Response body.
+   * @throws IOException if the response cannot be sent.
+   */
+  private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+    final byte[] bytes = body.getBytes(Charsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+    exchange.sendResponseHeaders(status, bytes.length);
+    OutputStream out = exchange.getResponseBody();
+    try {
+      out.write(bytes);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Reads the <code>timeoutSeconds</code> query parameter of a request.
+   *
+   * @param exchange The request.
+   * @return the requested timeout, or the default if there is none.
+   */
+  private static long getTimeoutSeconds(HttpExchange exchange) {
+    String query = exchange.getRequestURI().getQuery();
+    if (null == query) {
+      return DEFAULT_TIMEOUT_SECONDS;
+    }
+    Map<String, String> params = Maps.newHashMap(
+        Splitter.on('&').omitEmptyStrings().withKeyValueSeparator('=').split(query));
+    return params.containsKey("timeoutSeconds")
+        ? Long.parseLong(params.get("timeoutSeconds"))
+        : DEFAULT_TIMEOUT_SECONDS;
+  }
+
+  /**
+   * @return one line per node with its id, address and state.
+   */
+  private String describeNodes() {
+    StringBuilder sb = new StringBuilder();
+    for (MiniCassandraClusterNode node : mCluster.getNodes()) {
+      final String state;
+      if (!node.isRunning()) {
+        state = "DOWN";
+      } else if (node.isPaused()) {
+        state = "PAUSED";
+      } else if (node.isNormal()) {
+        state = "NORMAL";
+      } else {
+        state = "STARTING";
+      }
+      sb.append(String.format("%d %s %s%n", node.getNodeId(), node.getAddress(), state));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Performs an action on a node and waits for it to take effect.
+   *
+   * @param node The node.
+   * @param action Name of the action (stop, kill, pause, resume, start, restart, decommission or
+   *     remove).
+   * @param timeoutMillis Maximum time to wait for the node to change state.
+   * @return A description of the outcome.
+   * @throws Exception if the action fails.
+   */
+  private String performAction(MiniCassandraClusterNode node, String action, long timeoutMillis)
+      throws Exception {
+    final long startTime = System.currentTimeMillis();
+    final boolean succeeded;
+    if ("stop".equals(action)) {
+      node.stop();
+      succeeded = node.waitUntilStopped(timeoutMillis);
+    } else if ("kill".equals(action)) {
+      node.kill();
+      succeeded = node.waitUntilStopped(timeoutMillis);
+    } else if ("pause".equals(action)) {
+      node.pause();
+      succeeded = true;
+    } else if ("resume".equals(action)) {
+      node.resume();
+      succeeded = node.waitUntilNormal(timeoutMillis);
+    } else if ("start".equals(action)) {
+      succeeded = mCluster.startNode(node, timeoutMillis);
+    } else if ("restart".equals(action)) {
+      succeeded = mCluster.restartNode(node, false, timeoutMillis);
+    } else if ("decommission".equals(action)) {
+      mCluster.decommissionNode(node.getNodeId());
+      succeeded = true;
+    } else if ("remove".equals(action)) {
+      mCluster.removeNode(node.getNodeId());
+      succeeded = true;
+    } else {
+      throw new IllegalArgumentException("Unknown node action '" + action + "'.");
+    }
+    final long elapsed = System.currentTimeMillis() - startTime;
+    if (!succeeded) {
+      throw new RuntimeException(String.format(
+          "Node %s did not finish '%s' within %d ms.", node, action, timeoutMillis));
+    }
+    getLog().info(String.format("Node control: %s %s took %d ms.", action, node, elapsed));
+    return String.format("OK %s %s %d ms%n", action, node, elapsed);
+  }
+}
@@ -2,15 +2,19 @@ package org.kiji.maven.plugins;
 
 import java.io.File;
 import java.io.IOException;
-import java.lang.ProcessBuilder.Redirect;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import org.apache.cassandra.service.CassandraDaemon;
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.ArtifactUtils;
@@ -28,6 +32,12 @@ public class MiniCassandraClusterNode extends MavenLogged {
 
   private static final String CLASSPATH_SEPARATOR = ":";
 
+  /** How often to poll the node while waiting for it to change state. */
+  private static final long POLL_INTERVAL_MILLIS = 500;
+
+  /** Operation mode reported by StorageService once a node has joined the ring. */
+  private static final String OPERATION_MODE_NORMAL = "NORMAL";
+
   /** Id number for this node. */
   private final int mNodeId;
 
@@ -44,13 +54,44 @@ public class MiniCassandraClusterNode extends MavenLogged {
   private final File mRootDir;
 
   /** Process running a Cassandra Daemon. */
-  private Process mCassandraProcess;
+  private volatile Process mCassandraProcess;
+
+  /** Whether the Cassandra process has been suspended with SIGSTOP. */
+  private boolean mPaused;
+
+  /**
+   * Whether the current Cassandra process has been asked to exit (so exiting is not a failure).
+   * Each process gets its own flag, so that a restarted node does not mistake the old process's
+   * exit for a failure of the new one.
+   */
+  private volatile AtomicBoolean mExitExpected;
+
+  /** Most recent lines of output from the Cassandra process (kept across restarts). */
+  private final LogTailBuffer mLogTail;
+
+  /** Records this node while it runs, if profiling is on. */
+  private final NodeProfiler mProfiler;
+
+  /** Collector settings and GC log of this node. */
+  private final NodeGcLog mGcLog;
+
+  /** Resource usage of this node's processes, sampled from /proc. */
+  private final NodeResourceUsage mResourceUsage;
+
+  /** Follows the startup of the current Cassandra process, or null. */
+  private volatile StartupWatchdog mStartupWatchdog;
+
+  /** Confines this node to its CPUs, or null. */
+  private CpuIsolation mCpuIsolation;
+
+  /** When the current Cassandra process was started. */
+  private volatile long mStartTimeMillis;
 
   /** Conf directory for this Cassandra instance. */
   private final File mConfDir;
 
   /** Data directory for this Cassandra instance. */
-  private final File mDataDir;
+  private final List<File> mDataDirs;
 
   /** Commit log directory for this Cassandra instance. */
   private final File mCommitLogDir;
@@ -79,11 +120,109 @@ public class MiniCassandraClusterNode extends MavenLogged {
     mSeeds = seeds;
     mRootDir = new File(configuration.getCassandraDir(), "node-" + nodeId);
     mConfDir = new File(mRootDir, "conf");
-    mDataDir = new File(mRootDir, "data");
-    mCommitLogDir = new File(mRootDir, "commitlog");
-    mSavedCachesDir = new File(mRootDir, "saved_caches");
+    mDataDirs = pickDataDirs(configuration.getDataDirectories(), configuration);
+    mCommitLogDir = pickNodeDir(configuration.getCommitLogDirectories(), "commitlog");
+    mSavedCachesDir = pickNodeDir(configuration.getSavedCachesDirectories(), "saved_caches");
     mCassandraConfiguration = configuration;
     mCassandraProcess = null;
+    mPaused = false;
+    mExitExpected = new AtomicBoolean(false);
+    mLogTail = new LogTailBuffer(configuration.getLogTailLines());
+    mProfiler = new NodeProfiler(log, configuration, mRootDir, "node-" + nodeId);
+    mGcLog = new NodeGcLog(log, configuration, mRootDir);
+    mResourceUsage = new NodeResourceUsage();
+  }
+
+  /**
+   * Picks this node's data directories.
+   *
+   * @param bases Base data directories, or empty to use this node's directory.
+   * @param configuration Container object with all user-defined configuration for the cluster.
+   * @return the data directories.
+   */
+  private List<File> pickDataDirs(List<File> bases, CassandraConfiguration configuration) {
+    if (bases.isEmpty() || configuration.isDataDirectoriesRoundRobin()) {
+      return Lists.newArrayList(pickNodeDir(bases, "data"));
+    }
+    List<File> dataDirs = Lists.newArrayList();
+    for (File base : bases) {
+      dataDirs.add(new File(new File(base, "node-" + mNodeId), "data"));
+    }
+    return dataDirs;
+  }
+
+  /**
+   * Picks this node's directory of some kind, round-robin from a list of base directories.
+   *
+   * @param bases Base directories, or empty to use this node's directory.
+   * @param name Name of the directory, e.g. "commitlog".
+   * @return the directory.
+   */
+  private File pickNodeDir(List<File> bases, String name) {
+    if (bases.isEmpty()) {
+      return new File(mRootDir, name);
+    }
+    return new File(new File(bases.get(mNodeId % bases.size()), "node-" + mNodeId), name);
+  }
+
+  /**
+   * @return the unique number identifying this node.
+   */
+  public int getNodeId() {
+    return mNodeId;
+  }
+
+  /**
+   * @return the IP address for this node.
+   */
+  public String getAddress() {
+    return mMyAddress;
+  }
+
+  /**
+   * @return the JMX port for this node.  Every node listens on its own port, since the JMX agent
+   *     binds to all interfaces.
+   */
+  public int getJmxPort() {
+    return mCassandraConfiguration.getPortJmx() + mNodeId;
+  }
+
+  /**
+   * Opens a JMX connection to this node.  The caller must close it.
+   *
+   * @return a new JMX client for this node.
+   * @throws IOException if the node cannot be reached.
+   */
+  public CassandraJmxClient openJmxClient() throws IOException {
+    return new CassandraJmxClient(mMyAddress, getJmxPort());
+  }
+
+  /**
+   * @return the total size of this node's data directories, in bytes.
+   */
+  public long getDataSize() {
+    long size = 0;
+    for (File dataDir : mDataDirs) {
+      if (dataDir.isDirectory()) {
+        size += org.apache.commons.io.FileUtils.sizeOfDirectory(dataDir);
+      }
+    }
+    return size;
+  }
+
+  /**
+   * @return the total size of this node's commit log segments, in bytes.
+   */
+  public long getCommitLogSize() {
+    return mCommitLogDir.isDirectory()
+        ? org.apache.commons.io.FileUtils.sizeOfDirectory(mCommitLogDir)
+        : 0;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    return "node-" + mNodeId + " (" + mMyAddress + ")";
   }
 
   /**
@@ -93,77 +232,206 @@ public class MiniCassandraClusterNode extends MavenLogged {
     createDirectories();
     try {
       createCassandraYaml();
-      createLog4jProperties();
+      createLog4jXml();
+      createLogbackXml();
     } catch (IOException ioe) {
       throw new RuntimeException("Problem creating YAML file.");
     }
   }
 
   /**
-   * Creates the log4j.properties file for this node.
+   * Creates the log4j.xml file for this node, following the configured logging profile.
+   *
+   * Both the console (which the log pump reads) and the rolling file sit behind an
+   * AsyncAppender with a bounded, non-blocking buffer, so Cassandra threads never wait on log I/O;
+   * when the buffer fills up, messages are summarized and dropped instead.
    *
    * @throws IOException if there is a problem writing the file.
    */
-  private void createLog4jProperties() throws IOException {
+  private void createLog4jXml() throws IOException {
     getLog().debug("Creating LOG4J for node '" + mNodeId + "'");
 
-    StringBuilder sb = new StringBuilder();
+    final NodeLoggingProfile profile = mCassandraConfiguration.getLoggingProfile();
+    final String locationPattern = profile.isLocationInfo() ? " %F (line %L)" : "";
 
-    sb.append("log4j.rootLogger=DEBUG,stdout,R\n");
+    StringBuilder sb = new StringBuilder();
     sb
-        .append("# stdout\n")
-        .append("log4j.appender.stdout=org.apache.log4j.ConsoleAppender\n")
-        .append("log4j.appender.stdout.layout=org.apache.log4j.PatternLayout\n")
-        .append("log4j.appender.stdout.layout.ConversionPattern=%5p %d{HH:mm:ss,SSS} %m%n\n");
+        .append("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n")
+        .append("<!DOCTYPE log4j:configuration SYSTEM \"log4j.dtd\">\n")
+        .append("<log4j:configuration xmlns:log4j=\"http://jakarta.apache.org/log4j/\">\n");
 
-    sb
-        .append("# rolling log file\n")
-        .append("log4j.appender.R=org.apache.log4j.RollingFileAppender\n")
-        .append("log4j.appender.R.maxFileSize=20MB\n")
-        .append("log4j.appender.R.maxBackupIndex=50\n")
-        .append("log4j.appender.R.layout=org.apache.log4j.PatternLayout\n")
-        .append("log4j.appender.R.layout.ConversionPattern=%5p [%t] %d{ISO8601} %F (line %L) %m%n\n");
+    if (mCassandraConfiguration.isLogToConsole()) {
+      sb
+          .append("  <appender name=\"stdout\" class=\"org.apache.log4j.ConsoleAppender\">\n")
+          .append("    <layout class=\"org.apache.log4j.PatternLayout\">\n")
+          .append("      <param name=\"ConversionPattern\" value=\"%5p %d{HH:mm:ss,SSS} %m%n\"/>\n")
+          .append("    </layout>\n")
+          .append("  </appender>\n");
+    }
 
     File systemLog = new File(mRootDir, "system.log");
     sb
-        .append("log4j.appender.R.File=")
+        .append("  <appender name=\"R\" class=\"org.apache.log4j.RollingFileAppender\">\n")
+        .append("    <param name=\"File\" value=\"")
         .append(systemLog.getAbsolutePath())
-        .append("\n");
+        .append("\"/>\n")
+        .append("    <param name=\"MaxFileSize\" value=\"20MB\"/>\n")
+        .append("    <param name=\"MaxBackupIndex\" value=\"")
+        .append(profile == NodeLoggingProfile.DEBUG ? 50 : 5)
+        .append("\"/>\n")
+        .append("    <param name=\"BufferedIO\" value=\"true\"/>\n")
+        .append("    <layout class=\"org.apache.log4j.PatternLayout\">\n")
+        .append("      <param name=\"ConversionPattern\" value=\"%5p [%t] %d{ISO8601}")
+        .append(locationPattern)
+        .append(" %m%n\"/>\n")
+        .append("    </layout>\n")
+        .append("  </appender>\n");
 
-    sb.append("# Application logging options\n");
     sb
-        .append("#log4j.logger.org.apache.cassandra=DEBUG\n")
-        .append("#log4j.logger.org.apache.cassandra.db=DEBUG\n")
-        .append("#log4j.logger.org.apache.cassandra.service.StorageProxy=DEBUG\n");
+        .append("  <appender name=\"async\" class=\"org.apache.log4j.AsyncAppender\">\n")
+        .append("    <param name=\"BufferSize\" value=\"")
+        .append(mCassandraConfiguration.getLogBufferSize())
+        .append("\"/>\n")
+        .append("    <param name=\"Blocking\" value=\"false\"/>\n")
+        .append("    <param name=\"LocationInfo\" value=\"")
+        .append(profile.isLocationInfo())
+        .append("\"/>\n")
+        .append("    <appender-ref ref=\"R\"/>\n");
+    if (mCassandraConfiguration.isLogToConsole()) {
+      sb.append("    <appender-ref ref=\"stdout\"/>\n");
+    }
+    sb.append("  </appender>\n");
 
-    sb.append("# Adding this to avoid thrift logging disconnect errors.\n");
-    sb.append("log4j.logger.org.apache.thrift.server.TNonblockingServer=ERROR\n");
+    // Adding this to avoid thrift logging disconnect errors.
+    Map<String, String> loggerLevels = Maps.newLinkedHashMap();
+    loggerLevels.put("org.apache.thrift.server.TNonblockingServer", "ERROR");
+    loggerLevels.putAll(profile.getLoggerLevels());
+    loggerLevels.putAll(mCassandraConfiguration.getLogLevels());
+    for (Map.Entry<String, String> loggerLevel : loggerLevels.entrySet()) {
+      sb
+          .append("  <logger name=\"")
+          .append(loggerLevel.getKey())
+          .append("\">\n")
+          .append("    <level value=\"")
+          .append(loggerLevel.getValue())
+          .append("\"/>\n")
+          .append("  </logger>\n");
+    }
+
+    sb
+        .append("  <root>\n")
+        .append("    <level value=\"")
+        .append(profile.getRootLevel())
+        .append("\"/>\n")
+        .append("    <appender-ref ref=\"async\"/>\n")
+        .append("  </root>\n")
+        .append("</log4j:configuration>\n");
 
-    String serverProperties = sb.toString();
     // Write out the log4j configuration file.
-    File cassandraLogs = new File(mConfDir, "log4j.properties");
-    FileUtils.fileWrite(cassandraLogs.getAbsolutePath(), serverProperties);
+    FileUtils.fileWrite(getLog4jConfigFile().getAbsolutePath(), sb.toString());
+  }
+
+  /**
+   * Creates the logback.xml file for this node.  Cassandra 2.1 and later log through logback and
+   * pick this file up from the conf directory on the classpath; earlier versions ignore it.
+   *
+   * Mirrors the log4j configuration: same logging profile, same non-blocking asynchronous sinks.
+   *
+   * @throws IOException if there is a problem writing the file.
+   */
+  private void createLogbackXml() throws IOException {
+    final NodeLoggingProfile profile = mCassandraConfiguration.getLoggingProfile();
+    final String locationPattern = profile.isLocationInfo() ? " %F:%L" : "";
+    final File systemLog = new File(mRootDir, "system.log");
+
+    StringBuilder sb = new StringBuilder();
+    sb.append("<configuration>\n");
+    if (mCassandraConfiguration.isLogToConsole()) {
+      sb
+          .append("  <appender name=\"stdout\" class=\"ch.qos.logback.core.ConsoleAppender\">\n")
+          .append("    <encoder><pattern>%-5level %date{HH:mm:ss,SSS} %msg%n</pattern></encoder>\n")
+          .append("  </appender>\n");
+    }
+    sb
+        .append("  <appender name=\"R\"")
+        .append(" class=\"ch.qos.logback.core.rolling.RollingFileAppender\">\n")
+        .append("    <file>").append(systemLog.getAbsolutePath()).append("</file>\n")
+        .append("    <rollingPolicy")
+        .append(" class=\"ch.qos.logback.core.rolling.FixedWindowRollingPolicy\">\n")
+        .append("      <fileNamePattern>").append(systemLog.getAbsolutePath())
+        .append(".%i</fileNamePattern>\n")
+        .append("      <minIndex>1</minIndex>\n")
+        .append("      <maxIndex>").append(profile == NodeLoggingProfile.DEBUG ? 50 : 5)
+        .append("</maxIndex>\n")
+        .append("    </rollingPolicy>\n")
+        .append("    <triggeringPolicy")
+        .append(" class=\"ch.qos.logback.core.rolling.SizeBasedTriggeringPolicy\">\n")
+        .append("      <maxFileSize>20MB</maxFileSize>\n")
+        .append("    </triggeringPolicy>\n")
+        .append("    <encoder><pattern>%-5level [%thread] %date{ISO8601}")
+        .append(locationPattern)
+        .append(" %msg%n</pattern></encoder>\n")
+        .append("  </appender>\n");
+    sb
+        .append("  <appender name=\"async\" class=\"ch.qos.logback.classic.AsyncAppender\">\n")
+        .append("    <queueSize>").append(mCassandraConfiguration.getLogBufferSize())
+        .append("</queueSize>\n")
+        .append("    <includeCallerData>").append(profile.isLocationInfo())
+        .append("</includeCallerData>\n")
+        .append("    <appender-ref ref=\"R\"/>\n");
+    if (mCassandraConfiguration.isLogToConsole()) {
+      sb.append("    <appender-ref ref=\"stdout\"/>\n");
+    }
+    sb.append("  </appender>\n");
+
+    Map<String, String> loggerLevels = Maps.newLinkedHashMap();
+    loggerLevels.put("org.apache.thrift.server.TNonblockingServer", "ERROR");
+    loggerLevels.putAll(profile.getLoggerLevels());
+    loggerLevels.putAll(mCassandraConfiguration.getLogLevels());
+    for (Map.Entry<String, String> loggerLevel : loggerLevels.entrySet()) {
+      sb
+          .append("  <logger name=\"").append(loggerLevel.getKey())
+          .append("\" level=\"").append(loggerLevel.getValue()).append("\"/>\n");
+    }
+    sb
+        .append("  <root level=\"").append(profile.getRootLevel()).append("\">\n")
+        .append("    <appender-ref ref=\"async\"/>\n")
+        .append("  </root>\n")
+        .append("</configuration>\n");
+
+    FileUtils.fileWrite(new File(mConfDir, "logback.xml").getAbsolutePath(), sb.toString());
+  }
+
+  /**
+   * @return the log4j configuration file for this node.
+   */
+  private File getLog4jConfigFile() {
+    return new File(mConfDir, "log4j.xml");
   }
 
   /**
    * Creates all of directories (e.g., conf/) for this Cassandra node.
    */
   private void createDirectories() {
-    // Create directory for this node.
+    // Create directory for this node.  The cluster starts from an empty root directory, so there
+    // is nothing to clear out first.
     Preconditions.checkArgument(new File(mRootDir.getParent()).isDirectory());
-    try {
-      FileUtils.deleteDirectory(mRootDir);
-    } catch (IOException ioe) {
-      throw new RuntimeException("Problem clearing out for directory " + mRootDir);
-    }
     if (!mRootDir.mkdir()) {
       throw new RuntimeException("Problem creating directory " + mRootDir);
     }
 
-    // Now create all of the subdirectories needed:
-    for (File myDir : Arrays.asList(mConfDir, mDataDir, mCommitLogDir, mSavedCachesDir)) {
-      if (!myDir.mkdir()) {
-        throw new RuntimeException("Problem creating directory " + myDir);
+    // Now create all of the subdirectories needed.  Those outside of the Cassandra directory may
+    // be left over from an earlier build.
+    List<File> myDirs = Lists.newArrayList(mConfDir, mCommitLogDir, mSavedCachesDir);
+    myDirs.addAll(mDataDirs);
+    for (File myDir : myDirs) {
+      try {
+        if (myDir.exists()) {
+          org.apache.commons.io.FileUtils.forceDelete(myDir);
+        }
+        org.apache.commons.io.FileUtils.forceMkdir(myDir);
+      } catch (IOException ioe) {
+        throw new RuntimeException("Problem creating directory " + myDir, ioe);
       }
     }
   }
@@ -179,7 +447,7 @@ public class MiniCassandraClusterNode extends MavenLogged {
     getLog().info("Creating YAML for node " + mNodeId + ".");
 
     // Read the default Cassandra YAML file.
-    String defaultYaml = IOUtil.toString(getClass().getResourceAsStream("/cassandra.yaml"));
+    String defaultYaml = IOUtil.toString(getClass().getResourceAsStream(getYamlTemplate()));
 
     // Update some settings based on user configuration through maven.
     // Build a big string and then parse with YAML.
@@ -193,6 +461,30 @@ public class MiniCassandraClusterNode extends MavenLogged {
     FileUtils.fileWrite(cassandraYaml.getAbsolutePath(), finalYaml);
   }
 
+  /**
+   * Picks the default cassandra.yaml for the Cassandra version the node runs.
+   *
+   * Versions with their own template (cassandra-MAJOR.MINOR.yaml in the resources directory) get
+   * that one; everything else, including the version the plugin was built against, gets the
+   * default cassandra.yaml.
+   *
+   * @return the name of the resource holding the YAML template.
+   */
+  private String getYamlTemplate() {
+    final String version = mCassandraConfiguration.getCassandraVersion();
+    if (null != version) {
+      List<String> components = Lists.newArrayList(Splitter.on('.').split(version));
+      if (components.size() >= 2) {
+        final String template =
+            "/cassandra-" + components.get(0) + "." + components.get(1) + ".yaml";
+        if (null != getClass().getResource(template)) {
+          return template;
+        }
+      }
+    }
+    return "/cassandra.yaml";
+  }
+
   /**
    * Updates the settings in a baseline YAML description with settings from a new YAML description.
    *
@@ -211,6 +503,12 @@ public class MiniCassandraClusterNode extends MavenLogged {
     {
       baselineMap.put(glossEntry.getKey(), glossEntry.getValue());
     }
+    // Cassandra refuses to start with a setting of the other commit log sync mode.
+    if ("batch".equals(baselineMap.get("commitlog_sync"))) {
+      baselineMap.remove("commitlog_sync_period_in_ms");
+    } else {
+      baselineMap.remove("commitlog_sync_batch_window_in_ms");
+    }
     return yaml.dump(baselineMap);
   }
 
@@ -221,11 +519,13 @@ public class MiniCassandraClusterNode extends MavenLogged {
    */
   private String createCustomYaml() {
     StringBuilder sb = new StringBuilder();
-    sb
-        .append("data_file_directories:\n")
-        .append("    - ")
-        .append(mDataDir.getAbsolutePath())
-        .append("\n");
+    sb.append("data_file_directories:\n");
+    for (File dataDir : mDataDirs) {
+      sb
+          .append("    - ")
+          .append(dataDir.getAbsolutePath())
+          .append("\n");
+    }
 
     sb
         .append("commitlog_directory: ")
@@ -270,6 +570,57 @@ public class MiniCassandraClusterNode extends MavenLogged {
         .append(mCassandraConfiguration.getNumVirtualNodes())
         .append("\n");
 
+    if (null != mCassandraConfiguration.getTokenAllocation()) {
+      List<String> initialTokens = mCassandraConfiguration.getTokenAllocation().getInitialTokens(
+          mCassandraConfiguration.getNumNodes(),
+          mCassandraConfiguration.getNumVirtualNodes(),
+          mNodeId);
+      if (null != initialTokens) {
+        sb
+            .append("initial_token: ")
+            .append(Joiner.on(",").join(initialTokens))
+            .append("\n");
+      }
+    }
+
+    final List<Integer> cpus = getCpus();
+    if (null != cpus) {
+      // Cassandra's guideline is 8 concurrent writes per core; reads hit the page cache here.
+      sb
+          .append("concurrent_reads: ").append(8 * cpus.size()).append("\n")
+          .append("concurrent_writes: ").append(8 * cpus.size()).append("\n")
+          .append("concurrent_compactors: ").append(cpus.size()).append("\n");
+    }
+
+    if ("batch".equals(mCassandraConfiguration.getCommitLogSync())) {
+      sb
+          .append("commitlog_sync: batch\n")
+          .append("commitlog_sync_batch_window_in_ms: ")
+          .append(mCassandraConfiguration.getCommitLogSyncBatchWindowMillis())
+          .append("\n");
+    } else if ("periodic".equals(mCassandraConfiguration.getCommitLogSync())) {
+      sb.append("commitlog_sync: periodic\n");
+    }
+    if (mCassandraConfiguration.getCommitLogSyncPeriodMillis() > 0) {
+      sb
+          .append("commitlog_sync_period_in_ms: ")
+          .append(mCassandraConfiguration.getCommitLogSyncPeriodMillis())
+          .append("\n");
+    }
+    if (mCassandraConfiguration.getCommitLogSegmentSizeMb() > 0) {
+      sb
+          .append("commitlog_segment_size_in_mb: ")
+          .append(mCassandraConfiguration.getCommitLogSegmentSizeMb())
+          .append("\n");
+    }
+
+    if (mCassandraConfiguration.getStreamThroughputMbps() > 0) {
+      sb
+          .append("stream_throughput_outbound_megabits_per_sec: ")
+          .append(mCassandraConfiguration.getStreamThroughputMbps())
+          .append("\n");
+    }
+
     if (mSeeds.size() != 0) {
       sb.append("seed_provider:\n");
       sb.append("    - class_name: org.apache.cassandra.locator.SimpleSeedProvider\n");
@@ -286,7 +637,7 @@ public class MiniCassandraClusterNode extends MavenLogged {
    * in a separate JVM process.
    *
    * Uses the dependencies for the plugin to form the classpath, since the plugin is dependent
-   * upon Cassandra.
+   * upon Cassandra, unless a particular Cassandra version has been resolved for the nodes.
    *
    * @return the classpath, as a colon-separated String.
    */
@@ -300,6 +651,14 @@ public class MiniCassandraClusterNode extends MavenLogged {
       cp.append(new URL(mConfDir.toURI().toASCIIString()).toExternalForm());
       cp.append(CLASSPATH_SEPARATOR);
 
+      if (null != mCassandraConfiguration.getCassandraClasspath()) {
+        for (File file : mCassandraConfiguration.getCassandraClasspath()) {
+          cp.append(new URL(file.toURI().toASCIIString()).toExternalForm());
+          cp.append(CLASSPATH_SEPARATOR);
+        }
+        return cp.toString();
+      }
+
       for (Artifact artifact : mCassandraConfiguration.getPluginDependencies()) {
         getLog().debug(
             "Adding plugin dependency artifact: " + ArtifactUtils.versionlessKey( artifact ) +
@@ -343,10 +702,94 @@ public class MiniCassandraClusterNode extends MavenLogged {
     );
   }
 
+  /**
+   * Builds the JVM arguments for this node's Cassandra process.
+   *
+   * @return the arguments to put between the Java executable and the main class.
+   */
+  private List<String> getJvmArguments() {
+    List<String> args = Lists.newArrayList();
+    args.add("-Dcom.sun.management.jmxremote.port=" + getJmxPort());
+    args.add("-Dcom.sun.management.jmxremote.authenticate=false");
+    args.add("-Dcom.sun.management.jmxremote.ssl=false");
+    args.add("-Djava.rmi.server.hostname=" + mMyAddress);
+    // Otherwise CassandraDaemon closes stdout and stderr, and there is nothing left to pump.
+    args.add("-Dcassandra-foreground=yes");
+    // An .xml configuration makes log4j use the DOMConfigurator, which supports AsyncAppender.
+    try {
+      args.add("-Dlog4j.configuration=" + getLog4jConfigFile().toURI().toURL());
+    } catch (MalformedURLException mue) {
+      throw new RuntimeException("Could not create URL for " + getLog4jConfigFile(), mue);
+    }
+    args.addAll(mGcLog.getJvmArguments());
+    final List<Integer> cpus = getCpus();
+    if (null != cpus) {
+      args.add("-XX:ParallelGCThreads=" + cpus.size());
+      args.add("-XX:ConcGCThreads=" + Math.max(1, (cpus.size() + 3) / 4));
+      if (!System.getProperty("java.specification.version").startsWith("1.")) {
+        args.add("-XX:ActiveProcessorCount=" + cpus.size());
+      }
+    }
+    args.addAll(mProfiler.getJvmArguments());
+    return args;
+  }
+
+  /**
+   * Confines this node to its share of the CPUs.  Call before {@link #setup()}, since the node's
+   * thread pools are sized to its share.
+   *
+   * @param cpuIsolation Partitioning of the CPUs among the nodes.
+   */
+  public void setCpuIsolation(CpuIsolation cpuIsolation) {
+    mCpuIsolation = cpuIsolation;
+  }
+
+  /**
+   * @return the CPUs this node is confined to, or null if it is not.
+   */
+  private List<Integer> getCpus() {
+    return null != mCpuIsolation ? mCpuIsolation.getNodeCpus(mNodeId) : null;
+  }
+
+  /**
+   * @return the resource usage of this node's processes.
+   */
+  public NodeResourceUsage getResourceUsage() {
+    return mResourceUsage;
+  }
+
+  /**
+   * @return the directories holding this node's SSTables.
+   */
+  public List<File> getDataDirs() {
+    return mDataDirs;
+  }
+
+  /**
+   * Adds a summary of this node's profile to the run report.  The node must have stopped
+   * gracefully, so that its recording has been dumped.
+   *
+   * @param report The run report.
+   */
+  public void summarizeProfile(CassandraRunReport report) {
+    mProfiler.summarize(report, "node-" + mNodeId);
+  }
+
+  /**
+   * Adds a summary of this node's GC log to the run report.  The node must have stopped.
+   *
+   * @param report The run report.
+   * @return the longest GC pause of the node, in milliseconds.
+   */
+  public double summarizeGc(CassandraRunReport report) {
+    return mGcLog.summarize(
+        report, "node-" + mNodeId, System.currentTimeMillis() - mStartTimeMillis);
+  }
+
   /**
    * Start a dedicated Cassandra process for this node.
    */
-  public void start() {
+  public synchronized void start() {
     getLog().info(String.format(
         "Starting node #%s: %s:%s",
         mNodeId,
@@ -368,44 +811,318 @@ public class MiniCassandraClusterNode extends MavenLogged {
       // Set CASSANDRA_CONF appropriately.
       Map<String, String> environmentVariables = processBuilder.environment();
       updateEnvironmentVariables(environmentVariables);
-      processBuilder.command(
-          javaExec,
-          "-cp",
-          classpath,
-          CassandraDaemon.class.getCanonicalName()
-      );
+      List<String> command = Lists.newArrayList(javaExec);
+      command.addAll(getJvmArguments());
+      command.add("-cp");
+      command.add(classpath);
+      command.add(CassandraDaemon.class.getCanonicalName());
+      if (null != getCpus()) {
+        command = mCpuIsolation.confine(getCpus(), command);
+      }
+      processBuilder.command(command);
       processBuilder.directory(mRootDir);
 
-      // Redirect output to a file:
-      File log = new File(mRootDir + "/cassandra-node-" + mNodeId + "-log");
+      // Output goes to a pipe, which a log pump drains into a file.
       processBuilder.redirectErrorStream(true);
-      processBuilder.redirectOutput(Redirect.appendTo(log));
 
+      final AtomicBoolean exitExpected = new AtomicBoolean(false);
+      mExitExpected = exitExpected;
       mCassandraProcess = processBuilder.start();
+      mStartTimeMillis = System.currentTimeMillis();
+      mPaused = false;
+
+      // Startup phases are only visible when the node logs to its console.  Without budgets, the
+      // watchdog still times the phases (e.g., commit log replay after a crash).
+      mStartupWatchdog = null;
+      if (mCassandraConfiguration.isLogToConsole()) {
+        mStartupWatchdog = new StartupWatchdog(
+            getLog(),
+            this,
+            mRootDir,
+            mCassandraConfiguration.getStartupPhaseTimeoutSeconds(),
+            mCassandraConfiguration.getStartupPhaseTimeouts(),
+            mCassandraConfiguration.isStartupHeapHistogram());
+        mStartupWatchdog.start();
+      }
+
+      File log = new File(mRootDir + "/cassandra-node-" + mNodeId + "-log");
+      new MiniCassandraClusterNodeLogPump(
+          getLog(),
+          "node-" + mNodeId,
+          mCassandraProcess.getInputStream(),
+          log,
+          mLogTail,
+          mCassandraConfiguration.getLogForwardLinesPerSecond(),
+          mStartupWatchdog,
+          new Runnable() {
+            @Override
+            public void run() {
+              onProcessOutputClosed(exitExpected);
+            }
+          }).start();
     } catch (IOException ioe) {
       getLog().warn("Could not start Cassandra node " + mNodeId);
     }
   }
 
   /**
-   * Stop the process associated with this node.
+   * Stop the process associated with this node (SIGTERM).
    */
-  public void stop() {
+  public synchronized void stop() {
     getLog().info("Attempting to shut down node " + mNodeId);
+    if (mPaused) {
+      // A stopped process cannot act on SIGTERM until it is resumed.
+      resume();
+    }
+    mExitExpected.set(true);
+    stopStartupWatchdog();
     mCassandraProcess.destroy();
     getLog().info("Stopped node " + mNodeId);
   }
 
+  /**
+   * Called by the log pump once a Cassandra process has closed its output, i.e., exited.
+   *
+   * @param exitExpected Whether that process was asked to exit.
+   */
+  private void onProcessOutputClosed(AtomicBoolean exitExpected) {
+    if (!exitExpected.get()) {
+      dumpLogTail("Cassandra node " + mNodeId + " exited unexpectedly");
+    }
+  }
+
+  /**
+   * Writes the most recent lines of this node's output to the maven log.
+   *
+   * @param reason Why the output is being dumped.
+   */
+  public void dumpLogTail(String reason) {
+    List<String> lines = mLogTail.getLines();
+    getLog().error(String.format(
+        "%s; last %d lines of output (full log in %s):", reason, lines.size(), mRootDir));
+    for (String line : lines) {
+      getLog().error("[node-" + mNodeId + "] " + line);
+    }
+  }
+
+  /**
+   * Kills the process associated with this node without giving it a chance to shut down (SIGKILL).
+   */
+  public synchronized void kill() {
+    getLog().info("Killing node " + mNodeId);
+    mExitExpected.set(true);
+    stopStartupWatchdog();
+    sendSignal("KILL");
+    mPaused = false;
+  }
+
+  /**
+   * Suspends the process associated with this node (SIGSTOP).  The node stays in the cluster but
+   * stops responding, much like a node stuck in a long GC pause or a network partition.
+   */
+  public synchronized void pause() {
+    getLog().info("Pausing node " + mNodeId);
+    sendSignal("STOP");
+    mPaused = true;
+  }
+
+  /**
+   * Resumes a process previously suspended with {@link #pause()} (SIGCONT).
+   */
+  public synchronized void resume() {
+    getLog().info("Resuming node " + mNodeId);
+    sendSignal("CONT");
+    mPaused = false;
+  }
+
+  /**
+   * @return whether the underlying Cassandra process is currently suspended.
+   */
+  public synchronized boolean isPaused() {
+    return mPaused;
+  }
+
+  /**
+   * Stops watching the startup of the current Cassandra process, which is going away.
+   */
+  private void stopStartupWatchdog() {
+    if (null != mStartupWatchdog) {
+      mStartupWatchdog.stop();
+    }
+  }
+
+  /**
+   * @return the startup watchdog of the current Cassandra process, or null if there is none.
+   */
+  public StartupWatchdog getStartupWatchdog() {
+    return mStartupWatchdog;
+  }
+
+  /**
+   * Makes the JVM of this node print a thread dump into the node's output (SIGQUIT).
+   */
+  public void requestThreadDump() {
+    sendSignal("QUIT");
+  }
+
+  /**
+   * Sends a signal to the underlying Cassandra process using the system's `kill` command.
+   *
+   * @param signal Name of the signal, without the SIG prefix (e.g., "KILL").
+   */
+  private void sendSignal(String signal) {
+    Preconditions.checkState(null != mCassandraProcess, "Node %s was never started.", mNodeId);
+    final long pid = getPid();
+    try {
+      final Process kill = new ProcessBuilder("kill", "-" + signal, Long.toString(pid)).start();
+      if (kill.waitFor() != 0) {
+        throw new RuntimeException(String.format(
+            "Could not send SIG%s to node %s (pid %s).", signal, mNodeId, pid));
+      }
+    } catch (IOException ioe) {
+      throw new RuntimeException("Could not run kill for node " + mNodeId, ioe);
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while signalling node " + mNodeId, ie);
+    }
+  }
+
+  /**
+   * Looks up the operating system process id of the underlying Cassandra process.
+   *
+   * The Process API only exposes this directly on Java 9 and later, so fall back to the private
+   * field of the UNIX process implementation on older JVMs.
+   *
+   * @return the process id.
+   */
+  public long getPid() {
+    Preconditions.checkState(null != mCassandraProcess, "Node %s was never started.", mNodeId);
+    try {
+      Method pidMethod = Process.class.getMethod("pid");
+      return (Long) pidMethod.invoke(mCassandraProcess);
+    } catch (NoSuchMethodException nsme) {
+      // Pre-Java 9, use the implementation field instead.
+    } catch (Exception e) {
+      throw new RuntimeException("Could not determine pid for node " + mNodeId, e);
+    }
+    try {
+      Field pidField = mCassandraProcess.getClass().getDeclaredField("pid");
+      pidField.setAccessible(true);
+      return pidField.getInt(mCassandraProcess);
+    } catch (Exception e) {
+      throw new RuntimeException("Could not determine pid for node " + mNodeId, e);
+    }
+  }
+
+  /**
+   * Blocks until the underlying Cassandra process has exited.
+   *
+   * @param timeoutMillis Maximum time to wait.
+   * @return whether the process exited within the timeout.
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  public boolean waitUntilStopped(long timeoutMillis) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + timeoutMillis;
+    while (isRunning()) {
+      if (System.currentTimeMillis() >= deadline) {
+        return false;
+      }
+      Thread.sleep(POLL_INTERVAL_MILLIS);
+    }
+    return true;
+  }
+
+  /**
+   * Blocks until this node reports that it has joined the ring (operation mode NORMAL).
+   *
+   * @param timeoutMillis Maximum time to wait.
+   * @return whether the node reached NORMAL within the timeout.
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  public boolean waitUntilNormal(long timeoutMillis) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + timeoutMillis;
+    while (System.currentTimeMillis() < deadline) {
+      if (!isRunning()) {
+        getLog().error("Process for Cassandra node " + this + " died while waiting for NORMAL.");
+        return false;
+      }
+      if (isNormal()) {
+        markStarted();
+        return true;
+      }
+      Thread.sleep(POLL_INTERVAL_MILLIS);
+    }
+    dumpLogTail("Cassandra node " + mNodeId + " did not reach NORMAL within " + timeoutMillis
+        + " ms");
+    return false;
+  }
+
+  /**
+   * Tells the startup watchdog, if any, that this node is up.
+   */
+  public void markStarted() {
+    final StartupWatchdog watchdog = mStartupWatchdog;
+    if (null != watchdog) {
+      watchdog.markReady();
+    }
+  }
+
+  /**
+   * @return whether this node is reachable over JMX and reports operation mode NORMAL.
+   */
+  public boolean isNormal() {
+    if (isPaused()) {
+      // Connecting to a suspended JVM would just hang.
+      return false;
+    }
+    try {
+      CassandraJmxClient jmx = openJmxClient();
+      try {
+        return OPERATION_MODE_NORMAL.equals(jmx.getStorageService().getOperationMode());
+      } finally {
+        jmx.close();
+      }
+    } catch (Exception e) {
+      // Not up yet (or on its way down).
+      return false;
+    }
+  }
+
+  /**
+   * Stops (or kills) this node and starts it again with the same directories, blocking until it
+   * is back to NORMAL.
+   *
+   * @param forcibly Whether to kill the process rather than shut it down gracefully.
+   * @param timeoutMillis Maximum time to wait for each of the shutdown and the restart.
+   * @return whether the node came back to NORMAL within the timeout.
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  public boolean restart(boolean forcibly, long timeoutMillis) throws InterruptedException {
+    if (isRunning()) {
+      if (forcibly) {
+        kill();
+      } else {
+        stop();
+      }
+      if (!waitUntilStopped(timeoutMillis)) {
+        throw new RuntimeException("Node " + mNodeId + " did not shut down for restart.");
+      }
+    }
+    start();
+    return waitUntilNormal(timeoutMillis);
+  }
+
   /**
    * @return whether the underlying Cassandra process is still running.
    */
   public boolean isRunning() {
-    if (null == mCassandraProcess) {
+    Process process = mCassandraProcess;
+    if (null == process) {
       return false;
     }
     // Sadly, the Java Process API does not have a method for checking whether a process is alive.
     try {
-      final int exitValue = mCassandraProcess.exitValue();
+      final int exitValue = process.exitValue();
     } catch (IllegalThreadStateException ex) {
       // This means that the process is still running - no exit value yet.
       return true;
@@ -0,0 +1,201 @@
+package org.kiji.maven.plugins;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.RateLimiter;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * A thread that drains the combined stdout/stderr of a Cassandra node process.
+ *
+ * <p>Every line is appended to the node's log file and kept in a {@link LogTailBuffer}.  WARN and
+ * ERROR lines can also be forwarded to the maven log; they go through a bounded queue and a
+ * rate-limited forwarding thread, and are dropped (and counted) rather than ever making this
+ * thread wait.  That way a slow consumer can never fill the pipe and stall the Cassandra
+ * process.</p>
+ */
+public class MiniCassandraClusterNodeLogPump extends Thread implements MavenLoggable {
+  /** Gets every line of output, on the pump's thread; must be quick. */
+  public interface LineListener {
+    /**
+     * Called for every line of output.
+     *
+     * @param line The line.
+     */
+    void onLine(String line);
+  }
+
+  /** Maximum number of lines waiting to be forwarded to the maven log. */
+  private static final int FORWARD_QUEUE_CAPACITY = 1000;
+
+  /** The maven log. */
+  private final Log mLog;
+
+  /** Prefix for forwarded lines, identifying the node. */
+  private final String mNodeName;
+
+  /** Output of the Cassandra process. */
+  private final InputStream mInput;
+
+  /** File to which all output is appended. */
+  private final File mLogFile;
+
+  /** Most recent lines of output. */
+  private final LogTailBuffer mTail;
+
+  /** WARN and ERROR lines waiting to be forwarded, or null if forwarding is off. */
+  private final BlockingQueue<String> mForwardQueue;
+
+  /** Limits how fast lines are written to the maven log. */
+  private final RateLimiter mForwardRateLimiter;
+
+  /** Number of lines that were not forwarded because of the queue bound or the rate limit. */
+  private final AtomicLong mNumDropped;
+
+  /** Gets every line of output, or null. */
+  private final LineListener mLineListener;
+
+  /** Called once the process has closed its output (i.e., it has exited). */
+  private final Runnable mOnClose;
+
+  /**
+   * Creates a log pump.  Call {@link #start()} to start draining.
+   *
+   * @param log The maven log.
+   * @param nodeName Name of the node, used as a prefix for forwarded lines.
+   * @param input Combined stdout/stderr of the Cassandra process.
+   * @param logFile File to which all output is appended.
+   * @param tail Buffer for the most recent lines of output.
+   * @param forwardLinesPerSecond Maximum rate at which WARN/ERROR lines are forwarded to the maven
+   *     log; zero disables forwarding.
+   * @param lineListener Gets every line of output, or null.
+   * @param onClose Called once the process has closed its output.
+   */
+  public MiniCassandraClusterNodeLogPump(
+      Log log,
+      String nodeName,
+      InputStream input,
+      File logFile,
+      LogTailBuffer tail,
+      int forwardLinesPerSecond,
+      LineListener lineListener,
+      Runnable onClose) {
+    super("cassandra-log-pump-" + nodeName);
+    setDaemon(true);
+    mLog = log;
+    mNodeName = nodeName;
+    mInput = input;
+    mLogFile = logFile;
+    mTail = tail;
+    mLineListener = lineListener;
+    mOnClose = onClose;
+    mNumDropped = new AtomicLong(0);
+    if (forwardLinesPerSecond > 0) {
+      mForwardQueue = new ArrayBlockingQueue<String>(FORWARD_QUEUE_CAPACITY);
+      mForwardRateLimiter = RateLimiter.create(forwardLinesPerSecond);
+    } else {
+      mForwardQueue = null;
+      mForwardRateLimiter = null;
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Log getLog() {
+    return mLog;
+  }
+
+  /**
+   * Drains the process output until the process closes it.
+   */
+  @Override
+  public void run() {
+    Thread forwarder = null;
+    if (null != mForwardQueue) {
+      forwarder = new Thread(new Forwarder(), getName() + "-forwarder");
+      forwarder.setDaemon(true);
+      forwarder.start();
+    }
+    try {
+      final BufferedReader reader =
+          new BufferedReader(new InputStreamReader(mInput, Charsets.UTF_8));
+      final Writer writer =
+          new OutputStreamWriter(new FileOutputStream(mLogFile, true), Charsets.UTF_8);
+      try {
+        String line;
+        while (null != (line = reader.readLine())) {
+          writer.write(line);
+          writer.write('\n');
+          if (!reader.ready()) {
+            writer.flush();
+          }
+          mTail.add(line);
+          if (null != mLineListener) {
+            mLineListener.onLine(line);
+          }
+          if (null != mForwardQueue && isWarningOrError(line) && !mForwardQueue.offer(line)) {
+            mNumDropped.incrementAndGet();
+          }
+        }
+      } finally {
+        writer.close();
+        reader.close();
+      }
+    } catch (IOException ioe) {
+      getLog().warn("Problem reading output of Cassandra " + mNodeName + ": " + ioe.getMessage());
+    } finally {
+      if (null != forwarder) {
+        forwarder.interrupt();
+      }
+      mOnClose.run();
+    }
+  }
+
+  /**
+   * @param line A line of Cassandra output.
+   * @return whether the line was logged at WARN or ERROR level.
+   */
+  private static boolean isWarningOrError(String line) {
+    // The node's log4j layouts start every line with the (padded) level.
+    final String trimmed = line.trim();
+    return trimmed.startsWith("WARN") || trimmed.startsWith("ERROR");
+  }
+
+  /**
+   * Moves queued lines to the maven log, no faster than the configured rate.
+   */
+  private class Forwarder implements Runnable {
+    /** {@inheritDoc} */
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          final String line = mForwardQueue.take();
+          if (!mForwardRateLimiter.tryAcquire()) {
+            mNumDropped.incrementAndGet();
+            continue;
+          }
+          final long dropped = mNumDropped.getAndSet(0);
+          if (dropped > 0) {
+            getLog().warn(String.format("[%s] (%d lines not shown)", mNodeName, dropped));
+          }
+          getLog().warn("[" + mNodeName + "] " + line);
+        }
+      } catch (InterruptedException ie) {
+        // The process has exited; nothing more to forward.
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
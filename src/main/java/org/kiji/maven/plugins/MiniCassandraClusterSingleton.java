@@ -1,35 +1,140 @@
 package org.kiji.maven.plugins;
 
 import java.io.IOException;
+import java.util.Set;
 
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Sets;
 import org.apache.maven.plugin.logging.Log;
 
 /**
  * A singleton instance of a mini Cassandra cluster.
+ *
+ * <p>Maven reuses a plugin's class realm for every module of a reactor build that uses the same
+ * version of the plugin, so a cluster started with {@link #startShared} can be used by all of them
+ * and is only shut down when the last of them stops it.</p>
  */
 public enum MiniCassandraClusterSingleton {
   /** The singleton instance. */
   INSTANCE;
 
   /** The thread that runs the mini C* cluster. */
-  private MiniCassandraClusterThread mThread;
+  private volatile MiniCassandraClusterThread mThread;
 
   /** The C* cluster being run. */
-  private MiniCassandraCluster mCluster;
+  private volatile MiniCassandraCluster mCluster;
+
+  /**
+   * Modules of the build (project ids) configured to share the cluster that have yet to stop it;
+   * empty if the cluster is not shared.
+   */
+  private final Set<String> mSharingModules = Sets.newHashSet();
+
+  /** Modules using the shared cluster (started or attached to it) that have yet to stop it. */
+  private final Set<String> mAttachedModules = Sets.newHashSet();
+
+  /**
+   * Stops the cluster if maven exits without stopping it (e.g., because the build failed before
+   * the stop goal, or the last module sharing it did not get to stop it).
+   */
+  private Thread mShutdownHook;
 
   /**
    * Starts the C* cluster and blocks until it is ready.
    *
    * @param log The maven log.
-   * @throws java.io.IOException If there is an error.
+   * @param config Configuration of the cluster.
+   * @throws java.io.IOException If the cluster fails to start.
    */
   public void startAndWaitUntilReady(Log log, CassandraConfiguration config) throws IOException {
+    start(log, config);
+    awaitReady(log);
+  }
+
+  /**
+   * Starts the C* cluster on a background thread and returns right away.  Call
+   * {@link #awaitReady(Log)} before using the cluster.
+   *
+   * @param log The maven log.
+   * @param config Configuration of the cluster.
+   * @throws IllegalStateException if a cluster shared by other modules is running.
+   */
+  public synchronized void start(Log log, CassandraConfiguration config) {
+    Preconditions.checkState(!isSharedClusterRunning(), "A Cassandra cluster shared by other "
+        + "modules is running; set shareAcrossReactor in this module too to use it.");
     // TODO: Add support for also starting a mapreduce cluster.
     mCluster = new MiniCassandraCluster(log, config);
     mThread = new MiniCassandraClusterThread(log, mCluster);
+    addShutdownHook(log);
 
     log.info("Starting new thread...");
     mThread.start();
+  }
+
+  /**
+   * Starts the C* cluster on a background thread, to be shared by several modules of the build,
+   * unless such a cluster is already running.  Each module using the cluster must stop it; it is
+   * shut down once every module configured to share it has stopped it.
+   *
+   * @param log The maven log.
+   * @param config Configuration of the cluster (ignored if it is already running).
+   * @param module Id of the module starting (or attaching to) the cluster.
+   * @param sharingModules Ids of the modules of the build configured to share the cluster.
+   * @return whether the cluster was started by this call.
+   * @throws IllegalStateException if a cluster that is not shared is running.
+   */
+  public synchronized boolean startShared(
+      Log log,
+      CassandraConfiguration config,
+      String module,
+      Set<String> sharingModules) {
+    if (isSharedClusterRunning()) {
+      mAttachedModules.add(module);
+      log.info(String.format("Using the Cassandra cluster shared by this build "
+          + "(%d module(s) still to stop it).",
+          Sets.union(mSharingModules, mAttachedModules).size()));
+      return false;
+    }
+    Preconditions.checkState(null == mThread || !mThread.isAlive(),
+        "A Cassandra cluster that is not shared is already running in this build.");
+    mSharingModules.clear();
+    mAttachedModules.clear();
+    start(log, config);
+    mSharingModules.addAll(sharingModules);
+    mSharingModules.add(module);
+    mAttachedModules.add(module);
+    log.info(String.format("Started a Cassandra cluster shared by %d module(s).",
+        mSharingModules.size()));
+    return true;
+  }
+
+  /**
+   * @return whether the cluster is shared by modules that have yet to stop it.
+   */
+  private boolean isShared() {
+    return !mSharingModules.isEmpty() || !mAttachedModules.isEmpty();
+  }
+
+  /**
+   * @return whether a cluster shared by several modules is running.
+   */
+  private boolean isSharedClusterRunning() {
+    return isShared() && null != mThread && mThread.isAlive();
+  }
+
+  /**
+   * Blocks until the C* cluster started by {@link #start(Log, CassandraConfiguration)} is ready.
+   *
+   * @param log The maven log.
+   * @return how long this call blocked, in milliseconds.
+   * @throws IOException If the cluster failed to start.
+   * @throws IllegalStateException If no cluster was started in this process.
+   */
+  public long awaitReady(Log log) throws IOException {
+    if (null == mThread) {
+      throw new IllegalStateException("No Cassandra cluster was started in this process.");
+    }
+    final long waitStartTime = System.currentTimeMillis();
 
     // Wait for the cluster to be ready.
     log.info("Waiting for cluster to be ready...");
@@ -39,23 +144,108 @@ public enum MiniCassandraClusterSingleton {
       } catch (InterruptedException e) {
         log.info("Interrupted...");
         Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for the Cassandra cluster to start.", e);
       }
       log.debug("Still waiting...");
     }
     log.info("Finished waiting for Cassandra cluster thread.");
+    if (null != mThread.getStartupFailure()) {
+      throw new IOException("Cassandra cluster failed to start.", mThread.getStartupFailure());
+    }
+    if (!mThread.isClusterReady()) {
+      throw new IOException("Cassandra cluster thread exited before the cluster was ready.");
+    }
+    return System.currentTimeMillis() - waitStartTime;
+  }
+
+  /**
+   * Returns the running C* cluster, for goals that act on it between start and stop.
+   *
+   * @return the running cluster.
+   * @throws IllegalStateException if no cluster is running in this process.
+   */
+  public MiniCassandraCluster getRunningCluster() {
+    if (null == mCluster || !mThread.isClusterReady()) {
+      throw new IllegalStateException("No Cassandra cluster is running in this process.");
+    }
+    return mCluster;
   }
 
   /**
    * Stops the Cassandra cluster and blocks until is has been shutdown completely.
    *
    * @param log The maven log.
+   * @param module Id of the module stopping the cluster.
+   * @return the stopped cluster, or null if no cluster was ever started or a shared cluster is
+   *     left running for other modules.
    */
-  public void stop(Log log) {
+  public synchronized MiniCassandraCluster stop(Log log, String module) {
     if (null == mCluster) {
       log.error("Attempted to stop a cluster, but no cluster was ever started in this process.");
+      return null;
+    }
+    if (isShared()) {
+      if (!mAttachedModules.remove(module)) {
+        log.info("Module " + module + " does not use the shared Cassandra cluster; "
+            + "leaving it running.");
+        return null;
+      }
+      mSharingModules.remove(module);
+      final int remaining = Sets.union(mSharingModules, mAttachedModules).size();
+      if (remaining > 0) {
+        log.info(String.format("Leaving the shared Cassandra cluster running for %d more "
+            + "module(s).", remaining));
+        return null;
+      }
+    }
+    removeShutdownHook(log);
+    stopThread(log);
+    return mCluster;
+  }
+
+  /**
+   * Makes sure the cluster is stopped when maven exits, so that the nodes do not outlive the build
+   * (keeping their ports) when it ends before the stop goal.
+   *
+   * @param log The maven log.
+   */
+  private void addShutdownHook(final Log log) {
+    if (null != mShutdownHook) {
       return;
     }
+    mShutdownHook = new Thread("cassandra-cluster-shutdown") {
+      @Override
+      public void run() {
+        stopThread(log);
+      }
+    };
+    Runtime.getRuntime().addShutdownHook(mShutdownHook);
+  }
 
+  /**
+   * Removes the shutdown hook, as the cluster is being stopped.
+   *
+   * @param log The maven log.
+   */
+  private void removeShutdownHook(Log log) {
+    if (null == mShutdownHook) {
+      return;
+    }
+    try {
+      Runtime.getRuntime().removeShutdownHook(mShutdownHook);
+    } catch (IllegalStateException ise) {
+      // Maven is exiting, and the hook is already stopping the cluster.
+      log.debug("Cannot remove the shutdown hook: " + ise.getMessage());
+    }
+    mShutdownHook = null;
+  }
+
+  /**
+   * Stops the cluster thread and waits until the cluster has been shut down.
+   *
+   * @param log The maven log.
+   */
+  private void stopThread(Log log) {
     log.info("Stopping the Cassandra cluster thread...");
     mThread.stopClusterGracefully();
     while (mThread.isAlive()) {
@@ -18,6 +18,9 @@ public class MiniCassandraClusterThread extends Thread implements MavenLoggable
   /** Whether the thread has been asked to stop. */
   private volatile boolean mIsStopRequested;
 
+  /** Why the cluster failed to start, or null if it did not fail (yet). */
+  private volatile Exception mStartupFailure;
+
   /**
    * Creates a new <code>MiniCassandraClusterThread</code> instance.
    *
@@ -40,6 +43,13 @@ public class MiniCassandraClusterThread extends Thread implements MavenLoggable
     return mIsClusterReady;
   }
 
+  /**
+   * @return why the cluster failed to start, or null if it has not failed to start.
+   */
+  public Exception getStartupFailure() {
+    return mStartupFailure;
+  }
+
   /**
    * Stops the Cassandra cluster gracefully.  When it is fully shut down, the thread will exit.
    */
@@ -67,6 +77,7 @@ public class MiniCassandraClusterThread extends Thread implements MavenLoggable
       startedSuccessfully = true;
     } catch (Exception e) {
       getLog().error("Error starting Cassandra cluster.", e);
+      mStartupFailure = e;
       startedSuccessfully = false;
     }
 
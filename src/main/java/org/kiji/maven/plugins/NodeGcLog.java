@@ -0,0 +1,229 @@
+package org.kiji.maven.plugins;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Chooses the garbage collector of a single Cassandra node, has the node log its collections, and
+ * summarizes the log once the node has stopped.
+ */
+public class NodeGcLog extends MavenLogged {
+  /** Garbage collector presets. */
+  public enum Collector {
+    /** Whatever the JVM picks by default. */
+    DEFAULT,
+    /** G1, with Cassandra's usual pause target. */
+    G1,
+    /** Concurrent mark-sweep, tuned as in Cassandra's cassandra-env.sh. */
+    CMS;
+
+    /**
+     * Looks up a collector by (case-insensitive) name.
+     *
+     * @param name Name of the collector: default, g1 or cms.
+     * @return the collector.
+     */
+    public static Collector fromName(String name) {
+      for (Collector collector : values()) {
+        if (collector.name().equalsIgnoreCase(name)) {
+          return collector;
+        }
+      }
+      throw new IllegalArgumentException(
+          "Unknown garbage collector '" + name + "' (expected default, g1 or cms).");
+    }
+  }
+
+  /**
+   * A pause in a unified (Java 9+) GC log, e.g.
+   * "[1.234s] GC(3) Pause Young (Normal) (G1 Evacuation Pause) 24M-&gt;4M(256M) 3.456ms".
+   * Groups are the uptime, the heap before (size and unit) and after (size and unit), and the
+   * pause in milliseconds.
+   */
+  private static final Pattern UNIFIED_PAUSE = Pattern.compile(
+      "^\\[([0-9.]+)s\\].* GC\\(\\d+\\) Pause "
+          + ".*?(?:(\\d+)([BKMG])->(\\d+)([BKMG])\\(\\d+[BKMG]\\) )?([0-9.]+)ms$");
+
+  /**
+   * A pause in a Java 7/8 GC log, e.g.
+   * <ul>
+   *   <li>"1.234: [GC (Allocation Failure)  65536K-&gt;1234K(251392K), 0.0123 secs]" (parallel,
+   *       ParNew, or "[GC 65536K-&gt;1234K(251392K), 0.0123 secs]" on Java 7),</li>
+   *   <li>"1.234: [GC pause (G1 Evacuation Pause) (young) 52M-&gt;5987K(1024M), 0.0123 secs]",</li>
+   *   <li>"1.234: [GC remark, 0.0012 secs]" (G1),</li>
+   *   <li>"1.234: [GC (CMS Initial Mark)  123K(456K), 0.0010 secs]" (CMS, occupancy only).</li>
+   * </ul>
+   * Groups are as for {@link #UNIFIED_PAUSE}, with the pause in seconds.  G1's concurrent phases
+   * ("[GC concurrent-mark-end, 0.0123 secs]") are not pauses.
+   */
+  private static final Pattern LEGACY_PAUSE = Pattern.compile(
+      "^([0-9.]+): \\[(?:Full )?GC(?! concurrent).*?"
+          + "(?:\\s(?:([0-9.]+)([BKMG])->)?([0-9.]+)([BKMG])\\([0-9.]+[BKMG]\\))?"
+          + ",? ([0-9.]+) secs\\]");
+
+  /** Whether the node runs on Java 7 or 8, which have the old GC flags. */
+  private static final boolean LEGACY_JVM =
+      System.getProperty("java.specification.version").startsWith("1.");
+
+  /** Collector preset for the node. */
+  private final Collector mCollector;
+
+  /** Whether to log collections. */
+  private final boolean mEnabled;
+
+  /** Where the node logs its collections. */
+  private final File mGcLog;
+
+  /**
+   * Creates the GC settings for a node.
+   *
+   * @param log The maven log.
+   * @param configuration Container object with all user-defined configuration for the cluster.
+   * @param nodeDir The node's directory, which will hold the GC log.
+   */
+  public NodeGcLog(Log log, CassandraConfiguration configuration, File nodeDir) {
+    super(log);
+    Collector collector = null != configuration.getGcCollector()
+        ? configuration.getGcCollector()
+        : Collector.DEFAULT;
+    if (collector == Collector.CMS && !LEGACY_JVM
+        && Integer.parseInt(System.getProperty("java.specification.version")) >= 14) {
+      log.warn("CMS was removed in Java 14; the nodes will use G1 instead.");
+      collector = Collector.G1;
+    }
+    mCollector = collector;
+    mEnabled = configuration.isGcLogging();
+    mGcLog = new File(nodeDir, "gc.log");
+  }
+
+  /**
+   * @return the JVM arguments that select the collector and turn on GC logging.
+   */
+  public List<String> getJvmArguments() {
+    List<String> args = Lists.newArrayList();
+    switch (mCollector) {
+      case G1:
+        args.add("-XX:+UseG1GC");
+        args.add("-XX:MaxGCPauseMillis=500");
+        break;
+      case CMS:
+        if (LEGACY_JVM) {
+          args.add("-XX:+UseParNewGC");
+        }
+        args.add("-XX:+UseConcMarkSweepGC");
+        args.add("-XX:+CMSParallelRemarkEnabled");
+        args.add("-XX:SurvivorRatio=8");
+        args.add("-XX:MaxTenuringThreshold=1");
+        args.add("-XX:CMSInitiatingOccupancyFraction=75");
+        args.add("-XX:+UseCMSInitiatingOccupancyOnly");
+        break;
+      default:
+        break;
+    }
+    if (mEnabled) {
+      if (LEGACY_JVM) {
+        args.add("-Xloggc:" + mGcLog.getAbsolutePath());
+        args.add("-XX:+PrintGC");
+        args.add("-XX:+PrintGCTimeStamps");
+      } else {
+        args.add("-Xlog:gc:file=" + mGcLog.getAbsolutePath() + ":uptime");
+      }
+    }
+    return args;
+  }
+
+  /**
+   * Summarizes the GC log of a node that has stopped and adds the summary to the run report.
+   *
+   * @param report The run report.
+   * @param nodeName Name of the node, for the report.
+   * @param wallClockMillis How long the node ran.
+   * @return the longest pause, in milliseconds (0 if there were none, or no log).
+   */
+  public double summarize(CassandraRunReport report, String nodeName, long wallClockMillis) {
+    if (!mEnabled) {
+      return 0.0;
+    }
+    final String section = "GC " + nodeName;
+    if (!mGcLog.isFile()) {
+      report.add(section, "no GC log at " + mGcLog);
+      return 0.0;
+    }
+
+    final LatencyRecorder pauseMicros = new LatencyRecorder();
+    long allocatedKb = 0;
+    long heapAfterLastKb = 0;
+    double lastUptimeSeconds = 0.0;
+    try {
+      BufferedReader reader = new BufferedReader(
+          new InputStreamReader(new FileInputStream(mGcLog), Charsets.UTF_8));
+      try {
+        final Pattern pause = LEGACY_JVM ? LEGACY_PAUSE : UNIFIED_PAUSE;
+        String line;
+        while (null != (line = reader.readLine())) {
+          Matcher matcher = pause.matcher(line.trim());
+          if (!matcher.find()) {
+            continue;
+          }
+          lastUptimeSeconds = Double.parseDouble(matcher.group(1));
+          final double duration = Double.parseDouble(matcher.group(6));
+          pauseMicros.record(Math.round(LEGACY_JVM ? duration * 1.0e6 : duration * 1.0e3));
+          if (null != matcher.group(2)) {
+            final long beforeKb = toKb(matcher.group(2), matcher.group(3));
+            allocatedKb += Math.max(0, beforeKb - heapAfterLastKb);
+            heapAfterLastKb = toKb(matcher.group(4), matcher.group(5));
+          }
+        }
+      } finally {
+        reader.close();
+      }
+    } catch (IOException ioe) {
+      report.add(section, "could not read " + mGcLog + ": " + ioe.getMessage());
+      return 0.0;
+    }
+
+    final double wallClockSeconds = Math.max(wallClockMillis / 1000.0, lastUptimeSeconds);
+    report.add(section, String.format(
+        "%d pauses (%s), p50 %.1f ms, p99 %.1f ms, max %.1f ms",
+        pauseMicros.getCount(),
+        mCollector.name().toLowerCase(),
+        pauseMicros.getPercentile(50) / 1000.0,
+        pauseMicros.getPercentile(99) / 1000.0,
+        pauseMicros.getMax() / 1000.0));
+    report.add(section, String.format(
+        "allocation rate %.1f MB/s, %.2f%% of %.0f s wall clock in GC pauses",
+        wallClockSeconds == 0 ? 0.0 : allocatedKb / 1024.0 / wallClockSeconds,
+        wallClockSeconds == 0 ? 0.0 : 100.0 * pauseMicros.getSum() / 1.0e6 / wallClockSeconds,
+        wallClockSeconds));
+    return pauseMicros.getMax() / 1000.0;
+  }
+
+  /**
+   * @param size A heap size from a GC log.
+   * @param unit Its unit: B, K, M or G.
+   * @return the size, in kilobytes.
+   */
+  private static long toKb(String size, String unit) {
+    final double value = Double.parseDouble(size);
+    switch (unit.charAt(0)) {
+      case 'B':
+        return Math.round(value / 1024);
+      case 'M':
+        return Math.round(value * 1024);
+      case 'G':
+        return Math.round(value * 1024 * 1024);
+      default:
+        return Math.round(value);
+    }
+  }
+}
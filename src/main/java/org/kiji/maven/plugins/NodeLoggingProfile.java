@@ -0,0 +1,98 @@
+package org.kiji.maven.plugins;
+
+import java.util.Map;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * How much logging the Cassandra nodes do.  Selects the root log level, per-package levels and
+ * how much detail goes into each line.
+ */
+public enum NodeLoggingProfile {
+  /**
+   * Warnings and errors only, plus the few INFO lines that mark startup progress (which the
+   * startup watchdog follows).
+   */
+  QUIET(
+      "WARN",
+      false,
+      ImmutableMap.<String, String>builder()
+          .put("org.apache.cassandra.service.CassandraDaemon", "INFO")
+          .put("org.apache.cassandra.service.StorageService", "INFO")
+          .put("org.apache.cassandra.config.DatabaseDescriptor", "INFO")
+          .put("org.apache.cassandra.config.YamlConfigurationLoader", "INFO")
+          .put("org.apache.cassandra.db.commitlog", "INFO")
+          .put("org.apache.cassandra.transport.Server", "INFO")
+          .build()),
+
+  /** INFO logging. */
+  DEFAULT(
+      "INFO",
+      false,
+      ImmutableMap.<String, String>of()),
+
+  /** DEBUG logging, with the source file and line of every message. */
+  DEBUG(
+      "DEBUG",
+      true,
+      ImmutableMap.<String, String>of());
+
+  /** Level of the root logger. */
+  private final String mRootLevel;
+
+  /** Whether to include the caller's file and line (expensive) in every message. */
+  private final boolean mLocationInfo;
+
+  /** Levels for particular loggers. */
+  private final Map<String, String> mLoggerLevels;
+
+  /**
+   * Creates a logging profile.
+   *
+   * @param rootLevel Level of the root logger.
+   * @param locationInfo Whether to include the caller's file and line in every message.
+   * @param loggerLevels Levels for particular loggers.
+   */
+  NodeLoggingProfile(String rootLevel, boolean locationInfo, Map<String, String> loggerLevels) {
+    mRootLevel = rootLevel;
+    mLocationInfo = locationInfo;
+    mLoggerLevels = loggerLevels;
+  }
+
+  /**
+   * @return the level of the root logger.
+   */
+  public String getRootLevel() {
+    return mRootLevel;
+  }
+
+  /**
+   * @return whether to include the caller's file and line in every message.
+   */
+  public boolean isLocationInfo() {
+    return mLocationInfo;
+  }
+
+  /**
+   * @return levels for particular loggers.
+   */
+  public Map<String, String> getLoggerLevels() {
+    return mLoggerLevels;
+  }
+
+  /**
+   * Looks up a profile by (case-insensitive) name.
+   *
+   * @param name Name of the profile: quiet, default or debug.
+   * @return the profile.
+   */
+  public static NodeLoggingProfile fromName(String name) {
+    for (NodeLoggingProfile profile : values()) {
+      if (profile.name().equalsIgnoreCase(name)) {
+        return profile;
+      }
+    }
+    throw new IllegalArgumentException(
+        "Unknown logging profile '" + name + "' (expected quiet, default or debug).");
+  }
+}
@@ -0,0 +1,498 @@
+package org.kiji.maven.plugins;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Profiles a single Cassandra node for as long as it runs, with Java Flight Recorder or
+ * async-profiler, and summarizes the recording once the node has stopped.
+ *
+ * <p>The recording is dumped into the node's directory when the node's JVM exits, so a graceful
+ * stop is required; a SIGKILLed node leaves no recording behind.</p>
+ */
+public class NodeProfiler extends MavenLogged {
+  /** Which profiler to use. */
+  public enum Mode {
+    /** No profiling. */
+    NONE,
+    /** Java Flight Recorder. */
+    JFR,
+    /** async-profiler, which must be installed locally. */
+    ASYNC,
+    /** async-profiler if it can be found, else Java Flight Recorder. */
+    AUTO;
+
+    /**
+     * Looks up a mode by (case-insensitive) name.
+     *
+     * @param name Name of the mode: none, jfr, async or auto.
+     * @return the mode.
+     */
+    public static Mode fromName(String name) {
+      for (Mode mode : values()) {
+        if (mode.name().equalsIgnoreCase(name)) {
+          return mode;
+        }
+      }
+      throw new IllegalArgumentException(
+          "Unknown profiler '" + name + "' (expected none, jfr, async or auto).");
+    }
+  }
+
+  /** Places to look for async-profiler when no path is configured. */
+  private static final String[] ASYNC_PROFILER_LOCATIONS = {
+      "/opt/async-profiler/lib/libasyncProfiler.so",
+      "/opt/async-profiler/build/libasyncProfiler.so",
+      "/usr/local/lib/libasyncProfiler.so",
+      "/usr/lib/libasyncProfiler.so",
+  };
+
+  /**
+   * JVM arguments that make Flight Recorder available on the JVM the nodes run on (the one running
+   * maven), or null if that JVM has no Flight Recorder.
+   */
+  private static final List<String> JFR_UNLOCK_ARGUMENTS = getJfrUnlockArguments();
+
+  /** Where JDKs are usually installed, to look for a jfr tool in when none is configured. */
+  private static final String[] JDK_LOCATIONS = {
+      "/usr/lib/jvm",
+      "/usr/java",
+      "/Library/Java/JavaVirtualMachines",
+  };
+
+  /** Matches the frame async-profiler records an allocated class as, e.g. "byte[]_[i]". */
+  private static final Pattern ALLOCATED_CLASS = Pattern.compile("(.+)_\\[[ik]\\]");
+
+  /** Matches a size in jfr's output, e.g. "1.5 MB". */
+  private static final Pattern SIZE = Pattern.compile("([0-9.]+) (bytes|kB|MB|GB)");
+
+  /** The profiler actually used (never AUTO). */
+  private final Mode mMode;
+
+  /** async-profiler agent library, if the mode is ASYNC. */
+  private final File mAsyncProfilerLibrary;
+
+  /** JFR settings (a profile name such as "profile", or a .jfc file) or async-profiler event. */
+  private final String mSettings;
+
+  /** Where the recording goes. */
+  private final File mRecording;
+
+  /** The jfr tool to summarize the recording with, or null if there is none. */
+  private final File mJfrTool;
+
+  /** Number of entries in each list of the summary. */
+  private final int mTopN;
+
+  /**
+   * Creates a profiler for a node.
+   *
+   * @param log The maven log.
+   * @param configuration Container object with all user-defined configuration for the cluster.
+   * @param nodeDir The node's directory, which will hold the recording.
+   * @param nodeName Name of the node (used in the recording's file name).
+   */
+  public NodeProfiler(
+      Log log,
+      CassandraConfiguration configuration,
+      File nodeDir,
+      String nodeName) {
+    super(log);
+    mTopN = configuration.getProfileSummaryTopN();
+    Mode mode = null != configuration.getProfilerMode()
+        ? configuration.getProfilerMode()
+        : Mode.NONE;
+    final File asyncProfilerLibrary = mode == Mode.ASYNC || mode == Mode.AUTO
+        ? findAsyncProfiler(configuration.getAsyncProfilerPath())
+        : null;
+    if (mode == Mode.AUTO) {
+      if (null != asyncProfilerLibrary) {
+        mode = Mode.ASYNC;
+      } else if (null != JFR_UNLOCK_ARGUMENTS) {
+        mode = Mode.JFR;
+      } else {
+        log.warn("Not profiling: no async-profiler found, and this JVM has no Flight Recorder.");
+        mode = Mode.NONE;
+      }
+    } else if (mode == Mode.JFR && null == JFR_UNLOCK_ARGUMENTS) {
+      throw new IllegalArgumentException("JFR requested, but this JVM ("
+          + System.getProperty("java.runtime.name") + " " + System.getProperty("java.version")
+          + ") has no Flight Recorder; use an Oracle JDK 7/8, OpenJDK 8u262+ or JDK 11+.");
+    } else if (mode == Mode.ASYNC && null == asyncProfilerLibrary) {
+      throw new IllegalArgumentException("async-profiler requested, but libasyncProfiler.so was "
+          + "not found; set asyncProfilerPath.");
+    }
+    mMode = mode;
+    mAsyncProfilerLibrary = asyncProfilerLibrary;
+    if (mMode == Mode.ASYNC) {
+      mSettings = null != configuration.getProfilerSettings()
+          ? configuration.getProfilerSettings()
+          : "cpu";
+      mRecording = new File(nodeDir, nodeName + "-" + mSettings + ".collapsed");
+    } else {
+      mSettings = null != configuration.getProfilerSettings()
+          ? configuration.getProfilerSettings()
+          : "profile";
+      mRecording = new File(nodeDir, nodeName + ".jfr");
+    }
+    mJfrTool = mMode == Mode.JFR ? findJfrTool(configuration.getJfrToolPath()) : null;
+  }
+
+  /**
+   * Finds the async-profiler agent library.
+   *
+   * @param configuredPath Path configured by the user, or null to look in the usual places.
+   * @return the library, or null if it cannot be found.
+   */
+  private static File findAsyncProfiler(String configuredPath) {
+    if (null != configuredPath) {
+      File library = new File(configuredPath);
+      return library.isFile() ? library : null;
+    }
+    final String home = System.getenv("ASYNC_PROFILER_HOME");
+    if (null != home) {
+      for (String subdir : new String[] {"lib", "build"}) {
+        File library = new File(new File(home, subdir), "libasyncProfiler.so");
+        if (library.isFile()) {
+          return library;
+        }
+      }
+    }
+    for (String location : ASYNC_PROFILER_LOCATIONS) {
+      File library = new File(location);
+      if (library.isFile()) {
+        return library;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Finds out whether, and how, Flight Recorder can be turned on in this JVM.
+   *
+   * @return the JVM arguments that make Flight Recorder available (empty if it always is), or null
+   *     if this JVM has no Flight Recorder.
+   */
+  private static List<String> getJfrUnlockArguments() {
+    final String version = System.getProperty("java.specification.version");
+    final int major = Integer.parseInt(version.startsWith("1.")
+        ? version.substring(2)
+        : version.replaceFirst("\\..*", ""));
+    if (major >= 11) {
+      return Collections.emptyList();
+    }
+    if (System.getProperty("java.runtime.name", "").contains("Java(TM)")) {
+      // Oracle JDKs before 11 only have JFR as a commercial feature.
+      return Lists.newArrayList("-XX:+UnlockCommercialFeatures", "-XX:+FlightRecorder");
+    }
+    final File jfrJar = new File(new File(System.getProperty("java.home"), "lib"), "jfr.jar");
+    if (8 == major && jfrJar.isFile()) {
+      // OpenJDK 8 has JFR, without the commercial flags, from 8u262 on.
+      return Collections.emptyList();
+    }
+    return null;
+  }
+
+  /**
+   * Finds a jfr tool.  Only JDK 11 and later have one, while Cassandra 2.x runs on Java 7 or 8, so
+   * unless one is configured, it is looked for in the JDK running maven (or the JDK above its
+   * JRE), then on the PATH, then in the JDKs installed in the usual places.
+   *
+   * @param configuredPath The tool, or the home of the JDK holding it, as configured by the user;
+   *     or null to look in the usual places.
+   * @return the tool, or null if there is none.
+   */
+  private static File findJfrTool(String configuredPath) {
+    if (null != configuredPath) {
+      final File configured = new File(configuredPath);
+      final File tool = configured.isDirectory()
+          ? new File(new File(configured, "bin"), "jfr")
+          : configured;
+      return tool.canExecute() ? tool : null;
+    }
+    List<File> bins = Lists.newArrayList();
+    final File javaHome = new File(System.getProperty("java.home"));
+    bins.add(new File(javaHome, "bin"));
+    bins.add(new File(javaHome.getParentFile(), "bin"));
+    final String path = System.getenv("PATH");
+    if (null != path) {
+      for (String directory : path.split(File.pathSeparator)) {
+        bins.add(new File(directory));
+      }
+    }
+    for (String location : JDK_LOCATIONS) {
+      final File[] jdks = new File(location).listFiles();
+      if (null == jdks) {
+        continue;
+      }
+      Arrays.sort(jdks, Collections.reverseOrder());
+      for (File jdk : jdks) {
+        bins.add(new File(jdk, "bin"));
+        bins.add(new File(new File(new File(jdk, "Contents"), "Home"), "bin"));
+      }
+    }
+    for (File bin : bins) {
+      final File tool = new File(bin, "jfr");
+      if (tool.isFile() && tool.canExecute()) {
+        return tool;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return whether this profiler records anything.
+   */
+  public boolean isEnabled() {
+    return mMode != Mode.NONE;
+  }
+
+  /**
+   * @return the JVM arguments that start the recording when the node starts.
+   */
+  public List<String> getJvmArguments() {
+    List<String> args = Lists.newArrayList();
+    switch (mMode) {
+      case JFR:
+        args.addAll(JFR_UNLOCK_ARGUMENTS);
+        args.add(String.format("-XX:StartFlightRecording=settings=%s,filename=%s,dumponexit=true",
+            mSettings, mRecording.getAbsolutePath()));
+        break;
+      case ASYNC:
+        args.add(String.format("-agentpath:%s=start,event=%s,collapsed,file=%s",
+            mAsyncProfilerLibrary.getAbsolutePath(), mSettings, mRecording.getAbsolutePath()));
+        break;
+      default:
+        break;
+    }
+    return args;
+  }
+
+  /**
+   * Summarizes the recording of a node that has stopped, adding the hottest methods and (for JFR)
+   * the top allocation sites to the run report.
+   *
+   * @param report The run report.
+   * @param nodeName Name of the node, for the report.
+   */
+  public void summarize(CassandraRunReport report, String nodeName) {
+    if (!isEnabled()) {
+      return;
+    }
+    final String section = "Profile " + nodeName;
+    if (!mRecording.isFile()) {
+      report.add(section, "no recording at " + mRecording + " (node not stopped gracefully?)");
+      return;
+    }
+    report.add(section, "recording: " + mRecording);
+    if (mMode == Mode.JFR && null == mJfrTool) {
+      report.add(section, "not summarized: no jfr tool found (it comes with JDK 11 and later); "
+          + "set jfrTool, or open the recording in JDK Mission Control");
+      return;
+    }
+    try {
+      if (mMode == Mode.ASYNC) {
+        addTop(report, section, describeAsyncEvent(), readCollapsed());
+      } else {
+        addTop(report, section, "hot methods (execution samples)",
+            readJfrTopFrames("jdk.ExecutionSample", null));
+        Map<String, Double> allocations =
+            readJfrTopFrames("jdk.ObjectAllocationSample", "weight");
+        if (allocations.isEmpty()) {
+          // Before JDK 16 there is no allocation sampling event; use TLAB allocations instead.
+          allocations = readJfrTopFrames("jdk.ObjectAllocationInNewTLAB", "tlabSize");
+        }
+        addTop(report, section, "allocation sites (bytes)", allocations);
+      }
+    } catch (IOException ioe) {
+      report.add(section, "could not summarize recording: " + ioe.getMessage());
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * @return the title of the summary of an async-profiler recording, by the event it sampled.
+   */
+  private String describeAsyncEvent() {
+    if ("alloc".equals(mSettings)) {
+      return "allocation sites (alloc samples)";
+    } else if ("lock".equals(mSettings)) {
+      return "contended locks (lock samples)";
+    }
+    return "hot methods (" + mSettings + " samples)";
+  }
+
+  /**
+   * Adds the largest entries of a tally to the run report, with their share of the total.
+   *
+   * @param report The run report.
+   * @param section Section of the report.
+   * @param title Title of the list.
+   * @param tally Totals, by method.
+   */
+  private void addTop(
+      CassandraRunReport report,
+      String section,
+      String title,
+      final Map<String, Double> tally) {
+    double total = 0;
+    for (double value : tally.values()) {
+      total += value;
+    }
+    List<String> methods = Lists.newArrayList(tally.keySet());
+    Collections.sort(methods, new Comparator<String>() {
+      @Override
+      public int compare(String a, String b) {
+        return Double.compare(tally.get(b), tally.get(a));
+      }
+    });
+    report.add(section, String.format("top %s:", title));
+    for (String method : methods.subList(0, Math.min(mTopN, methods.size()))) {
+      report.add(section, String.format(
+          "  %5.1f%%  %s", 100.0 * tally.get(method) / total, method));
+    }
+  }
+
+  /**
+   * Reads an async-profiler recording in collapsed-stack format ("frame;frame;frame count").
+   * Allocation samples end with the allocated class (e.g. "byte[]_[i]"), which is tallied along
+   * with the frame allocating it.
+   *
+   * @return sample counts by innermost frame (or by class and allocating frame).
+   * @throws IOException if the recording cannot be read.
+   */
+  private Map<String, Double> readCollapsed() throws IOException {
+    Map<String, Double> tally = Maps.newHashMap();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(
+        new FileInputStream(mRecording), Charsets.UTF_8));
+    try {
+      String line;
+      while (null != (line = reader.readLine())) {
+        final int space = line.lastIndexOf(' ');
+        if (space < 0) {
+          continue;
+        }
+        final String stack = line.substring(0, space);
+        final int last = stack.lastIndexOf(';');
+        String frame = stack.substring(last + 1);
+        final Matcher allocated = ALLOCATED_CLASS.matcher(frame);
+        if (allocated.matches() && last > 0) {
+          frame = allocated.group(1) + " at "
+              + stack.substring(stack.lastIndexOf(';', last - 1) + 1, last);
+        }
+        add(tally, frame, Double.parseDouble(line.substring(space + 1)));
+      }
+    } finally {
+      reader.close();
+    }
+    return tally;
+  }
+
+  /**
+   * Tallies the innermost frames of one kind of JFR event, using the JDK's jfr tool.
+   *
+   * @param event Name of the event.
+   * @param weightField Field holding the event's weight (a size), or null to count events.
+   * @return totals by innermost frame (empty if the recording has no such events).
+   * @throws IOException if the jfr tool cannot be run.
+   * @throws InterruptedException if interrupted while waiting for the jfr tool.
+   */
+  private Map<String, Double> readJfrTopFrames(String event, String weightField)
+      throws IOException, InterruptedException {
+    Process process = new ProcessBuilder(
+        mJfrTool.getAbsolutePath(), "print", "--events", event, mRecording.getAbsolutePath())
+        .redirectErrorStream(true)
+        .start();
+
+    Map<String, Double> tally = Maps.newHashMap();
+    BufferedReader reader =
+        new BufferedReader(new InputStreamReader(process.getInputStream(), Charsets.UTF_8));
+    try {
+      String line;
+      double weight = 1.0;
+      String objectClass = null;
+      boolean nextLineIsTopFrame = false;
+      while (null != (line = reader.readLine())) {
+        final String trimmed = line.trim();
+        if (trimmed.startsWith(event + " {")) {
+          weight = 1.0;
+          objectClass = null;
+        } else if (trimmed.startsWith("objectClass = ")) {
+          final String className = trimmed.substring("objectClass = ".length());
+          final int loaderIndex = className.indexOf(" (classLoader");
+          objectClass = loaderIndex < 0 ? className : className.substring(0, loaderIndex);
+        } else if (null != weightField && trimmed.startsWith(weightField + " = ")) {
+          weight = parseSize(trimmed.substring(weightField.length() + 3));
+        } else if (trimmed.startsWith("stackTrace = [")) {
+          nextLineIsTopFrame = true;
+        } else if (nextLineIsTopFrame) {
+          nextLineIsTopFrame = false;
+          final String frame = stripLineNumber(trimmed);
+          add(tally, null == objectClass ? frame : objectClass + " at " + frame, weight);
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    process.waitFor();
+    return tally;
+  }
+
+  /**
+   * @param frame A stack frame as printed by jfr, e.g. "a.B.c(int) line: 12".
+   * @return the frame without the line number.
+   */
+  private static String stripLineNumber(String frame) {
+    final int lineIndex = frame.indexOf(" line:");
+    return lineIndex < 0 ? frame : frame.substring(0, lineIndex);
+  }
+
+  /**
+   * @param text A size as printed by jfr, e.g. "1.5 MB".
+   * @return the size in bytes (1 if it cannot be parsed, so that the event still counts).
+   */
+  private static double parseSize(String text) {
+    Matcher matcher = SIZE.matcher(text);
+    if (!matcher.find()) {
+      return 1.0;
+    }
+    final double value = Double.parseDouble(matcher.group(1));
+    final String unit = matcher.group(2);
+    if ("kB".equals(unit)) {
+      return value * 1024;
+    } else if ("MB".equals(unit)) {
+      return value * 1024 * 1024;
+    } else if ("GB".equals(unit)) {
+      return value * 1024 * 1024 * 1024;
+    }
+    return value;
+  }
+
+  /**
+   * Adds to a tally.
+   *
+   * @param tally Totals, by key.
+   * @param key The key.
+   * @param amount Amount to add.
+   */
+  private static void add(Map<String, Double> tally, String key, double amount) {
+    final Double current = tally.get(key);
+    tally.put(key, null == current ? amount : current + amount);
+  }
+}
@@ -0,0 +1,87 @@
+package org.kiji.maven.plugins;
+
+import java.io.IOException;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * A daemon thread that periodically samples the resource usage of every running node of a cluster
+ * from /proc.
+ */
+public class NodeResourceSampler extends Thread implements MavenLoggable {
+  /** The maven log. */
+  private final Log mLog;
+
+  /** The cluster whose nodes to sample. */
+  private final MiniCassandraCluster mCluster;
+
+  /** Time between samples, in milliseconds. */
+  private final long mIntervalMillis;
+
+  /** Whether the thread has been asked to stop. */
+  private volatile boolean mIsStopRequested;
+
+  /**
+   * Creates a sampler.
+   *
+   * @param log The maven log.
+   * @param cluster The cluster whose nodes to sample.
+   * @param intervalMillis Time between samples, in milliseconds.
+   */
+  public NodeResourceSampler(Log log, MiniCassandraCluster cluster, long intervalMillis) {
+    super("cassandra-resource-sampler");
+    setDaemon(true);
+    mLog = log;
+    mCluster = cluster;
+    mIntervalMillis = intervalMillis;
+    mIsStopRequested = false;
+  }
+
+  @Override
+  public Log getLog() {
+    return mLog;
+  }
+
+  /**
+   * Takes one sample of every running node.
+   */
+  public void sampleAll() {
+    for (MiniCassandraClusterNode node : mCluster.getNodes()) {
+      if (!node.isRunning()) {
+        continue;
+      }
+      try {
+        node.getResourceUsage().sample(node.getPid());
+      } catch (IOException ioe) {
+        // Most likely the node exited between the two checks.
+        getLog().debug("Could not sample " + node + ": " + ioe.getMessage());
+      } catch (RuntimeException re) {
+        getLog().debug("Could not sample " + node + ": " + re);
+      }
+    }
+  }
+
+  /**
+   * Stops sampling, after one last sample, and waits for the thread to exit.
+   *
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  public void stopSampling() throws InterruptedException {
+    mIsStopRequested = true;
+    interrupt();
+    join();
+    sampleAll();
+  }
+
+  @Override
+  public void run() {
+    while (!mIsStopRequested) {
+      sampleAll();
+      try {
+        sleep(mIntervalMillis);
+      } catch (InterruptedException ie) {
+        getLog().debug("Resource sampler interrupted.");
+      }
+    }
+  }
+}
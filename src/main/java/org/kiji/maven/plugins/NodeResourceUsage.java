@@ -0,0 +1,210 @@
+package org.kiji.maven.plugins;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.util.List;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.io.CharStreams;
+
+/**
+ * Operating system resource usage of a node's process, sampled from /proc (Linux only).
+ *
+ * <p>CPU time and disk I/O are cumulative counters of a process, so the usage is accumulated from
+ * the differences between samples; a restarted node (new process id) starts counting again from
+ * zero.</p>
+ */
+public class NodeResourceUsage {
+  /** USER_HZ of most kernels, used when getconf is not available. */
+  private static final double DEFAULT_CLOCK_TICKS_PER_SECOND = 100.0;
+
+  /** Clock ticks per second of the utime and stime fields of /proc/PID/stat (USER_HZ). */
+  private static final double CLOCK_TICKS_PER_SECOND = readClockTicksPerSecond();
+
+  /**
+   * Asks the system for USER_HZ.
+   *
+   * @return the clock ticks per second of /proc/PID/stat, or 100 if getconf cannot tell.
+   */
+  private static double readClockTicksPerSecond() {
+    try {
+      final Process process = new ProcessBuilder("getconf", "CLK_TCK").start();
+      process.getOutputStream().close();
+      final String output = CharStreams.toString(
+          new InputStreamReader(process.getInputStream(), Charsets.US_ASCII)).trim();
+      if (0 == process.waitFor() && !output.isEmpty()) {
+        final double ticks = Double.parseDouble(output);
+        if (ticks > 0) {
+          return ticks;
+        }
+      }
+    } catch (IOException ioe) {
+      // No getconf; use the default below.
+    } catch (NumberFormatException nfe) {
+      // Unexpected output; use the default below.
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    }
+    return DEFAULT_CLOCK_TICKS_PER_SECOND;
+  }
+
+  /** Number of samples taken. */
+  private int mNumSamples;
+
+  /** Process sampled last. */
+  private long mLastPid = -1;
+
+  /** Time of the last sample, in nanoseconds. */
+  private long mLastSampleNanos;
+
+  /** Time of the first sample, in nanoseconds. */
+  private long mFirstSampleNanos;
+
+  /** CPU time of the process at the last sample, in seconds. */
+  private double mLastCpuSeconds;
+
+  /** Bytes the process had read from disk at the last sample. */
+  private long mLastReadBytes;
+
+  /** Bytes the process had written to disk at the last sample. */
+  private long mLastWriteBytes;
+
+  /** Peak and total resident set size, in kilobytes. */
+  private long mPeakRssKb;
+  private long mTotalRssKb;
+
+  /** Peak and total number of threads. */
+  private int mPeakThreads;
+  private long mTotalThreads;
+
+  /** Peak and total number of open file descriptors. */
+  private int mPeakFds;
+  private long mTotalFds;
+
+  /** Total CPU time, in seconds. */
+  private double mCpuSeconds;
+
+  /** Total bytes read from and written to disk. */
+  private long mReadBytes;
+  private long mWriteBytes;
+
+  /** Highest disk write rate between two samples, in bytes per second. */
+  private double mPeakWriteBytesPerSecond;
+
+  /**
+   * Samples a process.
+   *
+   * @param pid Id of the node's process.
+   * @throws IOException if /proc cannot be read (e.g., the process has exited).
+   */
+  public synchronized void sample(long pid) throws IOException {
+    final File procDir = new File("/proc/" + pid);
+    final long now = System.nanoTime();
+
+    long rssKb = 0;
+    int threads = 0;
+    for (String line : Files.readAllLines(new File(procDir, "status").toPath(), Charsets.UTF_8)) {
+      if (line.startsWith("VmRSS:")) {
+        rssKb = Long.parseLong(getFields(line).get(1));
+      } else if (line.startsWith("Threads:")) {
+        threads = Integer.parseInt(getFields(line).get(1));
+      }
+    }
+
+    // The command name may contain spaces, so count fields from the closing parenthesis:
+    // utime and stime are fields 14 and 15 of the line, i.e. 12 and 13 after it.
+    final String stat = new String(
+        Files.readAllBytes(new File(procDir, "stat").toPath()), Charsets.UTF_8);
+    final List<String> statFields = getFields(stat.substring(stat.lastIndexOf(')') + 1));
+    final double cpuSeconds = (Long.parseLong(statFields.get(11))
+        + Long.parseLong(statFields.get(12))) / CLOCK_TICKS_PER_SECOND;
+
+    long readBytes = 0;
+    long writeBytes = 0;
+    final File io = new File(procDir, "io");
+    if (io.canRead()) {
+      for (String line : Files.readAllLines(io.toPath(), Charsets.UTF_8)) {
+        if (line.startsWith("read_bytes:")) {
+          readBytes = Long.parseLong(getFields(line).get(1));
+        } else if (line.startsWith("write_bytes:")) {
+          writeBytes = Long.parseLong(getFields(line).get(1));
+        }
+      }
+    }
+
+    final String[] fds = new File(procDir, "fd").list();
+    final int numFds = null == fds ? 0 : fds.length;
+
+    if (pid != mLastPid) {
+      // A new process: its counters started from zero.
+      mLastCpuSeconds = 0;
+      mLastReadBytes = 0;
+      mLastWriteBytes = 0;
+    } else if (now > mLastSampleNanos) {
+      mPeakWriteBytesPerSecond = Math.max(mPeakWriteBytesPerSecond,
+          (writeBytes - mLastWriteBytes) / ((now - mLastSampleNanos) / 1.0e9));
+    }
+    mCpuSeconds += cpuSeconds - mLastCpuSeconds;
+    mReadBytes += readBytes - mLastReadBytes;
+    mWriteBytes += writeBytes - mLastWriteBytes;
+    mLastCpuSeconds = cpuSeconds;
+    mLastReadBytes = readBytes;
+    mLastWriteBytes = writeBytes;
+
+    if (0 == mNumSamples) {
+      mFirstSampleNanos = now;
+    }
+    mNumSamples++;
+    mLastPid = pid;
+    mLastSampleNanos = now;
+    mPeakRssKb = Math.max(mPeakRssKb, rssKb);
+    mTotalRssKb += rssKb;
+    mPeakThreads = Math.max(mPeakThreads, threads);
+    mTotalThreads += threads;
+    mPeakFds = Math.max(mPeakFds, numFds);
+    mTotalFds += numFds;
+  }
+
+  /**
+   * @param line A line of whitespace-separated fields.
+   * @return the fields.
+   */
+  private static List<String> getFields(String line) {
+    return Lists.newArrayList(Splitter.on(' ').trimResults().omitEmptyStrings()
+        .split(line.replace('\t', ' ')));
+  }
+
+  /**
+   * @return whether any samples were taken.
+   */
+  public synchronized boolean isEmpty() {
+    return 0 == mNumSamples;
+  }
+
+  /**
+   * Adds the peaks and averages to the run report.
+   *
+   * @param report The run report.
+   * @param section Section of the report.
+   */
+  public synchronized void addToReport(CassandraRunReport report, String section) {
+    if (0 == mNumSamples) {
+      return;
+    }
+    final double sampledSeconds = (mLastSampleNanos - mFirstSampleNanos) / 1.0e9;
+    report.add(section, String.format("%d samples over %.0f s", mNumSamples, sampledSeconds));
+    report.add(section, String.format("RSS peak %.0f MB, average %.0f MB",
+        mPeakRssKb / 1024.0, mTotalRssKb / 1024.0 / mNumSamples));
+    report.add(section, String.format("CPU %.1f s (average %.0f%% of a core)",
+        mCpuSeconds, sampledSeconds > 0 ? 100.0 * mCpuSeconds / sampledSeconds : 0.0));
+    report.add(section, String.format("threads peak %d, average %.0f; file descriptors peak %d, "
+        + "average %.0f", mPeakThreads, (double) mTotalThreads / mNumSamples,
+        mPeakFds, (double) mTotalFds / mNumSamples));
+    report.add(section, String.format("disk read %.1f MB, written %.1f MB (peak %.1f MB/s)",
+        mReadBytes / 1048576.0, mWriteBytes / 1048576.0, mPeakWriteBytesPerSecond / 1048576.0));
+  }
+}
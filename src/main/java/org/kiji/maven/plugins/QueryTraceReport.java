@@ -0,0 +1,294 @@
+package org.kiji.maven.plugins;
+
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Aggregates the query traces that the nodes recorded in system_traces into a report of the
+ * slowest statements.
+ *
+ * <p>Statements are grouped after replacing their literals with '?'.  For each statement, the
+ * report gives the number of traced executions, their median and 99th percentile duration, the
+ * activity that took the most time (time spent before a trace event is charged to that event), and
+ * how many tombstones and cross-node messages an execution went through on average.</p>
+ *
+ * <p>Cassandra 2.0 and 2.1 do not record the query of a prepared statement's execution, so all
+ * executions of prepared statements are reported together, as one entry.</p>
+ */
+public class QueryTraceReport extends MavenLogged {
+  /** Section of the run report. */
+  private static final String REPORT_SECTION = "Slow queries";
+
+  /**
+   * Statement under which executions of prepared statements are reported.  Cassandra 2.0 and 2.1
+   * trace them as "Execute CQL3 prepared query", without the query, so they cannot be told apart.
+   */
+  private static final String PREPARED_STATEMENTS = "(prepared statements, not distinguishable)";
+
+  /** Rows fetched per page from the trace tables. */
+  private static final int FETCH_SIZE = 1000;
+
+  /** Literals of a statement: strings, uuids, blobs and numbers. */
+  private static final Pattern LITERAL = Pattern.compile(
+      "'(?:[^']|'')*'"
+          + "|\\b[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}\\b"
+          + "|\\b0x[0-9a-fA-F]+\\b"
+          + "|(?<![\\w.])-?\\d+(?:\\.\\d+)?(?:[eE]-?\\d+)?\\b");
+
+  /** Lists of placeholders, e.g. in an IN clause. */
+  private static final Pattern PLACEHOLDER_LIST = Pattern.compile("\\?(?:\\s*,\\s*\\?)+");
+
+  /** Trace activity reporting the cells a read went through. */
+  private static final Pattern CELLS_READ =
+      Pattern.compile("Read (\\d+) live and (\\d+) tombstoned cells");
+
+  /** Trace activity of a message sent to another node. */
+  private static final Pattern MESSAGE_SENT =
+      Pattern.compile("^(?:Sending message to|Enqueuing request to) ");
+
+  /** Numbers and addresses in trace activities. */
+  private static final Pattern ACTIVITY_VARIABLE =
+      Pattern.compile("/?\\d+(?:\\.\\d+){3}|\\b\\d+\\b");
+
+  /** Traced executions, by normalized statement. */
+  private final Map<String, StatementStats> mStatements = Maps.newHashMap();
+
+  /**
+   * Creates an empty report.
+   *
+   * @param log The maven log.
+   */
+  public QueryTraceReport(Log log) {
+    super(log);
+  }
+
+  /**
+   * Reads the traces recorded so far.
+   *
+   * @param session Session connected to the cluster.
+   */
+  public void collect(Session session) {
+    // Events first, so that every session can be matched against its events in one pass.
+    Map<UUID, SessionEvents> events = Maps.newHashMap();
+    for (Row row : session.execute(new SimpleStatement(
+        "SELECT session_id, activity, source, source_elapsed FROM system_traces.events")
+        .setFetchSize(FETCH_SIZE))) {
+      SessionEvents sessionEvents = events.get(row.getUUID("session_id"));
+      if (null == sessionEvents) {
+        sessionEvents = new SessionEvents();
+        events.put(row.getUUID("session_id"), sessionEvents);
+      }
+      sessionEvents.add(
+          row.getString("activity"), row.getInet("source"), row.getInt("source_elapsed"));
+    }
+
+    for (Row row : session.execute(new SimpleStatement(
+        "SELECT session_id, duration, parameters, request FROM system_traces.sessions")
+        .setFetchSize(FETCH_SIZE))) {
+      if (row.isNull("duration")) {
+        // Still running, or its trace was not complete yet.
+        continue;
+      }
+      final Map<String, String> parameters =
+          row.getMap("parameters", String.class, String.class);
+      final String statement;
+      if (parameters.containsKey("query")) {
+        statement = normalize(parameters.get("query"));
+      } else if (String.valueOf(row.getString("request")).contains("prepared")) {
+        statement = PREPARED_STATEMENTS;
+      } else {
+        statement = row.getString("request");
+      }
+      StatementStats stats = mStatements.get(statement);
+      if (null == stats) {
+        stats = new StatementStats(statement);
+        mStatements.put(statement, stats);
+      }
+      stats.add(row.getInt("duration"), events.get(row.getUUID("session_id")));
+    }
+  }
+
+  /**
+   * @return the number of traced executions read.
+   */
+  public long getNumTraces() {
+    long total = 0;
+    for (StatementStats stats : mStatements.values()) {
+      total += stats.getDurationMicros().getCount();
+    }
+    return total;
+  }
+
+  /**
+   * Adds the slowest statements, by 99th percentile duration, to the run report.
+   *
+   * @param report The run report.
+   * @param topN Number of statements to report.
+   */
+  public void addToReport(CassandraRunReport report, int topN) {
+    List<StatementStats> ranked = Lists.newArrayList(mStatements.values());
+    Collections.sort(ranked, new Comparator<StatementStats>() {
+      @Override
+      public int compare(StatementStats a, StatementStats b) {
+        return Long.compare(
+            b.getDurationMicros().getPercentile(99), a.getDurationMicros().getPercentile(99));
+      }
+    });
+    report.add(REPORT_SECTION, String.format(
+        "%d traced executions of %d statements", getNumTraces(), ranked.size()));
+    if (mStatements.containsKey(PREPARED_STATEMENTS)) {
+      report.add(REPORT_SECTION, "Cassandra does not trace which prepared statement ran, so "
+          + "executions of all prepared statements are reported together as "
+          + PREPARED_STATEMENTS);
+    }
+    for (int i = 0; i < Math.min(topN, ranked.size()); i++) {
+      report.add(REPORT_SECTION, String.format("%d. %s", i + 1, ranked.get(i)));
+    }
+  }
+
+  /**
+   * Replaces the literals of a statement with '?', so that executions that differ only in their
+   * values are counted together.
+   *
+   * @param statement A CQL statement.
+   * @return the normalized statement.
+   */
+  public static String normalize(String statement) {
+    String normalized = LITERAL.matcher(statement).replaceAll("?");
+    normalized = PLACEHOLDER_LIST.matcher(normalized).replaceAll("?");
+    return normalized.replaceAll("\\s+", " ").trim();
+  }
+
+  /**
+   * The trace events of one traced execution.
+   */
+  private static final class SessionEvents {
+    /** Time spent before each activity, in microseconds, by normalized activity. */
+    private final Map<String, Long> mActivityMicros = Maps.newHashMap();
+
+    /** Elapsed time of the last event on each node, in microseconds. */
+    private final Map<InetAddress, Integer> mLastElapsedMicros = Maps.newHashMap();
+
+    /** Number of tombstoned cells read. */
+    private long mTombstones;
+
+    /** Number of messages sent to other nodes. */
+    private long mHops;
+
+    /**
+     * Adds an event (events of a node arrive in the order they happened).
+     *
+     * @param activity What happened.
+     * @param source The node it happened on.
+     * @param elapsedMicros Time since the start of the execution on that node, in microseconds.
+     */
+    void add(String activity, InetAddress source, int elapsedMicros) {
+      final Integer last = mLastElapsedMicros.put(source, elapsedMicros);
+      final String name = ACTIVITY_VARIABLE.matcher(activity).replaceAll("N");
+      final Long total = mActivityMicros.get(name);
+      mActivityMicros.put(name, (null == total ? 0 : total)
+          + Math.max(0, elapsedMicros - (null == last ? 0 : last)));
+
+      final Matcher cells = CELLS_READ.matcher(activity);
+      if (cells.find()) {
+        mTombstones += Long.parseLong(cells.group(2));
+      }
+      if (MESSAGE_SENT.matcher(activity).find()) {
+        mHops++;
+      }
+    }
+  }
+
+  /**
+   * Traced executions of one normalized statement.
+   */
+  private static final class StatementStats {
+    /** The normalized statement. */
+    private final String mStatement;
+
+    /** Duration of each execution, in microseconds. */
+    private final LatencyRecorder mDurationMicros = new LatencyRecorder();
+
+    /** Time spent before each activity, in microseconds, over all executions. */
+    private final Map<String, Long> mActivityMicros = Maps.newHashMap();
+
+    /** Number of tombstoned cells read, over all executions. */
+    private long mTombstones;
+
+    /** Number of messages sent to other nodes, over all executions. */
+    private long mHops;
+
+    /**
+     * @param statement The normalized statement.
+     */
+    StatementStats(String statement) {
+      mStatement = statement;
+    }
+
+    /**
+     * @return the duration of each execution, in microseconds.
+     */
+    LatencyRecorder getDurationMicros() {
+      return mDurationMicros;
+    }
+
+    /**
+     * Adds an execution.
+     *
+     * @param durationMicros Duration of the execution, in microseconds.
+     * @param events Its trace events, or null if none were recorded.
+     */
+    void add(int durationMicros, SessionEvents events) {
+      mDurationMicros.record(durationMicros);
+      if (null == events) {
+        return;
+      }
+      for (Map.Entry<String, Long> activity : events.mActivityMicros.entrySet()) {
+        final Long total = mActivityMicros.get(activity.getKey());
+        mActivityMicros.put(activity.getKey(), (null == total ? 0 : total) + activity.getValue());
+      }
+      mTombstones += events.mTombstones;
+      mHops += events.mHops;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+      final long count = mDurationMicros.getCount();
+      String dominant = "none";
+      long dominantMicros = 0;
+      long totalMicros = 0;
+      for (Map.Entry<String, Long> activity : mActivityMicros.entrySet()) {
+        totalMicros += activity.getValue();
+        if (activity.getValue() > dominantMicros) {
+          dominant = activity.getKey();
+          dominantMicros = activity.getValue();
+        }
+      }
+      return String.format(
+          "p99 %.2f ms, p50 %.2f ms, %d executions, %.1f tombstones and %.1f cross-node messages "
+              + "per execution, dominant event '%s' (%.0f%% of traced time): %s",
+          mDurationMicros.getPercentile(99) / 1000.0,
+          mDurationMicros.getPercentile(50) / 1000.0,
+          count,
+          (double) mTombstones / count,
+          (double) mHops / count,
+          dominant,
+          totalMicros > 0 ? 100.0 * dominantMicros / totalMicros : 0.0,
+          mStatement);
+    }
+  }
+}
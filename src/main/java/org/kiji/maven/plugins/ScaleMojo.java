@@ -0,0 +1,82 @@
+package org.kiji.maven.plugins;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+/**
+ * Maven goal to add nodes to, or decommission / remove nodes from, the running Cassandra cluster.
+ *
+ * <p>Bind one execution of this goal per scripted step, between the start and stop goals.  Nodes
+ * are decommissioned, then removed, then added.  Every operation blocks until done, and its
+ * duration and streaming rate go into the run report.</p>
+ */
+@Mojo(name = "scale")
+public class ScaleMojo extends AbstractMojo {
+  /** If true, this goal should be a no-op. */
+  @Parameter(property = "cassandra.skip", defaultValue = "false")
+  private boolean mSkip;
+
+  /** Number of nodes to add to the cluster. */
+  @Parameter(property = "cassandra.addNodes", alias = "addNodes", defaultValue = "0")
+  private int mAddNodes;
+
+  /** Ids of the nodes to decommission (they stream their data away before leaving). */
+  @Parameter(alias = "decommissionNodes")
+  private List<Integer> mDecommissionNodes = Collections.emptyList();
+
+  /** Ids of the nodes to kill and remove from the ring (the rest re-replicate their data). */
+  @Parameter(alias = "removeNodes")
+  private List<Integer> mRemoveNodes = Collections.emptyList();
+
+  @Override
+  public void execute() throws MojoExecutionException {
+    if (mSkip) {
+      getLog().info("Not scaling the Cassandra cluster because skip=true.");
+      return;
+    }
+    final MiniCassandraCluster cluster;
+    try {
+      cluster = MiniCassandraClusterSingleton.INSTANCE.getRunningCluster();
+    } catch (IllegalStateException ise) {
+      throw new MojoExecutionException("Cannot scale the Cassandra cluster.", ise);
+    }
+
+    try {
+      for (int nodeId : mDecommissionNodes) {
+        getLog().info("Decommissioning Cassandra node " + nodeId + "...");
+        cluster.decommissionNode(nodeId);
+      }
+      for (int nodeId : mRemoveNodes) {
+        getLog().info("Removing Cassandra node " + nodeId + "...");
+        cluster.removeNode(nodeId);
+      }
+      for (int i = 0; i < mAddNodes; i++) {
+        getLog().info("Adding a Cassandra node...");
+        cluster.addNode();
+      }
+    } catch (Exception e) {
+      throw new MojoExecutionException("Unable to scale Cassandra cluster.", e);
+    }
+  }
+}
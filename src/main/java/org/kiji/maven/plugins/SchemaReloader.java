@@ -0,0 +1,424 @@
+package org.kiji.maven.plugins;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.datastax.driver.core.Session;
+import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Applies edits of the schema and fixture scripts to a running cluster, touching only what
+ * changed.
+ *
+ * <p>The schema scripts are split into keyspaces (their CREATE KEYSPACE statement) and tables
+ * (their CREATE TABLE, ALTER TABLE and CREATE INDEX statements); everything else is run once, when
+ * it first appears.  A table whose statements changed is dropped and created again, a keyspace
+ * whose options changed is altered in place, and tables and keyspaces that disappeared from the
+ * scripts are dropped.  Fixture statements are grouped by the tables they write to: tables that
+ * were created again, or whose fixture statements changed, are truncated and get their fixture
+ * statements run again.  A statement that writes to several tables (e.g., a batch) reloads all of
+ * them, so that none gets its rows twice.  Other tables are left alone, so fixture statements
+ * need not be idempotent across tables.</p>
+ */
+public class SchemaReloader extends MavenLogged {
+  /** A CREATE KEYSPACE statement; groups are the name and the options. */
+  private static final Pattern KEYSPACE_DDL = Pattern.compile(
+      "^CREATE\\s+(?:KEYSPACE|SCHEMA)\\s+(?:IF\\s+NOT\\s+EXISTS\\s+)?(\"?\\w+\"?)\\s+(WITH\\s.*)$",
+      Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+  /** A USE statement; the group is the keyspace. */
+  private static final Pattern USE =
+      Pattern.compile("^USE\\s+(\"?\\w+\"?)$", Pattern.CASE_INSENSITIVE);
+
+  /** A statement defining (part of) a table; the group is the table. */
+  private static final Pattern TABLE_DDL = Pattern.compile(
+      "^(?:(?:CREATE|ALTER)\\s+(?:TABLE|COLUMNFAMILY)\\s+(?:IF\\s+NOT\\s+EXISTS\\s+)?"
+          + "|CREATE\\s+(?:CUSTOM\\s+)?INDEX\\s.*?\\bON\\s+)([\\w.\"]+)",
+      Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+  /** A string literal, which may hold anything (escaped quotes are doubled). */
+  private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+
+  /**
+   * The tables a fixture statement (or each statement of a batch) writes to, once its string
+   * literals are removed.
+   */
+  private static final Pattern DATA_TARGET = Pattern.compile(
+      "\\b(?:INSERT\\s+INTO|UPDATE|DELETE\\b.*?\\bFROM|TRUNCATE)\\s+([\\w.\"]+)",
+      Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+  /** Session connected to the cluster. */
+  private final Session mSession;
+
+  /** The schema scripts, in order. */
+  private final List<File> mSchemaFiles;
+
+  /** The fixture scripts, in order. */
+  private final List<File> mFixtureFiles;
+
+  /** Values of the variables the scripts may refer to, by name. */
+  private final Map<String, String> mVariables;
+
+  /** What the scripts held when last applied. */
+  private Scripts mApplied;
+
+  /** Keyspace the session is using, or null if unknown. */
+  private String mSessionKeyspace;
+
+  /**
+   * Creates a reloader for scripts that have already been run against the cluster.
+   *
+   * @param log The maven log.
+   * @param session Session connected to the cluster.
+   * @param schemaFiles The schema scripts, in order.
+   * @param fixtureFiles The fixture scripts, in order.
+   * @param variables Values of the variables the scripts may refer to, by name.
+   * @throws IOException if a script cannot be read.
+   */
+  public SchemaReloader(
+      Log log,
+      Session session,
+      List<File> schemaFiles,
+      List<File> fixtureFiles,
+      Map<String, String> variables) throws IOException {
+    super(log);
+    mSession = session;
+    mSchemaFiles = schemaFiles;
+    mFixtureFiles = fixtureFiles;
+    mVariables = variables;
+    mApplied = Scripts.read(schemaFiles, fixtureFiles, variables);
+  }
+
+  /**
+   * Reads the scripts again and applies what changed since they were last applied.  If a
+   * statement fails, the rest of the changes are not applied, but the scripts still count as
+   * applied: fixing the statement and saving again applies what the fix changes.
+   *
+   * @return a summary of what was applied, and how long it took.
+   * @throws IOException if a script cannot be read.
+   */
+  public String apply() throws IOException {
+    final long startTime = System.currentTimeMillis();
+    final Scripts previous = mApplied;
+    final Scripts next = Scripts.read(mSchemaFiles, mFixtureFiles, mVariables);
+    mApplied = next;
+
+    // Drop the tables that are gone or changed first, then the keyspaces that are gone.
+    Set<String> dropped = Sets.newTreeSet();
+    Set<String> recreated = Sets.newTreeSet();
+    for (Map.Entry<String, List<Statement>> table : previous.mTables.entrySet()) {
+      final List<Statement> statements = next.mTables.get(table.getKey());
+      if (null == statements) {
+        dropped.add(table.getKey());
+      } else if (!statements.equals(table.getValue())) {
+        recreated.add(table.getKey());
+      } else {
+        continue;
+      }
+      execute("DROP TABLE IF EXISTS " + quote(table.getKey()));
+    }
+    Set<String> droppedKeyspaces = Sets.newTreeSet();
+    for (String keyspace : previous.mKeyspaces.keySet()) {
+      if (!next.mKeyspaces.containsKey(keyspace)) {
+        droppedKeyspaces.add(keyspace);
+        execute("DROP KEYSPACE IF EXISTS " + quote(keyspace));
+        mSessionKeyspace = null;
+      }
+    }
+
+    // Then create or alter the keyspaces, and create the tables, in script order.
+    Set<String> createdKeyspaces = Sets.newTreeSet();
+    Set<String> alteredKeyspaces = Sets.newTreeSet();
+    for (Map.Entry<String, Statement> keyspace : next.mKeyspaces.entrySet()) {
+      final Statement before = previous.mKeyspaces.get(keyspace.getKey());
+      if (null == before) {
+        createdKeyspaces.add(keyspace.getKey());
+        execute(keyspace.getValue());
+      } else if (!before.equals(keyspace.getValue())) {
+        alteredKeyspaces.add(keyspace.getKey());
+        final Matcher matcher = KEYSPACE_DDL.matcher(keyspace.getValue().mText);
+        matcher.matches();
+        execute("ALTER KEYSPACE " + matcher.group(1) + " " + matcher.group(2));
+      }
+    }
+    Set<String> created = Sets.newTreeSet();
+    for (Map.Entry<String, List<Statement>> table : next.mTables.entrySet()) {
+      if (!previous.mTables.containsKey(table.getKey())) {
+        created.add(table.getKey());
+      } else if (!recreated.contains(table.getKey())) {
+        continue;
+      }
+      for (Statement statement : table.getValue()) {
+        execute(statement);
+      }
+    }
+    int newStatements = 0;
+    for (Statement statement : next.mOthers) {
+      if (!previous.mOthers.contains(statement)) {
+        execute(statement);
+        newStatements++;
+      }
+    }
+
+    // Reload the fixtures of new tables, and of tables whose fixtures changed.
+    Set<String> reloaded = Sets.newTreeSet(created);
+    reloaded.addAll(recreated);
+    for (String table : Sets.union(previous.mFixtures.keySet(), next.mFixtures.keySet())) {
+      if (!previous.mFixtures.get(table).equals(next.mFixtures.get(table))) {
+        reloaded.add(table);
+      }
+    }
+    reloaded.removeAll(dropped);
+    // Statements writing to a reloaded table run again, so the other tables they write to must be
+    // reloaded too.
+    boolean grown = true;
+    while (grown) {
+      grown = false;
+      for (Statement statement : next.mFixtureStatements) {
+        if (!Collections.disjoint(statement.mTargets, reloaded)) {
+          grown |= reloaded.addAll(Sets.difference(statement.mTargets, dropped));
+        }
+      }
+    }
+    for (String table : reloaded) {
+      if (!created.contains(table) && !recreated.contains(table)) {
+        execute("TRUNCATE " + quote(table));
+      }
+    }
+    int fixtureStatements = 0;
+    for (Statement statement : next.mFixtureStatements) {
+      if (!Collections.disjoint(statement.mTargets, reloaded)) {
+        execute(statement);
+        fixtureStatements++;
+      }
+    }
+    reloaded.retainAll(next.mFixtures.keySet());
+
+    List<String> summary = Lists.newArrayList();
+    addToSummary(summary, "dropped keyspaces", droppedKeyspaces);
+    addToSummary(summary, "created keyspaces", createdKeyspaces);
+    addToSummary(summary, "altered keyspaces", alteredKeyspaces);
+    addToSummary(summary, "dropped tables", dropped);
+    addToSummary(summary, "created tables", created);
+    addToSummary(summary, "recreated tables", recreated);
+    if (newStatements > 0) {
+      summary.add("ran " + newStatements + " new statement(s)");
+    }
+    if (!reloaded.isEmpty()) {
+      summary.add(String.format("reloaded %d fixture statement(s) into %s",
+          fixtureStatements, reloaded));
+    }
+    if (summary.isEmpty()) {
+      summary.add("nothing changed");
+    }
+    return String.format("%s in %.2f s",
+        Joiner.on(", ").join(summary), (System.currentTimeMillis() - startTime) / 1000.0);
+  }
+
+  /**
+   * Adds a list of schema objects to a summary, if it is not empty.
+   *
+   * @param summary The summary.
+   * @param what What happened to the objects.
+   * @param names Names of the objects.
+   */
+  private static void addToSummary(List<String> summary, String what, Set<String> names) {
+    if (!names.isEmpty()) {
+      summary.add(what + " " + names);
+    }
+  }
+
+  /**
+   * Runs a statement of the scripts, in the keyspace the scripts were using at that point.
+   *
+   * @param statement The statement.
+   */
+  private void execute(Statement statement) {
+    if (null != statement.mKeyspace && !statement.mKeyspace.equals(mSessionKeyspace)) {
+      mSession.execute("USE " + quote(statement.mKeyspace));
+      mSessionKeyspace = statement.mKeyspace;
+    }
+    execute(statement.mText);
+  }
+
+  /**
+   * Runs a statement.
+   *
+   * @param cql The statement.
+   */
+  private void execute(String cql) {
+    getLog().debug("Running " + cql);
+    mSession.execute(cql);
+  }
+
+  /**
+   * Resolves a keyspace or table name the way Cassandra does: unquoted names are case
+   * insensitive, and tables without a keyspace are in the keyspace being used.
+   *
+   * @param name The name, as written in a statement.
+   * @param keyspace Keyspace being used, or null.
+   * @return the resolved name.
+   */
+  private static String resolve(String name, String keyspace) {
+    List<String> parts = Lists.newArrayList();
+    for (String part : Splitter.on('.').split(name)) {
+      parts.add(part.length() > 1 && part.startsWith("\"") && part.endsWith("\"")
+          ? part.substring(1, part.length() - 1)
+          : part.toLowerCase(Locale.ROOT));
+    }
+    if (1 == parts.size() && null != keyspace) {
+      parts.add(0, keyspace);
+    }
+    return Joiner.on('.').join(parts);
+  }
+
+  /**
+   * @param name A resolved keyspace or table name.
+   * @return the name, quoted for CQL.
+   */
+  private static String quote(String name) {
+    return "\"" + name.replace(".", "\".\"") + "\"";
+  }
+
+  /**
+   * A statement of a script.
+   */
+  private static final class Statement {
+    /** The statement, as written. */
+    private final String mText;
+
+    /** The statement with its whitespace collapsed, for comparing. */
+    private final String mNormalized;
+
+    /** Keyspace the scripts were using at this point, or null. */
+    private final String mKeyspace;
+
+    /** Tables the statement writes to (for fixture statements). */
+    private final Set<String> mTargets = Sets.newTreeSet();
+
+    /**
+     * @param text The statement, as written.
+     * @param keyspace Keyspace the scripts were using at this point, or null.
+     */
+    Statement(String text, String keyspace) {
+      mText = text;
+      mNormalized = text.replaceAll("\\s+", " ");
+      mKeyspace = keyspace;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Statement)) {
+        return false;
+      }
+      final Statement statement = (Statement) other;
+      return mNormalized.equals(statement.mNormalized)
+          && Objects.equal(mKeyspace, statement.mKeyspace);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(mNormalized, mKeyspace);
+    }
+  }
+
+  /**
+   * The statements of the schema and fixture scripts, grouped by what they define or write to.
+   */
+  private static final class Scripts {
+    /** CREATE KEYSPACE statements, by keyspace, in script order. */
+    private final Map<String, Statement> mKeyspaces = Maps.newLinkedHashMap();
+
+    /** Statements defining each table, by table, in script order. */
+    private final Map<String, List<Statement>> mTables = Maps.newLinkedHashMap();
+
+    /** The other schema statements. */
+    private final List<Statement> mOthers = Lists.newArrayList();
+
+    /** The fixture statements, in script order. */
+    private final List<Statement> mFixtureStatements = Lists.newArrayList();
+
+    /** The fixture statements, by the tables they write to. */
+    private final ListMultimap<String, Statement> mFixtures = ArrayListMultimap.create();
+
+    /**
+     * Reads the scripts.  As when they are run, a USE statement applies to the statements after
+     * it, in the same and in later scripts.
+     *
+     * @param schemaFiles The schema scripts, in order.
+     * @param fixtureFiles The fixture scripts, in order.
+     * @param variables Values of the variables the scripts may refer to, by name.
+     * @return the statements.
+     * @throws IOException if a script cannot be read.
+     */
+    static Scripts read(
+        List<File> schemaFiles,
+        List<File> fixtureFiles,
+        Map<String, String> variables) throws IOException {
+      Scripts scripts = new Scripts();
+      String keyspace = null;
+      for (File file : schemaFiles) {
+        for (String text : new CqlScript(file, variables).getStatements()) {
+          final Matcher use = USE.matcher(text);
+          if (use.matches()) {
+            keyspace = resolve(use.group(1), null);
+            continue;
+          }
+          final Statement statement = new Statement(text, keyspace);
+          final Matcher keyspaceDdl = KEYSPACE_DDL.matcher(text);
+          final Matcher tableDdl = TABLE_DDL.matcher(text);
+          if (keyspaceDdl.matches()) {
+            scripts.mKeyspaces.put(resolve(keyspaceDdl.group(1), null), statement);
+          } else if (tableDdl.find()) {
+            final String table = resolve(tableDdl.group(1), keyspace);
+            List<Statement> statements = scripts.mTables.get(table);
+            if (null == statements) {
+              statements = Lists.newArrayList();
+              scripts.mTables.put(table, statements);
+            }
+            statements.add(statement);
+          } else {
+            scripts.mOthers.add(statement);
+          }
+        }
+      }
+      for (File file : fixtureFiles) {
+        for (String text : new CqlScript(file, variables).getStatements()) {
+          final Matcher use = USE.matcher(text);
+          if (use.matches()) {
+            keyspace = resolve(use.group(1), null);
+            continue;
+          }
+          final Statement statement = new Statement(text, keyspace);
+          final Matcher target =
+              DATA_TARGET.matcher(STRING_LITERAL.matcher(text).replaceAll("''"));
+          while (target.find()) {
+            statement.mTargets.add(resolve(target.group(1), keyspace));
+          }
+          scripts.mFixtureStatements.add(statement);
+          for (String table : statement.mTargets) {
+            scripts.mFixtures.put(table, statement);
+          }
+        }
+      }
+      return scripts;
+    }
+  }
+}
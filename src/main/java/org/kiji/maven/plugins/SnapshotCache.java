@@ -0,0 +1,289 @@
+package org.kiji.maven.plugins;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * A local cache of the data directories of clusters that have had their schema and fixtures
+ * loaded, keyed by a hash of everything that determines their contents.
+ *
+ * <p>Each entry holds one directory per node (node-N/keyspace/table/...) with the node's SSTables,
+ * system keyspace included, so that restored nodes come back with the same tokens and schema.
+ * SSTables are immutable, so they are hardlinked in and out of the cache wherever the filesystem
+ * allows it.  Entries are evicted least recently used first once the cache grows past its maximum
+ * size.</p>
+ */
+public class SnapshotCache extends MavenLogged {
+  /** Bump when the layout of entries changes, so that old entries are no longer used. */
+  private static final int FORMAT_VERSION = 1;
+
+  /** Snapshot tag used when storing an entry. */
+  private static final String SNAPSHOT_TAG = "cassandra-maven-plugin-cache";
+
+  /** Name of the directory Cassandra puts snapshots in, inside each table's directory. */
+  private static final String SNAPSHOTS_DIR = "snapshots";
+
+  /** Marks an entry being built (before a timestamp), e.g. by another build. */
+  private static final String TEMP_SUFFIX = ".tmp-";
+
+  /** Age after which an entry still being built is taken to be left over from a dead build. */
+  private static final long STALE_TEMP_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+  /** Root directory of the cache. */
+  private final File mCacheDir;
+
+  /** Maximum total size of the cache, in bytes. */
+  private final long mMaxSizeBytes;
+
+  /**
+   * Creates a snapshot cache.
+   *
+   * @param log The maven log.
+   * @param cacheDir Root directory of the cache (created if necessary).
+   * @param maxSizeBytes Maximum total size of the cache, in bytes.
+   */
+  public SnapshotCache(Log log, File cacheDir, long maxSizeBytes) {
+    super(log);
+    mCacheDir = cacheDir;
+    mMaxSizeBytes = maxSizeBytes;
+  }
+
+  /**
+   * Computes the cache key of a cluster: a hash of its schema and fixture files and of the
+   * settings that determine what ends up on disk (including the keyspace prefix they may use).
+   *
+   * @param config Configuration of the cluster.
+   * @return the key.
+   * @throws IOException if a schema or fixture file cannot be read.
+   */
+  public static String computeKey(CassandraConfiguration config) throws IOException {
+    Hasher hasher = Hashing.sha256().newHasher();
+    hasher.putInt(FORMAT_VERSION);
+    hasher.putString(getCassandraVersion(config), Charsets.UTF_8);
+    hasher.putInt(config.getNumNodes());
+    hasher.putInt(config.getNumVirtualNodes());
+    hasher.putString(String.valueOf(config.getTokenAllocation()), Charsets.UTF_8);
+    hasher.putString(config.getInitialIpAddress(), Charsets.UTF_8);
+    hasher.putString(String.valueOf(config.getKeyspacePrefix()), Charsets.UTF_8);
+    for (List<File> files : Arrays.asList(config.getSchemaFiles(), config.getFixtureFiles())) {
+      hasher.putInt(files.size());
+      for (File file : files) {
+        final byte[] contents = Files.readAllBytes(file.toPath());
+        hasher.putInt(contents.length);
+        hasher.putBytes(contents);
+      }
+    }
+    return hasher.hash().toString();
+  }
+
+  /**
+   * @param config Configuration of the cluster.
+   * @return the version of Cassandra the nodes run.
+   */
+  private static String getCassandraVersion(CassandraConfiguration config) {
+    if (null != config.getCassandraVersion()) {
+      return config.getCassandraVersion();
+    }
+    for (Artifact artifact : config.getPluginDependencies()) {
+      if ("cassandra-all".equals(artifact.getArtifactId())) {
+        return artifact.getVersion();
+      }
+    }
+    return "unknown";
+  }
+
+  /**
+   * @param key Cache key.
+   * @return the directory of the entry for the key.
+   */
+  private File getEntryDir(String key) {
+    return new File(mCacheDir, key);
+  }
+
+  /**
+   * @param key Cache key.
+   * @return whether the cache holds an entry for the key.
+   */
+  public boolean contains(String key) {
+    return getEntryDir(key).isDirectory();
+  }
+
+  /**
+   * Restores a cache entry into the (empty) data directories of a cluster's nodes, which must not
+   * have been started yet.
+   *
+   * @param key Cache key.
+   * @param nodes The nodes.
+   * @throws IOException if the entry cannot be restored.
+   */
+  public void restore(String key, List<MiniCassandraClusterNode> nodes) throws IOException {
+    final File entryDir = getEntryDir(key);
+    for (MiniCassandraClusterNode node : nodes) {
+      // Cassandra finds SSTables in any of a node's data directories.
+      linkTree(new File(entryDir, "node-" + node.getNodeId()), node.getDataDirs().get(0));
+    }
+    // Mark the entry as recently used.
+    if (!entryDir.setLastModified(System.currentTimeMillis())) {
+      getLog().debug("Could not update the last use time of " + entryDir);
+    }
+    getLog().info("Restored Cassandra data from snapshot cache entry " + key);
+  }
+
+  /**
+   * Snapshots the data of every node of a running cluster into a new cache entry, then evicts old
+   * entries until the cache fits its maximum size.
+   *
+   * @param key Cache key.
+   * @param nodes The nodes.
+   * @throws IOException if the snapshots cannot be taken or stored.
+   */
+  public void store(String key, List<MiniCassandraClusterNode> nodes) throws IOException {
+    final File entryDir = getEntryDir(key);
+    // Build the entry next to its final location, and move it in place once complete.
+    final File tempDir = new File(mCacheDir, key + TEMP_SUFFIX + System.currentTimeMillis());
+    try {
+      for (MiniCassandraClusterNode node : nodes) {
+        CassandraJmxClient jmx = node.openJmxClient();
+        try {
+          // Snapshots flush first, and hardlink SSTables, so they are consistent and cheap.
+          List<String> keyspaces = jmx.getStorageService().getKeyspaces();
+          jmx.getStorageService().takeSnapshot(
+              SNAPSHOT_TAG, keyspaces.toArray(new String[keyspaces.size()]));
+          for (File dataDir : node.getDataDirs()) {
+            collectSnapshots(dataDir, dataDir, new File(tempDir, "node-" + node.getNodeId()));
+          }
+          jmx.getStorageService().clearSnapshot(SNAPSHOT_TAG);
+        } finally {
+          jmx.close();
+        }
+      }
+      if (!tempDir.renameTo(entryDir)) {
+        throw new IOException("Could not move " + tempDir + " to " + entryDir);
+      }
+    } finally {
+      if (tempDir.exists()) {
+        FileUtils.deleteDirectory(tempDir);
+      }
+    }
+    getLog().info("Stored Cassandra data in snapshot cache entry " + key);
+    evict();
+  }
+
+  /**
+   * Links the files of every snapshot with this cache's tag under a directory into a node's cache
+   * directory, as keyspace/table/file.
+   *
+   * @param dataDir The node's data directory.
+   * @param dir Directory to search.
+   * @param nodeCacheDir The node's directory in the cache entry.
+   * @throws IOException if a snapshot cannot be linked.
+   */
+  private void collectSnapshots(File dataDir, File dir, File nodeCacheDir) throws IOException {
+    final File[] children = dir.listFiles();
+    if (null == children) {
+      return;
+    }
+    for (File child : children) {
+      if (!child.isDirectory()) {
+        continue;
+      }
+      if (SNAPSHOTS_DIR.equals(child.getName())) {
+        final File snapshot = new File(child, SNAPSHOT_TAG);
+        if (snapshot.isDirectory()) {
+          final String tableDir = dataDir.toURI().relativize(dir.toURI()).getPath();
+          linkTree(snapshot, new File(nodeCacheDir, tableDir));
+        }
+      } else {
+        collectSnapshots(dataDir, child, nodeCacheDir);
+      }
+    }
+  }
+
+  /**
+   * Recreates a directory tree somewhere else, hardlinking the files (or copying them when they
+   * are on different filesystems).
+   *
+   * @param source Root of the tree.
+   * @param target Where to recreate it.
+   * @throws IOException if a file cannot be linked or copied.
+   */
+  private void linkTree(File source, File target) throws IOException {
+    final File[] children = source.listFiles();
+    if (null == children) {
+      return;
+    }
+    FileUtils.forceMkdir(target);
+    for (File child : children) {
+      final File targetChild = new File(target, child.getName());
+      if (child.isDirectory()) {
+        linkTree(child, targetChild);
+        continue;
+      }
+      try {
+        Files.createLink(targetChild.toPath(), child.toPath());
+      } catch (UnsupportedOperationException uoe) {
+        getLog().debug("Cannot hardlink " + child + " (" + uoe.getMessage() + "); copying it.");
+        Files.copy(child.toPath(), targetChild.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+      } catch (IOException ioe) {
+        getLog().debug("Cannot hardlink " + child + " (" + ioe.getMessage() + "); copying it.");
+        Files.copy(child.toPath(), targetChild.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+      }
+    }
+  }
+
+  /**
+   * Deletes the least recently used entries until the cache fits its maximum size.  Entries other
+   * builds are still building are left alone, unless they are so old that their build must have
+   * died.
+   *
+   * @throws IOException if an entry cannot be deleted.
+   */
+  private void evict() throws IOException {
+    final File[] entries = mCacheDir.listFiles();
+    if (null == entries) {
+      return;
+    }
+    Arrays.sort(entries, new Comparator<File>() {
+      @Override
+      public int compare(File a, File b) {
+        return Long.compare(b.lastModified(), a.lastModified());
+      }
+    });
+    long totalBytes = 0;
+    boolean keptNewest = false;
+    for (File entry : entries) {
+      if (!entry.isDirectory()) {
+        continue;
+      }
+      if (entry.getName().contains(TEMP_SUFFIX)) {
+        if (System.currentTimeMillis() - entry.lastModified() > STALE_TEMP_MILLIS) {
+          getLog().info("Deleting abandoned snapshot cache entry " + entry.getName());
+          FileUtils.deleteDirectory(entry);
+        }
+        continue;
+      }
+      totalBytes += FileUtils.sizeOfDirectory(entry);
+      // Always keep the most recently used entry, however big.
+      if (!keptNewest) {
+        keptNewest = true;
+      } else if (totalBytes > mMaxSizeBytes) {
+        getLog().info("Evicting snapshot cache entry " + entry.getName());
+        totalBytes -= FileUtils.sizeOfDirectory(entry);
+        FileUtils.deleteDirectory(entry);
+      }
+    }
+  }
+}
@@ -0,0 +1,53 @@
+package org.kiji.maven.plugins;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+/**
+ * Maven goal to start a Cassandra cluster in the background, so that it boots while the build
+ * compiles and runs unit tests.  Pair it with the await goal, which blocks until the cluster is
+ * ready (and fails if it could not start).
+ */
+@Mojo(
+    name = "start-async",
+    defaultPhase = LifecyclePhase.INITIALIZE
+)
+public class StartAsyncMojo extends AbstractCassandraClusterMojo {
+  /** If true, this goal should be a no-op. */
+  @Parameter(property = "cassandra.skip", alias = "cassandra.skip", defaultValue = "false")
+  private boolean mSkip;
+
+  /**
+   * Starts a mini Cassandra cluster in a new set of threads, without waiting for it.
+   *
+   * <p>This method is called by the maven plugin framework to run the goal.</p>
+   *
+   * @throws MojoExecutionException If the configuration is not valid.
+   */
+  @Override
+  public void execute() throws MojoExecutionException {
+    if (mSkip) {
+      getLog().info("Not starting a Cassandra cluster because skip=true.");
+      return;
+    }
+    startCluster(false);
+  }
+}
@@ -0,0 +1,343 @@
+package org.kiji.maven.plugins;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Follows a node through the phases of its startup, using the node's log output, and captures
+ * thread dumps (and optionally a heap histogram) into the node's directory when a phase takes
+ * longer than its time budget.
+ */
+public class StartupWatchdog extends MavenLogged
+    implements MiniCassandraClusterNodeLogPump.LineListener {
+  /** Names of the startup phases, in order. */
+  public static final List<String> PHASES =
+      Lists.newArrayList("jvm", "commitlog", "gossip", "join", "transport");
+
+  /** Log messages that end each phase (any one of them). */
+  private static final String[][] PHASE_END_MARKERS = {
+      // JVM startup, up to the point Cassandra reads its configuration.
+      {"Loading settings from"},
+      // Opening the system keyspace and replaying the commit log.
+      {"Log replay complete", "No commitlog files found"},
+      // Starting the messaging service and gossip.
+      {"Starting up server gossip"},
+      // Bootstrapping or rejoining the ring.
+      {"state jump to normal"},
+      // Opening the native transport for clients.
+      {"Starting listening for CQL clients"},
+  };
+
+  /** Log message of the start of the replay of a commit log segment. */
+  private static final Pattern REPLAYING_SEGMENT = Pattern.compile("Replaying \\S*CommitLog-");
+
+  /** Log message giving the number of mutations replayed from the commit log. */
+  private static final Pattern REPLAYED_MUTATIONS =
+      Pattern.compile("Log replay complete, (\\d+) replayed mutations");
+
+  /** How often the budget is checked, in milliseconds. */
+  private static final long CHECK_INTERVAL_MILLIS = 1000;
+
+  /** The node being watched. */
+  private final MiniCassandraClusterNode mNode;
+
+  /** Directory for the dumps. */
+  private final File mDumpDir;
+
+  /** Time budget of each phase, in milliseconds (0 for no limit). */
+  private final long[] mBudgetMillis;
+
+  /** Whether to capture a heap histogram along with the thread dumps. */
+  private final boolean mHeapHistogram;
+
+  /** When the node was started, in milliseconds. */
+  private final long mStartTimeMillis;
+
+  /** Duration of each completed phase, in milliseconds. */
+  private final long[] mPhaseMillis;
+
+  /** Index of the current phase (PHASES.size() once startup is complete). */
+  private int mPhase;
+
+  /** When the current phase started, in milliseconds. */
+  private long mPhaseStartMillis;
+
+  /** Whether the current phase has already gone over its budget. */
+  private boolean mPhaseOverBudget;
+
+  /** Number of mutations replayed from the commit log (-1 until the replay completes). */
+  private long mReplayedMutations;
+
+  /** When the replay of the first commit log segment started (-1 until it starts). */
+  private long mReplayStartMillis;
+
+  /** How long replaying the commit log took, in milliseconds (-1 until the replay completes). */
+  private long mReplayMillis;
+
+  /** Whether watching has been stopped. */
+  private volatile boolean mStopped;
+
+  /**
+   * Creates a watchdog.  Call {@link #start()} once the node's process has been launched.
+   *
+   * @param log The maven log.
+   * @param node The node to watch.
+   * @param dumpDir Directory for the dumps.
+   * @param defaultBudgetSeconds Time budget of each phase, in seconds (0 for no limit).
+   * @param phaseBudgetSeconds Budgets of particular phases, in seconds, by phase name.
+   * @param heapHistogram Whether to capture a heap histogram along with the thread dumps.
+   */
+  public StartupWatchdog(
+      Log log,
+      MiniCassandraClusterNode node,
+      File dumpDir,
+      long defaultBudgetSeconds,
+      Map<String, String> phaseBudgetSeconds,
+      boolean heapHistogram) {
+    super(log);
+    mNode = node;
+    mDumpDir = dumpDir;
+    mHeapHistogram = heapHistogram;
+    mBudgetMillis = new long[PHASES.size()];
+    for (int i = 0; i < PHASES.size(); i++) {
+      final String budget = phaseBudgetSeconds.get(PHASES.get(i));
+      mBudgetMillis[i] = 1000 * (null != budget ? Long.parseLong(budget) : defaultBudgetSeconds);
+    }
+    mPhaseMillis = new long[PHASES.size()];
+    mStartTimeMillis = System.currentTimeMillis();
+    mPhase = 0;
+    mPhaseStartMillis = mStartTimeMillis;
+    mPhaseOverBudget = false;
+    mReplayedMutations = -1;
+    mReplayStartMillis = -1;
+    mReplayMillis = -1;
+    mStopped = false;
+  }
+
+  /**
+   * Starts checking the budget, on a daemon thread, until startup completes, the process exits or
+   * {@link #stop()} is called.
+   */
+  public void start() {
+    Thread checker = new Thread("cassandra-startup-watchdog-" + mNode.getNodeId()) {
+      @Override
+      public void run() {
+        while (!mStopped && !isComplete() && mNode.isRunning()) {
+          try {
+            sleep(CHECK_INTERVAL_MILLIS);
+          } catch (InterruptedException ie) {
+            return;
+          }
+          checkBudget();
+        }
+      }
+    };
+    checker.setDaemon(true);
+    checker.start();
+  }
+
+  /**
+   * Stops watching (e.g., because the node has been stopped).
+   */
+  public void stop() {
+    mStopped = true;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public synchronized void onLine(String line) {
+    final Matcher replayed = REPLAYED_MUTATIONS.matcher(line);
+    if (replayed.find()) {
+      mReplayedMutations = Long.parseLong(replayed.group(1));
+      mReplayMillis =
+          mReplayStartMillis >= 0 ? System.currentTimeMillis() - mReplayStartMillis : 0;
+    } else if (line.contains("No commitlog files found")) {
+      mReplayedMutations = 0;
+      mReplayMillis = 0;
+    } else if (mReplayStartMillis < 0 && REPLAYING_SEGMENT.matcher(line).find()) {
+      mReplayStartMillis = System.currentTimeMillis();
+    }
+    // Later markers win, so phases that log nothing (e.g., on a restart) are simply skipped.
+    for (int phase = PHASES.size() - 1; phase >= mPhase; phase--) {
+      for (String marker : PHASE_END_MARKERS[phase]) {
+        if (line.contains(marker)) {
+          final long now = System.currentTimeMillis();
+          mPhaseMillis[phase] = now - mPhaseStartMillis;
+          mPhase = phase + 1;
+          mPhaseStartMillis = now;
+          mPhaseOverBudget = false;
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Marks startup as complete once the node is known to be up (it reports NORMAL, or clients can
+   * connect), even if the node did not log the end of every phase.  The time since the last
+   * phase ended is charged to the current phase.
+   */
+  public synchronized void markReady() {
+    if (isComplete()) {
+      return;
+    }
+    mPhaseMillis[mPhase] = System.currentTimeMillis() - mPhaseStartMillis;
+    mPhase = PHASES.size();
+  }
+
+  /**
+   * @return whether the node has gone through every phase.
+   */
+  public synchronized boolean isComplete() {
+    return mPhase >= PHASES.size();
+  }
+
+  /**
+   * @return the name of the phase the node is in, or null once startup is complete.
+   */
+  public synchronized String getCurrentPhase() {
+    return isComplete() ? null : PHASES.get(mPhase);
+  }
+
+  /**
+   * @param phase Name of a phase.
+   * @return how long the phase took, in milliseconds, or -1 if it has not completed (or was
+   *     skipped).
+   */
+  public synchronized long getPhaseMillis(String phase) {
+    final int index = PHASES.indexOf(phase);
+    Preconditions.checkArgument(index >= 0, "Unknown startup phase '%s'.", phase);
+    return index < mPhase && mPhaseMillis[index] > 0 ? mPhaseMillis[index] : -1;
+  }
+
+  /**
+   * @return the number of mutations replayed from the commit log, or -1 if the replay has not
+   *     completed.
+   */
+  public synchronized long getReplayedMutations() {
+    return mReplayedMutations;
+  }
+
+  /**
+   * @return how long replaying the commit log took, from the start of the first segment's replay
+   *     to the end of the last one's, in milliseconds; -1 if the replay has not completed.
+   */
+  public synchronized long getReplayMillis() {
+    return mReplayMillis;
+  }
+
+  /**
+   * @return how long each completed phase took, e.g. "jvm 1.2 s, commitlog 0.3 s".
+   */
+  public synchronized String getPhaseSummary() {
+    List<String> phases = Lists.newArrayList();
+    for (int phase = 0; phase < mPhase; phase++) {
+      phases.add(String.format("%s %.1f s", PHASES.get(phase), mPhaseMillis[phase] / 1000.0));
+    }
+    if (!isComplete()) {
+      phases.add(String.format("%s (incomplete) %.1f s",
+          PHASES.get(mPhase), (System.currentTimeMillis() - mPhaseStartMillis) / 1000.0));
+    }
+    return Joiner.on(", ").join(phases);
+  }
+
+  /**
+   * Captures dumps if the current phase has gone over its budget (once per phase).
+   */
+  private void checkBudget() {
+    final String phase;
+    final long elapsed;
+    synchronized (this) {
+      if (isComplete() || mPhaseOverBudget || mBudgetMillis[mPhase] <= 0) {
+        return;
+      }
+      elapsed = System.currentTimeMillis() - mPhaseStartMillis;
+      if (elapsed <= mBudgetMillis[mPhase]) {
+        return;
+      }
+      mPhaseOverBudget = true;
+      phase = PHASES.get(mPhase);
+    }
+    getLog().warn(String.format("Node %s has been in startup phase '%s' for %.0f s (budget %d s); "
+        + "capturing diagnostics into %s.",
+        mNode, phase, elapsed / 1000.0, mBudgetMillis[PHASES.indexOf(phase)] / 1000, mDumpDir));
+    captureDiagnostics(phase);
+  }
+
+  /**
+   * Captures a thread dump, and a heap histogram if requested, of the node.
+   *
+   * @param phase Name of the phase that stalled, used in the file names.
+   */
+  private void captureDiagnostics(String phase) {
+    final String pid = Long.toString(mNode.getPid());
+    final String suffix = phase + "-" + System.currentTimeMillis() + ".txt";
+    final File jstack = getJdkTool("jstack");
+    if (null != jstack) {
+      runTool(new File(mDumpDir, "threaddump-" + suffix), jstack.getPath(), "-l", pid);
+    } else {
+      // Without jstack, SIGQUIT makes the JVM print a thread dump into the node's log.
+      getLog().warn("No jstack in this JDK; sending SIGQUIT, so the dump goes to the node's log.");
+      mNode.requestThreadDump();
+    }
+    if (mHeapHistogram) {
+      final File jmap = getJdkTool("jmap");
+      if (null != jmap) {
+        runTool(new File(mDumpDir, "heaphisto-" + suffix), jmap.getPath(), "-histo", pid);
+      } else {
+        getLog().warn("No jmap in this JDK; not capturing a heap histogram.");
+      }
+    }
+  }
+
+  /**
+   * Finds a JDK tool next to the running JVM (in the JDK, or in the JDK above a JRE).
+   *
+   * @param name Name of the tool.
+   * @return the tool, or null if there is none.
+   */
+  private static File getJdkTool(String name) {
+    final File javaHome = new File(System.getProperty("java.home"));
+    for (File bin : new File[] {
+        new File(javaHome, "bin"), new File(javaHome.getParentFile(), "bin")}) {
+      final File tool = new File(bin, name);
+      if (tool.canExecute()) {
+        return tool;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Runs a tool, writing its output to a file.
+   *
+   * @param output File to write the output to.
+   * @param command The command line.
+   */
+  private void runTool(File output, String... command) {
+    try {
+      final Process process = new ProcessBuilder(command)
+          .redirectErrorStream(true)
+          .redirectOutput(output)
+          .start();
+      if (process.waitFor() != 0) {
+        getLog().warn(command[0] + " failed; see " + output);
+      } else {
+        getLog().warn("Wrote " + output);
+      }
+    } catch (IOException ioe) {
+      getLog().warn("Could not run " + command[0] + ": " + ioe.getMessage());
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -22,9 +22,11 @@ import java.io.IOException;
 
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
 
 /**
  * Goal which touches a timestamp file.
@@ -38,12 +40,27 @@ public class StopMojo extends AbstractMojo {
   @Parameter(property = "cassandra.skip", defaultValue = "false")
   private boolean mSkip;
 
+  /** The current project. */
+  @Parameter(defaultValue = "${project}", readonly = true)
+  private MavenProject mProject;
+
   @Override
-  public void execute() throws MojoExecutionException {
+  public void execute() throws MojoExecutionException, MojoFailureException {
     if (mSkip) {
       getLog().info("Not stopping an Cassandra cluster because skip=true.");
       return;
     }
-    MiniCassandraClusterSingleton.INSTANCE.stop(getLog());
+    MiniCassandraCluster cluster =
+        MiniCassandraClusterSingleton.INSTANCE.stop(getLog(), mProject.getId());
+    if (null == cluster) {
+      return;
+    }
+    final double maxPauseThreshold = cluster.getConfiguration().getGcMaxPauseMillis();
+    if (maxPauseThreshold > 0 && cluster.getMaxGcPauseMillis() > maxPauseThreshold) {
+      throw new MojoFailureException(String.format(
+          "A Cassandra node paused for GC for %.1f ms, longer than gcMaxPauseMillis (%.1f ms); "
+          + "see the GC sections of %s.",
+          cluster.getMaxGcPauseMillis(), maxPauseThreshold, CassandraRunReport.REPORT_FILE_NAME));
+    }
   }
 }
@@ -0,0 +1,69 @@
+package org.kiji.maven.plugins;
+
+import java.math.BigInteger;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+/**
+ * How the nodes of a cluster pick their (Murmur3) tokens.
+ */
+public enum TokenAllocation {
+  /** Each node picks num_tokens random tokens when it first starts (Cassandra's default). */
+  RANDOM,
+
+  /**
+   * The initial nodes get evenly spaced tokens, interleaved around the ring, so that every node
+   * owns exactly the same share of it.  Nodes added later pick random tokens.
+   */
+  BALANCED;
+
+  /** Smallest Murmur3 token. */
+  private static final BigInteger MIN_TOKEN = BigInteger.valueOf(Long.MIN_VALUE);
+
+  /** Size of the Murmur3 token ring (2^64). */
+  private static final BigInteger RING_SIZE = BigInteger.ONE.shiftLeft(64);
+
+  /**
+   * Computes the initial tokens of a node.
+   *
+   * <p>Token j of node i sits in the middle of slot j * numNodes + i of numNodes * tokensPerNode
+   * evenly spaced slots, so consecutive tokens on the ring always belong to different nodes.  No
+   * token is the minimum token, which Cassandra reads as "the start (or end) of the ring": a range
+   * ending at it would stand for the whole ring.</p>
+   *
+   * @param numNodes Number of nodes the cluster starts with.
+   * @param tokensPerNode Number of tokens each node owns.
+   * @param nodeIndex Index of the node, from 0 to numNodes - 1.
+   * @return the tokens of the node, or null to let the node pick its own.
+   */
+  public List<String> getInitialTokens(int numNodes, int tokensPerNode, int nodeIndex) {
+    if (this == RANDOM || nodeIndex >= numNodes) {
+      return null;
+    }
+    final BigInteger twiceNumSlots = BigInteger.valueOf(2L * numNodes * tokensPerNode);
+    List<String> tokens = Lists.newArrayList();
+    for (int j = 0; j < tokensPerNode; j++) {
+      // Middle of the slot: (2 * slot + 1) / (2 * numSlots) of the way around the ring.
+      final BigInteger halfSlots = BigInteger.valueOf(2L * ((long) j * numNodes + nodeIndex) + 1);
+      tokens.add(MIN_TOKEN.add(RING_SIZE.multiply(halfSlots).divide(twiceNumSlots)).toString());
+    }
+    return tokens;
+  }
+
+  /**
+   * Looks up a token allocation by (case-insensitive) name.
+   *
+   * @param name Name of the allocation: random or balanced.
+   * @return the token allocation.
+   */
+  public static TokenAllocation fromName(String name) {
+    for (TokenAllocation allocation : values()) {
+      if (allocation.name().equalsIgnoreCase(name)) {
+        return allocation;
+      }
+    }
+    throw new IllegalArgumentException(
+        "Unknown token allocation '" + name + "' (expected random or balanced).");
+  }
+}
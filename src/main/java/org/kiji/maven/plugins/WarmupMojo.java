@@ -0,0 +1,106 @@
+package org.kiji.maven.plugins;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+/**
+ * Maven goal to bring the running Cassandra cluster to a steady state before the integration
+ * tests take measurements.
+ *
+ * <p>Flushes and compacts the chosen keyspaces on every node, waits until no compactions are
+ * pending, then reads the partitions of their tables to prime the key and row caches.  Bind it
+ * after the start goal (and after anything else that loads data).</p>
+ */
+@Mojo(
+    name = "warmup",
+    defaultPhase = LifecyclePhase.PRE_INTEGRATION_TEST
+)
+public class WarmupMojo extends AbstractMojo {
+  /** If true, this goal should be a no-op. */
+  @Parameter(property = "cassandra.skip", defaultValue = "false")
+  private boolean mSkip;
+
+  /** Keyspaces to warm up (by default, every keyspace but the system ones). */
+  @Parameter(alias = "warmupKeyspaces")
+  private List<String> mKeyspaces = Collections.emptyList();
+
+  /** Whether to run a major compaction of the keyspaces after flushing them. */
+  @Parameter(property = "cassandra.warmup.compact", alias = "warmupCompact",
+      defaultValue = "true")
+  private boolean mCompact;
+
+  /** Maximum number of partitions to read from each table to prime the caches (0 for none). */
+  @Parameter(property = "cassandra.warmup.readPartitions", alias = "warmupReadPartitions",
+      defaultValue = "100000")
+  private long mReadPartitions;
+
+  /** How many times to read each partition. */
+  @Parameter(property = "cassandra.warmup.readPasses", alias = "warmupReadPasses",
+      defaultValue = "1")
+  private int mReadPasses;
+
+  /** Maximum number of reads in flight at once. */
+  @Parameter(property = "cassandra.warmup.concurrency", alias = "warmupConcurrency",
+      defaultValue = "32")
+  private int mConcurrency;
+
+  /** How long to wait for pending compactions to drain, in seconds. */
+  @Parameter(property = "cassandra.warmup.timeoutSeconds", alias = "warmupTimeoutSeconds",
+      defaultValue = "600")
+  private long mTimeoutSeconds;
+
+  @Override
+  public void execute() throws MojoExecutionException {
+    if (mSkip) {
+      getLog().info("Not warming up the Cassandra cluster because skip=true.");
+      return;
+    }
+    final MiniCassandraCluster cluster;
+    try {
+      cluster = MiniCassandraClusterSingleton.INSTANCE.getRunningCluster();
+    } catch (IllegalStateException ise) {
+      throw new MojoExecutionException("Cannot warm up the Cassandra cluster.", ise);
+    }
+    if (mConcurrency < 1) {
+      throw new MojoExecutionException("warmupConcurrency must be at least 1.");
+    }
+
+    getLog().info("Warming up the Cassandra cluster...");
+    try {
+      new ClusterWarmup(
+          getLog(),
+          cluster,
+          mKeyspaces,
+          mCompact,
+          mReadPartitions,
+          mReadPasses,
+          mConcurrency,
+          TimeUnit.SECONDS.toMillis(mTimeoutSeconds)).run();
+    } catch (Exception e) {
+      throw new MojoExecutionException("Unable to warm up Cassandra cluster.", e);
+    }
+  }
+}
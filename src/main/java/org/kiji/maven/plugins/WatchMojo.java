@@ -0,0 +1,224 @@
+package org.kiji.maven.plugins;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.exceptions.DriverException;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+/**
+ * Maven goal that keeps a Cassandra cluster running and applies edits of the schema and fixture
+ * scripts to it as they are saved, for iterating on a data model without restarting the cluster.
+ *
+ * <p>Uses the cluster already running in this build if there is one (e.g., <code>mvn
+ * cassandra:start-async cassandra:watch</code>); otherwise starts one, and stops it when the goal
+ * ends.  Only what changed is applied (see {@link SchemaReloader}); how long each apply took is
+ * logged and goes into the run report.  Runs until maven is interrupted, or until the timeout.</p>
+ */
+@Mojo(name = "watch")
+public class WatchMojo extends AbstractCassandraClusterMojo {
+  /** If true, this goal should be a no-op. */
+  @Parameter(property = "cassandra.skip", defaultValue = "false")
+  private boolean mSkip;
+
+  /** How long a script must go unchanged before it is applied, in milliseconds. */
+  @Parameter(
+      property = "cassandra.watch.quietMillis",
+      alias = "watchQuietMillis",
+      defaultValue = "200")
+  private long mWatchQuietMillis;
+
+  /** How long to watch for, in seconds (0 to watch until maven is interrupted). */
+  @Parameter(
+      property = "cassandra.watch.timeoutSeconds",
+      alias = "watchTimeoutSeconds",
+      defaultValue = "0")
+  private long mWatchTimeoutSeconds;
+
+  @Override
+  public void execute() throws MojoExecutionException {
+    if (mSkip) {
+      getLog().info("Not watching the Cassandra schema because skip=true.");
+      return;
+    }
+
+    MiniCassandraCluster cluster;
+    boolean started = false;
+    try {
+      cluster = MiniCassandraClusterSingleton.INSTANCE.getRunningCluster();
+      getLog().info("Watching against the Cassandra cluster running in this build.");
+    } catch (IllegalStateException ise) {
+      // Watching normally ends with an interrupt; the cluster then stops from a shutdown hook.
+      startCluster(true);
+      cluster = MiniCassandraClusterSingleton.INSTANCE.getRunningCluster();
+      started = true;
+    }
+
+    try {
+      watch(cluster);
+    } finally {
+      if (started) {
+        MiniCassandraClusterSingleton.INSTANCE.stop(getLog(), getProject().getId());
+      }
+    }
+  }
+
+  /**
+   * Applies the scripts of the cluster's configuration whenever they change, until the timeout.
+   *
+   * @param cluster The running cluster.
+   * @throws MojoExecutionException if there is nothing to watch, or the scripts cannot be watched.
+   */
+  private void watch(MiniCassandraCluster cluster) throws MojoExecutionException {
+    final CassandraConfiguration config = cluster.getConfiguration();
+    List<File> scripts = Lists.newArrayList(config.getSchemaFiles());
+    scripts.addAll(config.getFixtureFiles());
+    if (scripts.isEmpty()) {
+      throw new MojoExecutionException("Nothing to watch: no schemaFiles or fixtureFiles.");
+    }
+
+    Cluster client = Cluster.builder()
+        .addContactPoints(cluster.getNodeAddresses().toArray(new String[0]))
+        .withPort(config.getPortNativeTransport())
+        .build();
+    try {
+      final WatchService watcher = FileSystems.getDefault().newWatchService();
+      try {
+        // Editors often save by writing a new file and renaming it, so watch the directories.
+        Set<Path> watched = Sets.newHashSet();
+        Set<Path> directories = Sets.newHashSet();
+        for (File script : scripts) {
+          final Path path = script.getAbsoluteFile().toPath().normalize();
+          watched.add(path);
+          if (directories.add(path.getParent())) {
+            path.getParent().register(watcher,
+                StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+          }
+        }
+        final SchemaReloader reloader = new SchemaReloader(
+            getLog(),
+            client.connect(),
+            config.getSchemaFiles(),
+            config.getFixtureFiles(),
+            CqlScript.getVariables(config));
+        getLog().info("Watching " + scripts + " for changes.");
+        watch(watcher, watched, reloader, cluster.getReport());
+      } finally {
+        watcher.close();
+      }
+    } catch (IOException ioe) {
+      throw new MojoExecutionException("Unable to watch the schema and fixture scripts.", ioe);
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      getLog().info("Interrupted; no longer watching the schema and fixture scripts.");
+    } finally {
+      client.close();
+    }
+  }
+
+  /**
+   * Applies the scripts whenever they change, until the timeout.
+   *
+   * @param watcher Watches the directories of the scripts.
+   * @param watched The scripts.
+   * @param reloader Applies the scripts.
+   * @param report The run report.
+   * @throws InterruptedException if interrupted while waiting for changes.
+   */
+  private void watch(
+      WatchService watcher,
+      Set<Path> watched,
+      SchemaReloader reloader,
+      CassandraRunReport report) throws InterruptedException {
+    final long deadline =
+        System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(mWatchTimeoutSeconds);
+    while (true) {
+      final WatchKey key;
+      if (mWatchTimeoutSeconds > 0) {
+        key = watcher.poll(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        if (null == key) {
+          getLog().info("Done watching the schema and fixture scripts.");
+          return;
+        }
+      } else {
+        key = watcher.take();
+      }
+      Set<Path> changed = Sets.newTreeSet();
+      collectChanges(key, watched, changed);
+      // Wait for the scripts to settle: saving can take several writes.
+      for (WatchKey more = watcher.poll(mWatchQuietMillis, TimeUnit.MILLISECONDS);
+           null != more;
+           more = watcher.poll(mWatchQuietMillis, TimeUnit.MILLISECONDS)) {
+        collectChanges(more, watched, changed);
+      }
+      if (changed.isEmpty()) {
+        continue;
+      }
+
+      getLog().info("Applying changes of " + changed + "...");
+      try {
+        final String summary = reloader.apply();
+        getLog().info("Applied " + changed + ": " + summary);
+        report.add("Watch", changed + ": " + summary);
+      } catch (IOException ioe) {
+        getLog().error("Unable to read the scripts: " + ioe.getMessage());
+      } catch (DriverException de) {
+        getLog().error("Unable to apply " + changed + " (fix the script and save it again): "
+            + de.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Collects the scripts a watch key reports as changed, and resets the key.
+   *
+   * @param key The watch key of a directory.
+   * @param watched The scripts.
+   * @param changed Collects the changed scripts.
+   */
+  private static void collectChanges(WatchKey key, Set<Path> watched, Set<Path> changed) {
+    final Path directory = (Path) key.watchable();
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (StandardWatchEventKinds.OVERFLOW == event.kind()) {
+        // Events were lost; anything may have changed.
+        changed.addAll(watched);
+        continue;
+      }
+      final Path path = directory.resolve((Path) event.context());
+      if (watched.contains(path)) {
+        changed.add(path);
+      }
+    }
+    key.reset();
+  }
+}